@@ -0,0 +1,42 @@
+package com.thingworx.extensions.sftpExtension.benchmark;
+
+import com.thingworx.extensions.sftpExtension.DeleteResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recursive deletion of a tree, that is created again directly on disk before every call
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DeleteBenchmark extends RepositoryBenchmark {
+    private static final int FILES_PER_DIRECTORY = 50;
+
+    @Param({"10", "100"})
+    public int directories;
+
+    @Setup(Level.Invocation)
+    public void createTree() throws Exception {
+        Path tree = Files.createDirectory(server.getRoot().resolve("tree"));
+        for (int i = 0; i < directories; i++) {
+            Path directory = Files.createDirectories(tree.resolve("level-" + (i % 5)).resolve("dir-" + i));
+            for (int j = 0; j < FILES_PER_DIRECTORY; j++) {
+                Files.write(directory.resolve("file-" + j + ".csv"), new byte[16]);
+            }
+        }
+    }
+
+    @Benchmark
+    public DeleteResult deleteFolder() throws Exception {
+        return repository.deleteFolder("/tree");
+    }
+}
@@ -0,0 +1,95 @@
+package com.thingworx.extensions.sftpExtension.benchmark;
+
+import com.thingworx.extensions.sftpExtension.SftpConfiguration;
+import org.apache.sshd.common.file.virtualfs.VirtualFileSystemFactory;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.apache.sshd.sftp.server.SftpSubsystemFactory;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+
+/**
+ * An in process sftp server on localhost, serving a temporary directory, for running the extension
+ * against a real server without any network latency
+ */
+public class EmbeddedSftpServer implements AutoCloseable {
+    private static final String USERNAME = "benchmark";
+    private static final String PASSWORD = "benchmark";
+
+    private final SshServer server;
+    private final Path root;
+
+    public EmbeddedSftpServer() throws IOException {
+        root = Files.createTempDirectory("sftp-benchmark");
+        server = SshServer.setUpDefaultServer();
+        server.setHost("localhost");
+        // any free port
+        server.setPort(0);
+        server.setKeyPairProvider(new SimpleGeneratorHostKeyProvider());
+        server.setPasswordAuthenticator((username, password, session) ->
+                USERNAME.equals(username) && PASSWORD.equals(password));
+        server.setSubsystemFactories(Collections.singletonList(new SftpSubsystemFactory()));
+        server.setFileSystemFactory(new VirtualFileSystemFactory(root));
+        server.start();
+    }
+
+    /**
+     * @return the directory served, where the remote paths are resolved from
+     */
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * @return number of ssh sessions currently connected to the server
+     */
+    public int getActiveSessions() {
+        return server.getActiveSessions().size();
+    }
+
+    /**
+     * @return a configuration that connects to this server
+     */
+    public SftpConfiguration createConfiguration() {
+        SftpConfiguration config = new SftpConfiguration();
+        config.setHost("localhost");
+        config.setPort(server.getPort());
+        config.setUsername(USERNAME);
+        config.setPassword(PASSWORD);
+        return config;
+    }
+
+    /**
+     * Stops the server and removes the served directory
+     */
+    @Override
+    public void close() throws IOException {
+        server.stop(true);
+        deleteTree(root);
+    }
+
+    static void deleteTree(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
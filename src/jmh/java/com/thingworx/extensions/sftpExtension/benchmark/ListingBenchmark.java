@@ -0,0 +1,59 @@
+package com.thingworx.extensions.sftpExtension.benchmark;
+
+import com.thingworx.extensions.sftpExtension.FileSystemFile;
+import com.thingworx.extensions.sftpExtension.ListingFilter;
+import com.thingworx.extensions.sftpExtension.ListingSort;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Listing of large directories, and walking of a tree with the same number of files
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ListingBenchmark extends RepositoryBenchmark {
+    private static final int TREE_DIRECTORIES = 100;
+
+    @Param({"1000", "10000"})
+    public int files;
+
+    @Setup
+    public void createFiles() throws Exception {
+        Path flat = Files.createDirectory(server.getRoot().resolve("flat"));
+        Path tree = Files.createDirectory(server.getRoot().resolve("tree"));
+        for (int i = 0; i < files; i++) {
+            Files.write(flat.resolve("file-" + i + ".csv"), new byte[16]);
+            Path directory = tree.resolve("dir-" + (i % TREE_DIRECTORIES));
+            if (!Files.exists(directory)) {
+                Files.createDirectory(directory);
+            }
+            Files.write(directory.resolve("file-" + i + ".csv"), new byte[16]);
+        }
+    }
+
+    @Benchmark
+    public List<FileSystemFile> listDirectory() throws Exception {
+        return repository.listFilesAndDirectories("/flat");
+    }
+
+    @Benchmark
+    public List<FileSystemFile> searchFirstPage() throws Exception {
+        ListingFilter filter = new ListingFilter();
+        filter.setGlob("file-1*.csv");
+        return repository.listFiles("/flat", filter, ListingSort.NAME, false, 0, 100);
+    }
+
+    @Benchmark
+    public List<FileSystemFile> walkTree() throws Exception {
+        return repository.walkDirectory("/tree", 0, new ListingFilter());
+    }
+}
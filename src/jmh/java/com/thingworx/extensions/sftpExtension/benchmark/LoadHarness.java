@@ -0,0 +1,282 @@
+package com.thingworx.extensions.sftpExtension.benchmark;
+
+import com.thingworx.extensions.sftpExtension.LatencyHistogram;
+import com.thingworx.extensions.sftpExtension.ManagedSftpFileRepository;
+import com.thingworx.extensions.sftpExtension.SftpConfiguration;
+import com.thingworx.extensions.sftpExtension.SftpMetrics;
+import com.thingworx.extensions.sftpExtension.SftpRepository;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs many simulated things with a mixed workload against an embedded sftp server for a while, and reports
+ * throughput, latency percentiles, thread count, heap growth and the sessions left open once everything is closed.
+ * Each simulated thing has its own managed repository, configured like a real thing would be.
+ * <p>
+ * Options are system properties:
+ * <ul>
+ * <li>load.things: number of simulated things (20)</li>
+ * <li>load.threadsPerThing: concurrent callers per thing (2)</li>
+ * <li>load.duration: run time in seconds (60)</li>
+ * <li>load.reportInterval: seconds between progress lines (10)</li>
+ * <li>load.maxErrorRate: fraction of failed calls above which the run fails (0.01)</li>
+ * </ul>
+ * The first argument, if any, is a file where the summary is written as json.
+ * The process exits with status 1 if the error rate is too high, or if sessions or threads leaked.
+ */
+public class LoadHarness {
+    private static final int FILES_PER_THING = 200;
+    private static final int SMALL_FILE_SIZE = 16 * 1024;
+    private static final int LARGE_FILE_SIZE = 4 * 1024 * 1024;
+    /**
+     * Time given to the server to notice closed sessions, and to idle worker threads to end
+     */
+    private static final long SETTLE_TIME = 5 * 1000;
+    /**
+     * Threads the extension keeps for its whole lifetime, like the shared scheduler
+     */
+    private static final int ALLOWED_EXTRA_THREADS = 4;
+
+    private final int things = Integer.getInteger("load.things", 20);
+    private final int threadsPerThing = Integer.getInteger("load.threadsPerThing", 2);
+    private final long duration = TimeUnit.SECONDS.toMillis(Integer.getInteger("load.duration", 60));
+    private final long reportInterval = TimeUnit.SECONDS.toMillis(Integer.getInteger("load.reportInterval", 10));
+    private final double maxErrorRate = Double.parseDouble(System.getProperty("load.maxErrorRate", "0.01"));
+
+    private final SftpMetrics metrics = new SftpMetrics();
+    private final AtomicBoolean running = new AtomicBoolean(true);
+    private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    private final MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+
+    public static void main(String[] args) throws Exception {
+        boolean passed = new LoadHarness().run(args.length > 0 ? new File(args[0]) : null);
+        System.exit(passed ? 0 : 1);
+    }
+
+    private boolean run(File summaryFile) throws Exception {
+        int threadsBefore = threadBean.getThreadCount();
+        long heapBefore = usedHeapAfterGc();
+        int peakThreads;
+        long heapAfterRun;
+        int leakedSessions;
+        int threadsAfter;
+        long elapsed;
+        try (EmbeddedSftpServer server = new EmbeddedSftpServer()) {
+            List<ManagedSftpFileRepository> repositories = new ArrayList<>();
+            List<Thread> callers = new ArrayList<>();
+            long start;
+            try {
+                for (int i = 0; i < things; i++) {
+                    createFixtures(server.getRoot().resolve("thing-" + i));
+                    repositories.add(new ManagedSftpFileRepository(createConfiguration(server)));
+                }
+                for (int i = 0; i < things; i++) {
+                    SftpRepository repository = repositories.get(i).getRepository();
+                    String directory = "/thing-" + i;
+                    for (int j = 0; j < threadsPerThing; j++) {
+                        // the server fails a listing when one of its entries is moved while it is read
+                        String workFile = directory + "/work-" + j + "/work.bin";
+                        Thread caller = new Thread(() -> runWorkload(repository, directory, workFile),
+                                "LoadHarness-" + i + "-" + j);
+                        callers.add(caller);
+                    }
+                }
+                start = System.currentTimeMillis();
+                callers.forEach(Thread::start);
+                peakThreads = monitor(start);
+                running.set(false);
+                for (Thread caller : callers) {
+                    caller.join();
+                }
+                elapsed = System.currentTimeMillis() - start;
+                heapAfterRun = usedHeapAfterGc();
+            } finally {
+                running.set(false);
+                for (ManagedSftpFileRepository repository : repositories) {
+                    repository.close();
+                }
+            }
+            Thread.sleep(SETTLE_TIME);
+            leakedSessions = server.getActiveSessions();
+        }
+        threadsAfter = threadBean.getThreadCount();
+
+        long calls = metrics.getCalls();
+        double errorRate = calls == 0 ? 0 : (double) metrics.getErrors() / calls;
+        boolean passed = errorRate <= maxErrorRate && leakedSessions == 0
+                && threadsAfter <= threadsBefore + ALLOWED_EXTRA_THREADS;
+        printSummary(elapsed, threadsBefore, peakThreads, threadsAfter, heapBefore, heapAfterRun, leakedSessions,
+                errorRate, passed);
+        if (summaryFile != null) {
+            writeSummary(summaryFile, elapsed, threadsBefore, peakThreads, threadsAfter, heapBefore, heapAfterRun,
+                    leakedSessions, errorRate, passed);
+        }
+        return passed;
+    }
+
+    private SftpConfiguration createConfiguration(EmbeddedSftpServer server) {
+        SftpConfiguration config = server.createConfiguration();
+        // short enough for idle eviction to happen during the run
+        config.setKeepAliveTimeout(10 * 1000);
+        config.setCacheTtl(2 * 1000);
+        return config;
+    }
+
+    private void createFixtures(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        for (int i = 0; i < threadsPerThing; i++) {
+            Files.createDirectories(directory.resolve("work-" + i));
+        }
+        for (int i = 0; i < FILES_PER_THING; i++) {
+            Files.write(directory.resolve("file-" + i + ".csv"), new byte[SMALL_FILE_SIZE / 16]);
+        }
+        byte[] content = new byte[LARGE_FILE_SIZE];
+        new Random(directory.hashCode()).nextBytes(content);
+        Files.write(directory.resolve("large.bin"), content);
+    }
+
+    /**
+     * Calls random operations until the run is over. The mix leans towards metadata operations,
+     * like the mashups and scripts using the extension
+     */
+    private void runWorkload(SftpRepository repository, String directory, String workFile) {
+        byte[] content = new byte[SMALL_FILE_SIZE];
+        ThreadLocalRandom.current().nextBytes(content);
+        String movedFile = workFile + ".moved";
+        boolean uploaded = false;
+        while (running.get()) {
+            int dice = ThreadLocalRandom.current().nextInt(100);
+            String operation = dice < 35 ? "listFiles" : dice < 60 ? "getFileInfo"
+                    : dice < 75 || !uploaded ? "uploadSmallFile" : dice < 85 ? "downloadSmallFile"
+                    : dice < 95 ? "moveFile" : "downloadLargeFile";
+            long start = System.nanoTime();
+            boolean success = false;
+            try {
+                switch (operation) {
+                    case "listFiles":
+                        repository.listFiles(directory);
+                        break;
+                    case "getFileInfo":
+                        repository.getFileInfo(directory + "/file-"
+                                + ThreadLocalRandom.current().nextInt(FILES_PER_THING) + ".csv");
+                        break;
+                    case "uploadSmallFile":
+                        repository.uploadFile(new ByteArrayInputStream(content), workFile);
+                        uploaded = true;
+                        break;
+                    case "downloadSmallFile":
+                        repository.downloadFile(workFile);
+                        break;
+                    case "moveFile":
+                        repository.moveFile(workFile, movedFile, true);
+                        repository.moveFile(movedFile, workFile, true);
+                        break;
+                    default:
+                        repository.downloadFile(directory + "/large.bin");
+                }
+                success = true;
+            } catch (Exception e) {
+                System.err.println(Thread.currentThread().getName() + " " + operation + " failed: " + e.getMessage());
+            }
+            metrics.record(operation, System.nanoTime() - start, success);
+        }
+    }
+
+    /**
+     * Prints progress until the run time is over
+     *
+     * @return the highest number of live threads seen
+     */
+    private int monitor(long start) throws InterruptedException {
+        int peakThreads = 0;
+        long lastCalls = 0;
+        long lastReport = start;
+        while (System.currentTimeMillis() - start < duration) {
+            Thread.sleep(Math.min(reportInterval, Math.max(1, duration - (System.currentTimeMillis() - start))));
+            long now = System.currentTimeMillis();
+            long calls = metrics.getCalls();
+            int threads = threadBean.getThreadCount();
+            peakThreads = Math.max(peakThreads, threads);
+            System.out.printf("%5ds %8.0f ops/s %6d errors %4d threads %6d MB heap%n", (now - start) / 1000,
+                    (calls - lastCalls) * 1000.0 / Math.max(1, now - lastReport), metrics.getErrors(), threads,
+                    memoryBean.getHeapMemoryUsage().getUsed() / (1024 * 1024));
+            lastCalls = calls;
+            lastReport = now;
+        }
+        return peakThreads;
+    }
+
+    private long usedHeapAfterGc() {
+        System.gc();
+        return memoryBean.getHeapMemoryUsage().getUsed();
+    }
+
+    private void printSummary(long elapsed, int threadsBefore, int peakThreads, int threadsAfter, long heapBefore,
+                              long heapAfter, int leakedSessions, double errorRate, boolean passed) {
+        System.out.printf("%nThings: %d, callers per thing: %d, duration: %d s%n", things, threadsPerThing,
+                elapsed / 1000);
+        System.out.printf("Throughput: %.0f ops/s, error rate: %.4f%n", metrics.getCalls() * 1000.0 / elapsed,
+                errorRate);
+        System.out.printf("%-20s %10s %8s %10s %10s %10s %10s%n", "operation", "calls", "errors", "p50 ms",
+                "p95 ms", "p99 ms", "max ms");
+        for (Map.Entry<String, SftpMetrics.OperationMetrics> entry : metrics.getOperations().entrySet()) {
+            LatencyHistogram latency = entry.getValue().getLatency();
+            System.out.printf("%-20s %10d %8d %10.2f %10.2f %10.2f %10.2f%n", entry.getKey(),
+                    entry.getValue().getCalls(), entry.getValue().getErrors(), latency.getPercentile(50),
+                    latency.getPercentile(95), latency.getPercentile(99), latency.getMax());
+        }
+        System.out.printf("Threads: %d before, %d peak, %d after close%n", threadsBefore, peakThreads, threadsAfter);
+        System.out.printf("Heap: %d MB before, %d MB after the run (%+d MB)%n", heapBefore / (1024 * 1024),
+                heapAfter / (1024 * 1024), (heapAfter - heapBefore) / (1024 * 1024));
+        System.out.printf("Sessions left open after close: %d%n", leakedSessions);
+        System.out.println(passed ? "PASSED" : "FAILED");
+    }
+
+    private void writeSummary(File file, long elapsed, int threadsBefore, int peakThreads, int threadsAfter,
+                              long heapBefore, long heapAfter, int leakedSessions, double errorRate, boolean passed)
+            throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Cannot create directory " + parent);
+        }
+        try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+            out.println("{");
+            out.printf("  \"things\": %d,%n", things);
+            out.printf("  \"threadsPerThing\": %d,%n", threadsPerThing);
+            out.printf("  \"durationMillis\": %d,%n", elapsed);
+            out.printf("  \"throughput\": %.2f,%n", metrics.getCalls() * 1000.0 / elapsed);
+            out.printf("  \"errorRate\": %.6f,%n", errorRate);
+            out.printf("  \"threads\": {\"before\": %d, \"peak\": %d, \"after\": %d},%n", threadsBefore,
+                    peakThreads, threadsAfter);
+            out.printf("  \"heap\": {\"before\": %d, \"after\": %d},%n", heapBefore, heapAfter);
+            out.printf("  \"leakedSessions\": %d,%n", leakedSessions);
+            out.println("  \"operations\": {");
+            int remaining = metrics.getOperations().size();
+            for (Map.Entry<String, SftpMetrics.OperationMetrics> entry : metrics.getOperations().entrySet()) {
+                LatencyHistogram latency = entry.getValue().getLatency();
+                out.printf("    \"%s\": {\"calls\": %d, \"errors\": %d, \"p50\": %.3f, \"p95\": %.3f, \"p99\": %.3f, " +
+                                "\"max\": %.3f}%s%n", entry.getKey(), entry.getValue().getCalls(),
+                        entry.getValue().getErrors(), latency.getPercentile(50), latency.getPercentile(95),
+                        latency.getPercentile(99), latency.getMax(), --remaining > 0 ? "," : "");
+            }
+            out.println("  },");
+            out.printf("  \"passed\": %s%n", passed);
+            out.println("}");
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.thingworx.extensions.sftpExtension.benchmark;
+
+import com.thingworx.extensions.sftpExtension.SftpConfiguration;
+import com.thingworx.extensions.sftpExtension.SftpMetrics;
+import com.thingworx.extensions.sftpExtension.jsch.SftpChannelPool;
+import com.thingworx.extensions.sftpExtension.jsch.SftpFileRepositoryImpl;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Base of the benchmarks, that starts an embedded server and connects a repository to it for the whole trial
+ */
+@State(Scope.Benchmark)
+public abstract class RepositoryBenchmark {
+    protected EmbeddedSftpServer server;
+    protected SftpConfiguration config;
+    protected SftpFileRepositoryImpl repository;
+
+    @Setup
+    public void startServer() throws Exception {
+        server = new EmbeddedSftpServer();
+        config = server.createConfiguration();
+        repository = new SftpFileRepositoryImpl(new SftpChannelPool(config, new SftpMetrics()),
+                config.getOperationTimeout(), config.getTransferTimeout());
+    }
+
+    @TearDown
+    public void stopServer() throws Exception {
+        repository.close();
+        server.close();
+    }
+
+    /**
+     * Creates a file filled with random bytes, so that compression does not distort the results
+     */
+    protected static void writeRandomFile(Path file, long size) throws IOException {
+        Random random = new Random(size);
+        byte[] buffer = new byte[64 * 1024];
+        try (OutputStream out = Files.newOutputStream(file)) {
+            for (long written = 0; written < size; written += buffer.length) {
+                random.nextBytes(buffer);
+                out.write(buffer, 0, (int) Math.min(buffer.length, size - written));
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.thingworx.extensions.sftpExtension.benchmark;
+
+import com.thingworx.extensions.sftpExtension.FileSystemFile;
+import com.thingworx.extensions.sftpExtension.TransferResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * File information, and uploads and downloads of small and large files, over one channel and in segments
+ */
+@BenchmarkMode(Mode.AverageTime)
+public class TransferBenchmark extends RepositoryBenchmark {
+    private static final int SMALL_FILE_SIZE = 4 * 1024;
+    private static final long LARGE_FILE_SIZE = 64 * 1024 * 1024;
+    private static final int SEGMENTS = 4;
+
+    private Path localDirectory;
+    private File largeFile;
+    private File downloadTarget;
+    private byte[] smallContent;
+
+    @Setup
+    public void createFiles() throws Exception {
+        writeRandomFile(server.getRoot().resolve("small.bin"), SMALL_FILE_SIZE);
+        smallContent = Files.readAllBytes(server.getRoot().resolve("small.bin"));
+        localDirectory = Files.createTempDirectory("sftp-benchmark-local");
+        largeFile = localDirectory.resolve("large.bin").toFile();
+        writeRandomFile(largeFile.toPath(), LARGE_FILE_SIZE);
+        Files.copy(largeFile.toPath(), server.getRoot().resolve("large.bin"));
+        downloadTarget = localDirectory.resolve("download.bin").toFile();
+    }
+
+    @TearDown
+    public void deleteFiles() throws Exception {
+        EmbeddedSftpServer.deleteTree(localDirectory);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public FileSystemFile getFileInfo() throws Exception {
+        return repository.getFileInfo("/small.bin");
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void uploadSmallFile() throws Exception {
+        repository.uploadFile(new ByteArrayInputStream(smallContent), "/upload-small.bin");
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int downloadSmallFile() throws Exception {
+        return repository.downloadFile("/small.bin").size();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public TransferResult uploadLargeFile() throws Exception {
+        return repository.uploadFile(largeFile, "/upload-large.bin", 1, LARGE_FILE_SIZE);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public TransferResult uploadLargeFileInSegments() throws Exception {
+        TransferResult result = repository.uploadFile(largeFile, "/upload-large.bin", SEGMENTS, 0);
+        verifyContent(server.getRoot().resolve("upload-large.bin"), largeFile.toPath());
+        return result;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public TransferResult downloadLargeFile() throws Exception {
+        return repository.downloadFile("/large.bin", downloadTarget, 1, LARGE_FILE_SIZE);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public TransferResult downloadLargeFileInSegments() throws Exception {
+        return repository.downloadFile("/large.bin", downloadTarget, SEGMENTS, 0);
+    }
+
+    /**
+     * Fails the benchmark if a transferred file differs from its source, so that a fast but broken transfer
+     * does not go unnoticed
+     */
+    private static void verifyContent(Path actual, Path expected) throws IOException {
+        try (InputStream actualIn = new BufferedInputStream(Files.newInputStream(actual));
+             InputStream expectedIn = new BufferedInputStream(Files.newInputStream(expected))) {
+            long position = 0;
+            int expectedByte;
+            do {
+                expectedByte = expectedIn.read();
+                if (actualIn.read() != expectedByte) {
+                    throw new IllegalStateException(String.format("%s differs from %s at byte %d",
+                            actual, expected, position));
+                }
+                position++;
+            } while (expectedByte != -1);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.thingworx.extensions.sftpExtension;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The ssh algorithms offered when connecting, an POJO representation of the SftpAlgorithmProfile Thingworx datashape.
+ * Each value is a comma separated list of algorithm names, in order of preference. An empty value keeps the
+ * defaults of the ssh library.
+ */
+public class AlgorithmProfile {
+    private final String name;
+    private final String ciphers;
+    private final String macs;
+    private final String keyExchange;
+    private final String compression;
+
+    public AlgorithmProfile(String name, String ciphers, String macs, String keyExchange, String compression) {
+        this.name = name;
+        this.ciphers = ciphers;
+        this.macs = macs;
+        this.keyExchange = keyExchange;
+        this.compression = compression;
+    }
+
+    /**
+     * @return a set of profiles worth comparing on most servers. The ones the server or this JVM do not
+     * support fail to connect
+     */
+    public static List<AlgorithmProfile> getCandidates() {
+        return Arrays.asList(
+                new AlgorithmProfile("default", null, null, null, null),
+                new AlgorithmProfile("aes128-gcm", "aes128-gcm@openssh.com", null, null, null),
+                new AlgorithmProfile("aes256-gcm", "aes256-gcm@openssh.com", null, null, null),
+                new AlgorithmProfile("aes128-ctr", "aes128-ctr", "hmac-sha2-256-etm@openssh.com", null, null),
+                new AlgorithmProfile("chacha20-poly1305", "chacha20-poly1305@openssh.com", null, null, null),
+                new AlgorithmProfile("ecdh-nistp256", null, null, "ecdh-sha2-nistp256", null),
+                new AlgorithmProfile("zlib", null, null, null, "zlib@openssh.com,zlib,none"));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getCiphers() {
+        return ciphers;
+    }
+
+    public String getMacs() {
+        return macs;
+    }
+
+    public String getKeyExchange() {
+        return keyExchange;
+    }
+
+    public String getCompression() {
+        return compression;
+    }
+
+    @Override
+    public String toString() {
+        return "AlgorithmProfile{" +
+                "name='" + name + '\'' +
+                ", ciphers='" + ciphers + '\'' +
+                ", macs='" + macs + '\'' +
+                ", keyExchange='" + keyExchange + '\'' +
+                ", compression='" + compression + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,44 @@
+package com.thingworx.extensions.sftpExtension;
+
+/**
+ * An POJO representation of a row of the SftpBatchOperation Thingworx datashape
+ */
+public class BatchOperation {
+    public enum Type {
+        MOVE, RENAME, DELETE, CREATE_FOLDER
+    }
+
+    private final Type type;
+    private final String path;
+    private final String target;
+    private final boolean overwrite;
+
+    /**
+     * @param type      the operation to execute
+     * @param path      path of the file or folder the operation applies to
+     * @param target    target path of a move, or new name of a rename. Unused otherwise
+     * @param overwrite overwrite the target if it already exists
+     */
+    public BatchOperation(Type type, String path, String target, boolean overwrite) {
+        this.type = type;
+        this.path = path;
+        this.target = target;
+        this.overwrite = overwrite;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public boolean isOverwrite() {
+        return overwrite;
+    }
+}
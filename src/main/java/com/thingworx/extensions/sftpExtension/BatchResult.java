@@ -0,0 +1,34 @@
+package com.thingworx.extensions.sftpExtension;
+
+/**
+ * An POJO representation of a row of the SftpBatchResult Thingworx datashape
+ */
+public class BatchResult {
+    private final BatchOperation operation;
+    private final boolean success;
+    private final String error;
+    private final long durationMillis;
+
+    public BatchResult(BatchOperation operation, boolean success, String error, long durationMillis) {
+        this.operation = operation;
+        this.success = success;
+        this.error = error;
+        this.durationMillis = durationMillis;
+    }
+
+    public BatchOperation getOperation() {
+        return operation;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+}
@@ -0,0 +1,53 @@
+package com.thingworx.extensions.sftpExtension;
+
+/**
+ * An POJO representation of the SftpConnectionBenchmark Thingworx datashape
+ */
+public class BenchmarkResult {
+    private final AlgorithmProfile profile;
+    private final long handshakeMillis;
+    private final double uploadRate;
+    private final double downloadRate;
+    private final String error;
+
+    public BenchmarkResult(AlgorithmProfile profile, long handshakeMillis, double uploadRate, double downloadRate,
+                           String error) {
+        this.profile = profile;
+        this.handshakeMillis = handshakeMillis;
+        this.uploadRate = uploadRate;
+        this.downloadRate = downloadRate;
+        this.error = error;
+    }
+
+    public AlgorithmProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * @return time to connect, negotiate the algorithms and authenticate, in milliseconds
+     */
+    public long getHandshakeMillis() {
+        return handshakeMillis;
+    }
+
+    /**
+     * @return bytes per second of the test upload, or 0 if it did not run
+     */
+    public double getUploadRate() {
+        return uploadRate;
+    }
+
+    /**
+     * @return bytes per second of the test download, or 0 if it did not run
+     */
+    public double getDownloadRate() {
+        return downloadRate;
+    }
+
+    /**
+     * @return why the profile could not be measured, or null if it was
+     */
+    public String getError() {
+        return error;
+    }
+}
@@ -0,0 +1,311 @@
+package com.thingworx.extensions.sftpExtension;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A SftpRepository that caches directory listings and file information of another repository.
+ * Operations that change the remote filesystem through this repository invalidate the entries they affect,
+ * while changes made by other clients are visible once the entries expire.
+ */
+public class CachingSftpRepository implements SftpRepository {
+    private final SftpRepository repository;
+    private final MetadataCache<List<FileSystemFile>> listings;
+    private final MetadataCache<FileSystemFile> fileInfos;
+
+    /**
+     * @param repository the repository to cache
+     * @param ttl        time (milliseconds) a listing or file information stays cached
+     * @param maxEntries maximum number of listings, and of file informations, kept
+     */
+    public CachingSftpRepository(SftpRepository repository, long ttl, int maxEntries) {
+        this(repository, new MetadataCache<>(ttl, maxEntries), new MetadataCache<>(ttl, maxEntries));
+    }
+
+    private CachingSftpRepository(SftpRepository repository, MetadataCache<List<FileSystemFile>> listings,
+                                  MetadataCache<FileSystemFile> fileInfos) {
+        this.repository = repository;
+        this.listings = listings;
+        this.fileInfos = fileInfos;
+    }
+
+    /**
+     * The view shares the caches with this repository
+     */
+    @Override
+    public SftpRepository withTimeout(long timeout) {
+        return new CachingSftpRepository(repository.withTimeout(timeout), listings, fileInfos);
+    }
+
+    /**
+     * The view shares the caches with this repository
+     */
+    @Override
+    public SftpRepository withProgress(TransferProgress progress) {
+        return new CachingSftpRepository(repository.withProgress(progress), listings, fileInfos);
+    }
+
+    @Override
+    public boolean createFolder(String path) throws SftpException {
+        try {
+            return repository.createFolder(path);
+        } finally {
+            invalidate(path);
+        }
+    }
+
+    @Override
+    public void renameFile(String filePath, String newName, boolean overwrite) throws SftpException {
+        try {
+            repository.renameFile(filePath, newName, overwrite);
+        } finally {
+            invalidate(filePath);
+            invalidate(getRenamedPath(filePath, newName));
+        }
+    }
+
+    @Override
+    public void moveFile(String sourcePath, String targetPath, boolean overwrite) throws SftpException {
+        try {
+            repository.moveFile(sourcePath, targetPath, overwrite);
+        } finally {
+            invalidate(sourcePath);
+            invalidate(targetPath);
+        }
+    }
+
+    @Override
+    public List<FileSystemFile> listFilesAndDirectories(String directoryPath) throws SftpException {
+        return new ArrayList<>(getListing(directoryPath));
+    }
+
+    @Override
+    public List<FileSystemFile> listFiles(String directoryPath) throws SftpException {
+        List<FileSystemFile> files = new ArrayList<>();
+        for (FileSystemFile file : getListing(directoryPath)) {
+            if (!file.isDirectory()) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    @Override
+    public List<FileSystemFile> listDirectories(String directoryPath) throws SftpException {
+        List<FileSystemFile> directories = new ArrayList<>();
+        for (FileSystemFile file : getListing(directoryPath)) {
+            if (file.isDirectory()) {
+                directories.add(file);
+            }
+        }
+        return directories;
+    }
+
+    @Override
+    public List<FileSystemFile> listFiles(String directoryPath, ListingFilter filter, ListingSort sort,
+                                          boolean descending, int offset, int limit) throws SftpException {
+        return repository.listFiles(directoryPath, filter, sort, descending, offset, limit);
+    }
+
+    @Override
+    public List<FileSystemFile> walkDirectory(String directoryPath, int maxDepth, ListingFilter filter)
+            throws SftpException {
+        return repository.walkDirectory(directoryPath, maxDepth, filter);
+    }
+
+    @Override
+    public FileSystemFile getFileInfo(String filePath) throws SftpException {
+        String key = normalize(filePath);
+        FileSystemFile file = fileInfos.get(key);
+        if (file == null) {
+            file = repository.getFileInfo(filePath);
+            fileInfos.put(key, file);
+        }
+        return file;
+    }
+
+    @Override
+    public boolean deleteFile(String filePath) throws SftpException {
+        try {
+            return repository.deleteFile(filePath);
+        } finally {
+            invalidate(filePath);
+        }
+    }
+
+    @Override
+    public DeleteResult deleteFolder(String directoryPath) throws SftpException {
+        try {
+            return repository.deleteFolder(directoryPath);
+        } finally {
+            invalidate(directoryPath);
+        }
+    }
+
+    @Override
+    public List<BatchResult> executeBatch(List<BatchOperation> operations, int concurrency) throws SftpException {
+        try {
+            return repository.executeBatch(operations, concurrency);
+        } finally {
+            for (BatchOperation operation : operations) {
+                invalidate(operation.getPath());
+                if (operation.getType() == BatchOperation.Type.MOVE) {
+                    invalidate(operation.getTarget());
+                } else if (operation.getType() == BatchOperation.Type.RENAME) {
+                    invalidate(getRenamedPath(operation.getPath(), operation.getTarget()));
+                }
+            }
+        }
+    }
+
+    @Override
+    public ByteArrayOutputStream downloadFile(String filePath) throws SftpException {
+        return repository.downloadFile(filePath);
+    }
+
+    @Override
+    public void downloadFile(String filePath, OutputStream outputStream) throws SftpException {
+        repository.downloadFile(filePath, outputStream);
+    }
+
+    @Override
+    public TransferResult downloadFile(String filePath, File targetFile, int maxSegments, long minSegmentSize)
+            throws SftpException {
+        return repository.downloadFile(filePath, targetFile, maxSegments, minSegmentSize);
+    }
+
+    @Override
+    public TransferResult downloadFileResumable(String filePath, File targetFile, int maxRetries)
+            throws SftpException {
+        return repository.downloadFileResumable(filePath, targetFile, maxRetries);
+    }
+
+    @Override
+    public void uploadFile(InputStream inputStream, String filePath) throws SftpException {
+        try {
+            repository.uploadFile(inputStream, filePath);
+        } finally {
+            invalidate(filePath);
+        }
+    }
+
+    @Override
+    public TransferResult uploadFile(File sourceFile, String filePath, int maxSegments, long minSegmentSize)
+            throws SftpException {
+        try {
+            return repository.uploadFile(sourceFile, filePath, maxSegments, minSegmentSize);
+        } finally {
+            invalidate(filePath);
+        }
+    }
+
+    @Override
+    public TransferResult uploadFileResumable(File sourceFile, String filePath, int maxRetries)
+            throws SftpException {
+        try {
+            return repository.uploadFileResumable(sourceFile, filePath, maxRetries);
+        } finally {
+            invalidate(filePath);
+        }
+    }
+
+    @Override
+    public SyncResult syncFromRemote(String remoteDirectory, File localDirectory, SyncManifest manifest,
+                                     boolean deleteMissing, int concurrency) throws SftpException {
+        return repository.syncFromRemote(remoteDirectory, localDirectory, manifest, deleteMissing, concurrency);
+    }
+
+    @Override
+    public SyncResult syncToRemote(File localDirectory, String remoteDirectory, SyncManifest manifest,
+                                   boolean deleteMissing, int concurrency) throws SftpException {
+        try {
+            return repository.syncToRemote(localDirectory, remoteDirectory, manifest, deleteMissing, concurrency);
+        } finally {
+            invalidate(remoteDirectory);
+        }
+    }
+
+    @Override
+    public void changeDirectory(String directory) throws SftpException {
+        repository.changeDirectory(directory);
+        // relative paths now point somewhere else
+        listings.clear();
+        fileInfos.clear();
+    }
+
+    @Override
+    public boolean isDisconnected() {
+        return repository.isDisconnected();
+    }
+
+    @Override
+    public void close() throws Exception {
+        repository.close();
+    }
+
+    /**
+     * @return number of listings and file informations served from the cache
+     */
+    public long getHits() {
+        return listings.getHits() + fileInfos.getHits();
+    }
+
+    /**
+     * @return number of listings and file informations that had to be fetched from the server
+     */
+    public long getMisses() {
+        return listings.getMisses() + fileInfos.getMisses();
+    }
+
+    private List<FileSystemFile> getListing(String directoryPath) throws SftpException {
+        String key = normalize(directoryPath);
+        List<FileSystemFile> files = listings.get(key);
+        if (files == null) {
+            files = repository.listFilesAndDirectories(directoryPath);
+            listings.put(key, files);
+        }
+        return files;
+    }
+
+    /**
+     * Removes the cached information about a path, everything below it, and the listing of its parent directory
+     */
+    private void invalidate(String path) {
+        String key = normalize(path);
+        String parent = getParent(key);
+        String prefix = key.endsWith("/") ? key : key + "/";
+        fileInfos.invalidate(k -> k.equals(key) || k.startsWith(prefix));
+        // listings with wildcards are invalidated together with their directory
+        listings.invalidate(k -> k.equals(key) || k.startsWith(prefix) || k.equals(parent)
+                || (isPattern(k) && getParent(k).equals(parent)));
+    }
+
+    private static String getRenamedPath(String filePath, String newName) {
+        String parent = getParent(normalize(filePath));
+        return parent.endsWith("/") ? parent + newName : parent + "/" + newName;
+    }
+
+    private static String normalize(String path) {
+        String normalized = path.replace("\\", "/");
+        while (normalized.length() > 1 && normalized.endsWith("/")) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+        return normalized;
+    }
+
+    private static String getParent(String path) {
+        int index = path.lastIndexOf('/');
+        if (index < 0) {
+            return ".";
+        }
+        return index == 0 ? "/" : path.substring(0, index);
+    }
+
+    private static boolean isPattern(String path) {
+        return path.indexOf('*') >= 0 || path.indexOf('?') >= 0;
+    }
+}
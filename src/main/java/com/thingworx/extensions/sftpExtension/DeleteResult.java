@@ -0,0 +1,40 @@
+package com.thingworx.extensions.sftpExtension;
+
+/**
+ * An POJO representation of the SftpDeleteResult Thingworx datashape
+ */
+public class DeleteResult {
+    private final String path;
+    private final long files;
+    private final long directories;
+    private final long durationMillis;
+
+    public DeleteResult(String path, long files, long directories, long durationMillis) {
+        this.path = path;
+        this.files = files;
+        this.directories = directories;
+        this.durationMillis = durationMillis;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return number of files, including links, deleted
+     */
+    public long getFiles() {
+        return files;
+    }
+
+    /**
+     * @return number of directories deleted, including the root of the tree
+     */
+    public long getDirectories() {
+        return directories;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+}
@@ -0,0 +1,166 @@
+package com.thingworx.extensions.sftpExtension;
+
+import ch.qos.logback.classic.Logger;
+import com.thingworx.logging.LogUtilities;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Detects the files added, modified or removed in a remote directory by listing it periodically and comparing
+ * the listing to a snapshot of the previous one. Only the name, size and modification time of each file are kept.
+ * The files present at the first listing are the baseline, and are not reported as added.
+ * A new or modified file is only reported once its size and modification time did not change for the
+ * stable time, so that files still being written are not picked up halfway.
+ */
+public class DirectoryWatcher {
+    private static final Logger LOGGER = LogUtilities.getInstance().getApplicationLogger(SftpRepositoryThing.class);
+
+    private final SftpRepository repository;
+    private final String directory;
+    private final ListingFilter filter;
+    private final long stableTime;
+    private final Listener listener;
+    private final Map<String, Entry> snapshot = new HashMap<>();
+    private long polls;
+    private boolean failing;
+
+    /**
+     * @param repository where the directory is listed
+     * @param directory  the directory to watch. Subdirectories are not watched
+     * @param filter     criteria of the files to watch
+     * @param stableTime time (milliseconds) a file must stay unchanged before it is reported
+     * @param listener   called for every change, on the polling thread
+     */
+    public DirectoryWatcher(SftpRepository repository, String directory, ListingFilter filter, long stableTime,
+                            Listener listener) {
+        this.repository = repository;
+        this.directory = directory;
+        this.filter = filter;
+        this.stableTime = stableTime;
+        this.listener = listener;
+        filter.setIncludeDirectories(false);
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Lists the directory once, and reports the changes since the previous listing.
+     * If the listing fails the snapshot is kept as it is, so an unreachable server is not reported as
+     * the removal of all the files
+     */
+    public synchronized void poll() {
+        List<FileSystemFile> files;
+        try {
+            files = repository.listFiles(directory, filter, ListingSort.NAME, false, 0, 0);
+        } catch (SftpException | RuntimeException e) {
+            // an exception would stop the polling for good
+            if (!failing) {
+                LOGGER.warn(String.format("Failed to poll directory %s: %s", directory, e.getMessage()));
+                failing = true;
+            }
+            return;
+        }
+        failing = false;
+        long now = System.currentTimeMillis();
+        long poll = ++polls;
+        for (FileSystemFile file : files) {
+            long size = (long) file.getSize();
+            long modified = file.getDateTime().getMillis();
+            Entry entry = snapshot.get(file.getName());
+            if (entry == null) {
+                entry = new Entry(size, modified, now);
+                if (poll == 1) {
+                    // the files found by the first listing were already there, not added
+                    entry.pending = false;
+                    entry.reported = true;
+                }
+                snapshot.put(file.getName(), entry);
+            } else if (entry.size != size || entry.modified != modified) {
+                entry.size = size;
+                entry.modified = modified;
+                entry.changedAt = now;
+                entry.pending = true;
+            }
+            entry.seen = poll;
+            if (entry.pending && now - entry.changedAt >= stableTime) {
+                entry.pending = false;
+                notify(entry.reported ? Change.MODIFIED : Change.ADDED, file.getPath(), entry);
+                entry.reported = true;
+            }
+        }
+        for (Iterator<Map.Entry<String, Entry>> it = snapshot.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Entry> removed = it.next();
+            if (removed.getValue().seen == poll) {
+                continue;
+            }
+            it.remove();
+            // a file removed before it was reported as added is not reported at all
+            if (removed.getValue().reported) {
+                notify(Change.REMOVED, childPath(removed.getKey()), removed.getValue());
+            }
+        }
+    }
+
+    /**
+     * @return number of files in the snapshot
+     */
+    public synchronized int getFileCount() {
+        return snapshot.size();
+    }
+
+    private void notify(Change change, String path, Entry entry) {
+        try {
+            listener.onChange(change, path, entry.size, entry.modified);
+        } catch (Exception e) {
+            LOGGER.warn(String.format("Failed to report that %s was %s", path, change.name().toLowerCase()), e);
+        }
+    }
+
+    private String childPath(String name) {
+        return directory.endsWith("/") ? directory + name : directory + "/" + name;
+    }
+
+    public enum Change {
+        ADDED, MODIFIED, REMOVED
+    }
+
+    /**
+     * Receives the changes of a watched directory
+     */
+    @FunctionalInterface
+    public interface Listener {
+        /**
+         * @param change   what happened to the file
+         * @param path     path of the file
+         * @param size     size in bytes. For removed files, the last size seen
+         * @param modified last modification time (epoch milliseconds). For removed files, the last time seen
+         */
+        void onChange(Change change, String path, long size, long modified) throws Exception;
+    }
+
+    private static class Entry {
+        private long size;
+        private long modified;
+        /**
+         * When the size or modification time were last seen changing
+         */
+        private long changedAt;
+        /**
+         * Number of the last listing the file was in
+         */
+        private long seen;
+        private boolean pending = true;
+        private boolean reported;
+
+        private Entry(long size, long modified, long changedAt) {
+            this.size = size;
+            this.modified = modified;
+            this.changedAt = changedAt;
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package com.thingworx.extensions.sftpExtension;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * A SftpRepository that records the number of calls, failures and latency of every operation of another
+ * repository, along with the number of bytes transferred
+ */
+public class InstrumentedSftpRepository implements SftpRepository {
+    private final SftpRepository repository;
+    private final SftpMetrics metrics;
+
+    /**
+     * @param repository the repository to instrument
+     * @param metrics    where the measurements are recorded
+     */
+    public InstrumentedSftpRepository(SftpRepository repository, SftpMetrics metrics) {
+        this.repository = repository;
+        this.metrics = metrics;
+    }
+
+    /**
+     * The view records its measurements together with this repository
+     */
+    @Override
+    public SftpRepository withTimeout(long timeout) {
+        return new InstrumentedSftpRepository(repository.withTimeout(timeout), metrics);
+    }
+
+    /**
+     * The view records its measurements together with this repository
+     */
+    @Override
+    public SftpRepository withProgress(TransferProgress progress) {
+        return new InstrumentedSftpRepository(repository.withProgress(progress), metrics);
+    }
+
+    @Override
+    public boolean createFolder(String path) throws SftpException {
+        return record("createFolder", () -> repository.createFolder(path));
+    }
+
+    @Override
+    public void renameFile(String filePath, String newName, boolean overwrite) throws SftpException {
+        record("renameFile", () -> {
+            repository.renameFile(filePath, newName, overwrite);
+            return null;
+        });
+    }
+
+    @Override
+    public void moveFile(String sourcePath, String targetPath, boolean overwrite) throws SftpException {
+        record("moveFile", () -> {
+            repository.moveFile(sourcePath, targetPath, overwrite);
+            return null;
+        });
+    }
+
+    @Override
+    public List<FileSystemFile> listFilesAndDirectories(String directoryPath) throws SftpException {
+        return record("listFilesAndDirectories", () -> repository.listFilesAndDirectories(directoryPath));
+    }
+
+    @Override
+    public List<FileSystemFile> listFiles(String directoryPath) throws SftpException {
+        return record("listFiles", () -> repository.listFiles(directoryPath));
+    }
+
+    @Override
+    public List<FileSystemFile> listDirectories(String directoryPath) throws SftpException {
+        return record("listDirectories", () -> repository.listDirectories(directoryPath));
+    }
+
+    @Override
+    public List<FileSystemFile> listFiles(String directoryPath, ListingFilter filter, ListingSort sort,
+                                          boolean descending, int offset, int limit) throws SftpException {
+        return record("searchFiles", () -> repository.listFiles(directoryPath, filter, sort, descending, offset, limit));
+    }
+
+    @Override
+    public List<FileSystemFile> walkDirectory(String directoryPath, int maxDepth, ListingFilter filter)
+            throws SftpException {
+        return record("walkDirectory", () -> repository.walkDirectory(directoryPath, maxDepth, filter));
+    }
+
+    @Override
+    public FileSystemFile getFileInfo(String filePath) throws SftpException {
+        return record("getFileInfo", () -> repository.getFileInfo(filePath));
+    }
+
+    @Override
+    public boolean deleteFile(String filePath) throws SftpException {
+        return record("deleteFile", () -> repository.deleteFile(filePath));
+    }
+
+    @Override
+    public List<BatchResult> executeBatch(List<BatchOperation> operations, int concurrency) throws SftpException {
+        return record("executeBatch", () -> repository.executeBatch(operations, concurrency));
+    }
+
+    @Override
+    public DeleteResult deleteFolder(String directoryPath) throws SftpException {
+        return record("deleteFolder", () -> repository.deleteFolder(directoryPath));
+    }
+
+    @Override
+    public ByteArrayOutputStream downloadFile(String filePath) throws SftpException {
+        ByteArrayOutputStream out = record("downloadFile", () -> repository.downloadFile(filePath));
+        metrics.addBytesDownloaded(out.size());
+        return out;
+    }
+
+    @Override
+    public void downloadFile(String filePath, OutputStream outputStream) throws SftpException {
+        record("downloadFile", () -> {
+            repository.downloadFile(filePath, new CountingOutputStream(outputStream));
+            return null;
+        });
+    }
+
+    @Override
+    public TransferResult downloadFile(String filePath, File targetFile, int maxSegments, long minSegmentSize)
+            throws SftpException {
+        TransferResult result = record("downloadFileParallel",
+                () -> repository.downloadFile(filePath, targetFile, maxSegments, minSegmentSize));
+        metrics.addBytesDownloaded(result.getBytes());
+        return result;
+    }
+
+    @Override
+    public TransferResult downloadFileResumable(String filePath, File targetFile, int maxRetries)
+            throws SftpException {
+        TransferResult result = record("downloadFileResumable",
+                () -> repository.downloadFileResumable(filePath, targetFile, maxRetries));
+        metrics.addBytesDownloaded(result.getBytes());
+        return result;
+    }
+
+    @Override
+    public void uploadFile(InputStream inputStream, String filePath) throws SftpException {
+        record("uploadFile", () -> {
+            repository.uploadFile(new CountingInputStream(inputStream), filePath);
+            return null;
+        });
+    }
+
+    @Override
+    public TransferResult uploadFile(File sourceFile, String filePath, int maxSegments, long minSegmentSize)
+            throws SftpException {
+        TransferResult result = record("uploadFileParallel",
+                () -> repository.uploadFile(sourceFile, filePath, maxSegments, minSegmentSize));
+        metrics.addBytesUploaded(result.getBytes());
+        return result;
+    }
+
+    @Override
+    public TransferResult uploadFileResumable(File sourceFile, String filePath, int maxRetries)
+            throws SftpException {
+        TransferResult result = record("uploadFileResumable",
+                () -> repository.uploadFileResumable(sourceFile, filePath, maxRetries));
+        metrics.addBytesUploaded(result.getBytes());
+        return result;
+    }
+
+    @Override
+    public SyncResult syncFromRemote(String remoteDirectory, File localDirectory, SyncManifest manifest,
+                                     boolean deleteMissing, int concurrency) throws SftpException {
+        SyncResult result = record("syncFromRemote",
+                () -> repository.syncFromRemote(remoteDirectory, localDirectory, manifest, deleteMissing, concurrency));
+        metrics.addBytesDownloaded(result.getBytes());
+        return result;
+    }
+
+    @Override
+    public SyncResult syncToRemote(File localDirectory, String remoteDirectory, SyncManifest manifest,
+                                   boolean deleteMissing, int concurrency) throws SftpException {
+        SyncResult result = record("syncToRemote",
+                () -> repository.syncToRemote(localDirectory, remoteDirectory, manifest, deleteMissing, concurrency));
+        metrics.addBytesUploaded(result.getBytes());
+        return result;
+    }
+
+    @Override
+    public void changeDirectory(String directory) throws SftpException {
+        record("changeDirectory", () -> {
+            repository.changeDirectory(directory);
+            return null;
+        });
+    }
+
+    @Override
+    public boolean isDisconnected() {
+        return repository.isDisconnected();
+    }
+
+    @Override
+    public void close() throws Exception {
+        repository.close();
+    }
+
+    private <T> T record(String operation, Operation<T> call) throws SftpException {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            T result = call.execute();
+            success = true;
+            return result;
+        } finally {
+            metrics.record(operation, System.nanoTime() - start, success);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Operation<T> {
+        T execute() throws SftpException;
+    }
+
+    /**
+     * Counts the bytes downloaded as they are written
+     */
+    private class CountingOutputStream extends FilterOutputStream {
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            metrics.addBytesDownloaded(1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            metrics.addBytesDownloaded(len);
+        }
+    }
+
+    /**
+     * Counts the bytes uploaded as they are read. Skipped bytes are not counted
+     */
+    private class CountingInputStream extends FilterInputStream {
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                metrics.addBytesUploaded(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, len);
+            if (read > 0) {
+                metrics.addBytesUploaded(read);
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.thingworx.extensions.sftpExtension;
+
+import java.util.regex.Pattern;
+
+/**
+ * Criteria that the entries of a directory listing must meet. Unset criteria accept everything
+ */
+public class ListingFilter {
+    private Pattern namePattern;
+    private long minSize = -1;
+    private long maxSize = -1;
+    private long modifiedAfter = -1;
+    private long modifiedBefore = -1;
+    private boolean includeFiles = true;
+    private boolean includeDirectories = true;
+
+    /**
+     * Only accept names matching a glob pattern, like *.csv or report-??.{txt,log}
+     */
+    public void setGlob(String glob) {
+        namePattern = glob == null || glob.isEmpty() ? null : Pattern.compile(globToRegex(glob));
+    }
+
+    /**
+     * Only accept names matching a regular expression
+     */
+    public void setRegex(String regex) {
+        namePattern = regex == null || regex.isEmpty() ? null : Pattern.compile(regex);
+    }
+
+    /**
+     * @param minSize minimum file size in bytes, or a negative number for no limit
+     */
+    public void setMinSize(long minSize) {
+        this.minSize = minSize;
+    }
+
+    /**
+     * @param maxSize maximum file size in bytes, or a negative number for no limit
+     */
+    public void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param modifiedAfter only accept entries modified at or after this time (epoch milliseconds), or -1
+     */
+    public void setModifiedAfter(long modifiedAfter) {
+        this.modifiedAfter = modifiedAfter;
+    }
+
+    /**
+     * @param modifiedBefore only accept entries modified before this time (epoch milliseconds), or -1
+     */
+    public void setModifiedBefore(long modifiedBefore) {
+        this.modifiedBefore = modifiedBefore;
+    }
+
+    public void setIncludeFiles(boolean includeFiles) {
+        this.includeFiles = includeFiles;
+    }
+
+    public void setIncludeDirectories(boolean includeDirectories) {
+        this.includeDirectories = includeDirectories;
+    }
+
+    /**
+     * Checks an entry against the criteria. Sizes are only checked for files
+     *
+     * @param name         file name, without the directory
+     * @param isDirectory  if the entry is a directory
+     * @param size         size in bytes
+     * @param modifiedTime last modification time (epoch milliseconds)
+     * @return true if the entry meets all the criteria
+     */
+    public boolean accepts(String name, boolean isDirectory, long size, long modifiedTime) {
+        if (isDirectory ? !includeDirectories : !includeFiles) {
+            return false;
+        }
+        if (!isDirectory && ((minSize >= 0 && size < minSize) || (maxSize >= 0 && size > maxSize))) {
+            return false;
+        }
+        if ((modifiedAfter >= 0 && modifiedTime < modifiedAfter) || (modifiedBefore >= 0 && modifiedTime >= modifiedBefore)) {
+            return false;
+        }
+        return namePattern == null || namePattern.matcher(name).matches();
+    }
+
+    /**
+     * Translates a glob pattern to a regular expression. Supports *, ?, character classes and {a,b} alternatives
+     */
+    static String globToRegex(String glob) {
+        StringBuilder regex = new StringBuilder(glob.length() + 8);
+        boolean inGroup = false;
+        boolean inClass = false;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (inClass) {
+                if (c == ']') {
+                    inClass = false;
+                } else if (c == '\\' || c == '[') {
+                    regex.append('\\');
+                }
+                regex.append(c);
+                continue;
+            }
+            switch (c) {
+                case '*':
+                    regex.append(".*");
+                    break;
+                case '?':
+                    regex.append('.');
+                    break;
+                case '[':
+                    inClass = true;
+                    regex.append('[');
+                    if (i + 1 < glob.length() && glob.charAt(i + 1) == '!') {
+                        regex.append('^');
+                        i++;
+                    }
+                    break;
+                case '{':
+                    inGroup = true;
+                    regex.append("(?:");
+                    break;
+                case '}':
+                    if (inGroup) {
+                        inGroup = false;
+                        regex.append(')');
+                    } else {
+                        regex.append("\\}");
+                    }
+                    break;
+                case ',':
+                    regex.append(inGroup ? "|" : ",");
+                    break;
+                default:
+                    if ("\\.^$+()|".indexOf(c) >= 0) {
+                        regex.append('\\');
+                    }
+                    regex.append(c);
+            }
+        }
+        return regex.toString();
+    }
+}
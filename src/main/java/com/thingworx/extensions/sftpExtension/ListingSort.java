@@ -0,0 +1,36 @@
+package com.thingworx.extensions.sftpExtension;
+
+/**
+ * The attribute a directory listing is sorted by. The names match the fields of the FileSystemFile datashape
+ */
+public enum ListingSort {
+    NAME("name"),
+    SIZE("size"),
+    LAST_MODIFIED("lastModifiedDate");
+
+    private final String fieldName;
+
+    ListingSort(String fieldName) {
+        this.fieldName = fieldName;
+    }
+
+    public String getFieldName() {
+        return fieldName;
+    }
+
+    /**
+     * @param fieldName name of the FileSystemFile field to sort by. Empty means by name
+     * @return the matching sort attribute
+     */
+    public static ListingSort fromFieldName(String fieldName) throws SftpException {
+        if (fieldName == null || fieldName.isEmpty()) {
+            return NAME;
+        }
+        for (ListingSort sort : values()) {
+            if (sort.fieldName.equalsIgnoreCase(fieldName)) {
+                return sort;
+            }
+        }
+        throw new SftpException("Cannot sort by " + fieldName + ", use name, size or lastModifiedDate");
+    }
+}
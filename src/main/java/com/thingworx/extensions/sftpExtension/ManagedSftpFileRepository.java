@@ -1,55 +1,191 @@
 package com.thingworx.extensions.sftpExtension;
 
 import ch.qos.logback.classic.Logger;
+import com.thingworx.extensions.sftpExtension.jsch.CircuitBreaker;
+import com.thingworx.extensions.sftpExtension.jsch.SftpChannelPool;
 import com.thingworx.extensions.sftpExtension.jsch.SftpFileRepositoryImpl;
 import com.thingworx.logging.LogUtilities;
-import org.joda.time.DateTime;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * A sftp repository that connects on demand, and disconnects on timeout
- * This regular checks when was the last message and, if a certain time has passed,
- * closes the connection.
+ * The connections are held in a pool of channels, so concurrent callers each get their own channel.
+ * This regularly evicts the channels that were not used recently and, if a certain time has passed
+ * without any messages, closes the connection. The eviction runs on the {@link SftpScheduler} shared by all
+ * the repositories, and stops when the repository is closed.
+ * When preconnect is enabled, the connection is opened in the background and kept open, so that callers
+ * never wait for the handshake. The connection is opened on the connect pool of the {@link SftpScheduler},
+ * as it blocks until the server answers.
  */
-public class ManagedSftpFileRepository extends TimerTask {
+public class ManagedSftpFileRepository implements AutoCloseable {
     private static Logger LOGGER = LogUtilities.getInstance().getApplicationLogger(SftpRepositoryThing.class);
 
-    private SftpRepository repository;
-    private SftpConfiguration config;
-    private DateTime lastCommand;
+    private final SftpConfiguration config;
+    private final SftpChannelPool pool;
+    private final SftpMetrics metrics = new SftpMetrics();
+    private final SftpRepository repository;
+    private final CachingSftpRepository cache;
+    private final ScheduledFuture<?> evictionTask;
+    /**
+     * Set while a background connection is scheduled or running, so that only one is attempted at a time
+     */
+    private final AtomicBoolean preconnecting = new AtomicBoolean();
 
     public ManagedSftpFileRepository(SftpConfiguration config) throws SftpException {
         this.config = config;
-        repository = new SftpFileRepositoryImpl(config);
-        new Timer("SftpKeepAliveThread", true).scheduleAtFixedRate(this, config.getKeepAliveTimeout() / 2,
-                config.getKeepAliveTimeout() / 2);
-        lastCommand = new DateTime();
+        pool = new SftpChannelPool(config, metrics);
+        try {
+            SftpRepository sftpRepository = new SftpFileRepositoryImpl(pool, config.getOperationTimeout(),
+                    config.getTransferTimeout());
+            if (config.getCacheTtl() > 0) {
+                cache = new CachingSftpRepository(sftpRepository, config.getCacheTtl(), config.getCacheMaxEntries());
+                sftpRepository = cache;
+            } else {
+                cache = null;
+            }
+            // outermost, so that the latencies are the ones seen by the callers
+            repository = new InstrumentedSftpRepository(sftpRepository, metrics);
+            if (config.isPreconnect()) {
+                schedulePreconnect();
+            } else {
+                // connect right away, so that configuration problems are reported early
+                pool.release(pool.borrow());
+            }
+            evictionTask = SftpScheduler.scheduleAtFixedRate(this::evictIdle,
+                    Math.max(1, config.getKeepAliveTimeout() / 2));
+        } catch (SftpException | RuntimeException e) {
+            // the pool already holds a scheduled task and shared rate limits
+            pool.close();
+            throw e;
+        }
     }
 
     /**
-     * The action to be performed by this timer task.
+     * Closes the idle channels, and the connection if it was not used during the keep alive timeout
      */
-    @Override
-    public void run() {
-        long lastCommandDelta = new DateTime().getMillis() - lastCommand.getMillis();
-        if (lastCommandDelta > config.getKeepAliveTimeout() && !repository.isDisconnected()) {
-            try {
-                repository.close();
-                LOGGER.info(String.format("Closed sftpRepository %s@%s no messages in last %d ms",
-                        config.getUsername(), config.getHost(), lastCommandDelta));
-            } catch (Exception e) {
-                LOGGER.warn("Failed to close sftp repository");
+    private void evictIdle() {
+        try {
+            pool.evictIdle();
+        } catch (Exception e) {
+            LOGGER.warn("Failed to evict idle sftp connections", e);
+        }
+        if (config.isPreconnect() && !pool.isConnected()) {
+            // the server or the network dropped the connection, open it again before someone needs it
+            schedulePreconnect();
+        }
+    }
+
+    /**
+     * Opens the connection in the background, unless that is already being done
+     */
+    private void schedulePreconnect() {
+        if (preconnecting.compareAndSet(false, true)) {
+            SftpScheduler.scheduleConnect(this::preconnect, 0);
+        }
+    }
+
+    /**
+     * Opens the connection and the minimum number of channels
+     */
+    private void preconnect() {
+        try {
+            pool.release(pool.borrow());
+        } catch (SftpException e) {
+            if (!pool.isClosed()) {
+                LOGGER.warn("Failed to connect to the sftp server in the background " + e.getMessage());
             }
+        } finally {
+            preconnecting.set(false);
         }
     }
 
     public SftpRepository getRepository() throws SftpException {
-        if (repository.isDisconnected()) {
-            repository = new SftpFileRepositoryImpl(config);
-        }
-        lastCommand = new DateTime();
         return repository;
     }
+
+    /**
+     * @return state of the circuit breaker guarding connections to the server
+     */
+    public CircuitBreaker.State getCircuitState() {
+        return pool.getCircuitState();
+    }
+
+    public SftpMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return number of channels currently open, both in use and idle
+     */
+    public int getOpenChannels() {
+        return pool.getOpenChannels();
+    }
+
+    /**
+     * @return number of channels currently in use by an operation
+     */
+    public int getBusyChannels() {
+        return pool.getBusyChannels();
+    }
+
+    /**
+     * @return number of channels currently in use by an operation of a lane
+     */
+    public int getBusyChannels(SftpChannelPool.Lane lane) {
+        return pool.getBusyChannels(lane);
+    }
+
+    /**
+     * @return number of operations of a lane waiting for a free channel
+     */
+    public int getWaitingBorrowers(SftpChannelPool.Lane lane) {
+        return pool.getWaitingBorrowers(lane);
+    }
+
+    /**
+     * @return bytes per second transferred through this repository, averaged over the last few seconds
+     */
+    public double getTransferRate() {
+        return pool.getTransferRate();
+    }
+
+    /**
+     * @return bytes per second transferred by all the repositories connecting to the same host and port
+     */
+    public double getEndpointTransferRate() {
+        return pool.getEndpointTransferRate();
+    }
+
+    /**
+     * @return bytes per second transferred by all the repositories
+     */
+    public double getGlobalTransferRate() {
+        return pool.getGlobalTransferRate();
+    }
+
+    /**
+     * @return the maximum number of channels that can be open at the same time
+     */
+    public int getMaxChannels() {
+        return pool.getMaxSize();
+    }
+
+    /**
+     * @return the metadata cache in front of the repository, or null if caching is disabled
+     */
+    public CachingSftpRepository getCache() {
+        return cache;
+    }
+
+    /**
+     * Stops the idle eviction and closes all the channels and the connection.
+     * Calling this more than once has no effect
+     */
+    @Override
+    public void close() {
+        evictionTask.cancel(false);
+        pool.close();
+    }
 }
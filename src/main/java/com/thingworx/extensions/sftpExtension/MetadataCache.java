@@ -0,0 +1,93 @@
+package com.thingworx.extensions.sftpExtension;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * A size bounded cache of remote file metadata keyed by path. Entries expire after a fixed time to live,
+ * and the least recently used entries are evicted once the maximum number of entries is reached
+ *
+ * @param <V> the type of metadata cached
+ */
+public class MetadataCache<V> {
+    private final long ttl;
+    private final LinkedHashMap<String, CacheEntry<V>> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param ttl        time (milliseconds) an entry stays valid
+     * @param maxEntries maximum number of entries kept
+     */
+    public MetadataCache(long ttl, final int maxEntries) {
+        this.ttl = ttl;
+        // access ordered, so the eldest entry is always the least recently used
+        this.entries = new LinkedHashMap<String, CacheEntry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CacheEntry<V>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return the cached value, or null if there is none or it has expired
+     */
+    public synchronized V get(String key) {
+        CacheEntry<V> entry = entries.get(key);
+        if (entry != null && entry.expiresAt > System.currentTimeMillis()) {
+            hits.incrementAndGet();
+            return entry.value;
+        }
+        if (entry != null) {
+            entries.remove(key);
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public synchronized void put(String key, V value) {
+        entries.put(key, new CacheEntry<>(value, System.currentTimeMillis() + ttl));
+    }
+
+    /**
+     * Removes all the entries whose key matches the given filter
+     */
+    public synchronized void invalidate(Predicate<String> keyFilter) {
+        Iterator<String> iterator = entries.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (keyFilter.test(iterator.next())) {
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private static class CacheEntry<V> {
+        private final V value;
+        private final long expiresAt;
+
+        private CacheEntry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
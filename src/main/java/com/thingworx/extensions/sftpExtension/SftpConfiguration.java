@@ -12,6 +12,33 @@ public class SftpConfiguration {
     private String privateKey;
     private int connectionTimeout = 20 * 1000;
     private int keepAliveTimeout = 60 * 1000;
+    private int poolMinSize = 1;
+    private int poolMaxSize = 4;
+    private int metadataChannels = 4;
+    private int transferChannels = 3;
+    private int sessionMaxChannels = 10;
+    private int poolBorrowTimeout = 30 * 1000;
+    private int operationTimeout = 30 * 1000;
+    private int transferTimeout = 60 * 1000;
+    private boolean preconnect = false;
+    private int parallelSegments = 4;
+    private long minSegmentSize = 8 * 1024 * 1024;
+    private int transferRetries = 3;
+    private int cacheTtl = 0;
+    private int cacheMaxEntries = 1000;
+    private int circuitFailureThreshold = 3;
+    private int circuitInitialBackoff = 5 * 1000;
+    private int circuitMaxBackoff = 5 * 60 * 1000;
+    private int queueWorkers = 2;
+    private int queueCapacity = 100;
+    private long rateLimit = 0;
+    private long endpointRateLimit = 0;
+    private long globalRateLimit = 0;
+    private int transferWeight = 1;
+    private String ciphers;
+    private String macs;
+    private String keyExchange;
+    private String compression;
 
     public String getUsername() {
         return username;
@@ -76,6 +103,8 @@ public class SftpConfiguration {
                 ", host='" + host + '\'' +
                 ", port=" + port +
                 ", connectionTimeout=" + connectionTimeout +
+                ", poolMinSize=" + poolMinSize +
+                ", poolMaxSize=" + poolMaxSize +
                 '}';
     }
 
@@ -86,4 +115,266 @@ public class SftpConfiguration {
     public void setKeepAliveTimeout(int keepAliveTimeout) {
         this.keepAliveTimeout = keepAliveTimeout;
     }
+
+    public int getPoolMinSize() {
+        return poolMinSize;
+    }
+
+    public void setPoolMinSize(int poolMinSize) {
+        this.poolMinSize = poolMinSize;
+    }
+
+    public int getPoolMaxSize() {
+        return poolMaxSize;
+    }
+
+    public void setPoolMaxSize(int poolMaxSize) {
+        this.poolMaxSize = poolMaxSize;
+    }
+
+    /**
+     * @return maximum number of channels used by listings and other short operations at the same time
+     */
+    public int getMetadataChannels() {
+        return metadataChannels;
+    }
+
+    public void setMetadataChannels(int metadataChannels) {
+        this.metadataChannels = metadataChannels;
+    }
+
+    /**
+     * @return maximum number of channels used by downloads and uploads at the same time
+     */
+    public int getTransferChannels() {
+        return transferChannels;
+    }
+
+    public void setTransferChannels(int transferChannels) {
+        this.transferChannels = transferChannels;
+    }
+
+    /**
+     * @return maximum number of channels open at the same time on one ssh session, by all the pools sharing it
+     */
+    public int getSessionMaxChannels() {
+        return sessionMaxChannels;
+    }
+
+    public void setSessionMaxChannels(int sessionMaxChannels) {
+        this.sessionMaxChannels = sessionMaxChannels;
+    }
+
+    public int getPoolBorrowTimeout() {
+        return poolBorrowTimeout;
+    }
+
+    public void setPoolBorrowTimeout(int poolBorrowTimeout) {
+        this.poolBorrowTimeout = poolBorrowTimeout;
+    }
+
+    public int getParallelSegments() {
+        return parallelSegments;
+    }
+
+    public void setParallelSegments(int parallelSegments) {
+        this.parallelSegments = parallelSegments;
+    }
+
+    public long getMinSegmentSize() {
+        return minSegmentSize;
+    }
+
+    public void setMinSegmentSize(long minSegmentSize) {
+        this.minSegmentSize = minSegmentSize;
+    }
+
+    public int getTransferRetries() {
+        return transferRetries;
+    }
+
+    public void setTransferRetries(int transferRetries) {
+        this.transferRetries = transferRetries;
+    }
+
+    public int getCacheTtl() {
+        return cacheTtl;
+    }
+
+    public void setCacheTtl(int cacheTtl) {
+        this.cacheTtl = cacheTtl;
+    }
+
+    public int getCacheMaxEntries() {
+        return cacheMaxEntries;
+    }
+
+    public void setCacheMaxEntries(int cacheMaxEntries) {
+        this.cacheMaxEntries = cacheMaxEntries;
+    }
+
+    public boolean isPreconnect() {
+        return preconnect;
+    }
+
+    public void setPreconnect(boolean preconnect) {
+        this.preconnect = preconnect;
+    }
+
+    public int getCircuitFailureThreshold() {
+        return circuitFailureThreshold;
+    }
+
+    public void setCircuitFailureThreshold(int circuitFailureThreshold) {
+        this.circuitFailureThreshold = circuitFailureThreshold;
+    }
+
+    public int getCircuitInitialBackoff() {
+        return circuitInitialBackoff;
+    }
+
+    public void setCircuitInitialBackoff(int circuitInitialBackoff) {
+        this.circuitInitialBackoff = circuitInitialBackoff;
+    }
+
+    public int getCircuitMaxBackoff() {
+        return circuitMaxBackoff;
+    }
+
+    public void setCircuitMaxBackoff(int circuitMaxBackoff) {
+        this.circuitMaxBackoff = circuitMaxBackoff;
+    }
+
+    public int getOperationTimeout() {
+        return operationTimeout;
+    }
+
+    public void setOperationTimeout(int operationTimeout) {
+        this.operationTimeout = operationTimeout;
+    }
+
+    public int getTransferTimeout() {
+        return transferTimeout;
+    }
+
+    public void setTransferTimeout(int transferTimeout) {
+        this.transferTimeout = transferTimeout;
+    }
+
+    public int getQueueWorkers() {
+        return queueWorkers;
+    }
+
+    public void setQueueWorkers(int queueWorkers) {
+        this.queueWorkers = queueWorkers;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * @return maximum bytes per second transferred by this thing, or 0 for no limit
+     */
+    public long getRateLimit() {
+        return rateLimit;
+    }
+
+    public void setRateLimit(long rateLimit) {
+        this.rateLimit = rateLimit;
+    }
+
+    /**
+     * @return maximum bytes per second transferred by all the things connecting to the same host and port,
+     * or 0 for no limit
+     */
+    public long getEndpointRateLimit() {
+        return endpointRateLimit;
+    }
+
+    public void setEndpointRateLimit(long endpointRateLimit) {
+        this.endpointRateLimit = endpointRateLimit;
+    }
+
+    /**
+     * @return maximum bytes per second transferred by all the things, or 0 for no limit
+     */
+    public long getGlobalRateLimit() {
+        return globalRateLimit;
+    }
+
+    public void setGlobalRateLimit(long globalRateLimit) {
+        this.globalRateLimit = globalRateLimit;
+    }
+
+    /**
+     * @return share of the endpoint and global rates this thing gets, relative to the other things
+     */
+    public int getTransferWeight() {
+        return transferWeight;
+    }
+
+    public void setTransferWeight(int transferWeight) {
+        this.transferWeight = transferWeight;
+    }
+
+    /**
+     * @return the ciphers offered when connecting, comma separated in order of preference, or null for the defaults
+     */
+    public String getCiphers() {
+        return ciphers;
+    }
+
+    public void setCiphers(String ciphers) {
+        this.ciphers = ciphers;
+    }
+
+    /**
+     * @return the MACs offered when connecting, comma separated in order of preference, or null for the defaults
+     */
+    public String getMacs() {
+        return macs;
+    }
+
+    public void setMacs(String macs) {
+        this.macs = macs;
+    }
+
+    /**
+     * @return the key exchange algorithms offered when connecting, comma separated in order of preference,
+     * or null for the defaults
+     */
+    public String getKeyExchange() {
+        return keyExchange;
+    }
+
+    public void setKeyExchange(String keyExchange) {
+        this.keyExchange = keyExchange;
+    }
+
+    /**
+     * @return the compression methods offered when connecting, comma separated in order of preference,
+     * or null for no compression
+     */
+    public String getCompression() {
+        return compression;
+    }
+
+    public void setCompression(String compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Uses the algorithms of a profile when connecting
+     */
+    public void setAlgorithms(AlgorithmProfile profile) {
+        setCiphers(profile.getCiphers());
+        setMacs(profile.getMacs());
+        setKeyExchange(profile.getKeyExchange());
+        setCompression(profile.getCompression());
+    }
 }
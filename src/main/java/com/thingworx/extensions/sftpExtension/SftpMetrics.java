@@ -0,0 +1,92 @@
+package com.thingworx.extensions.sftpExtension;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of the operations of one sftp repository, and of the connections it makes
+ */
+public class SftpMetrics {
+    private final Map<String, OperationMetrics> operations = new ConcurrentHashMap<>();
+    private final LongAdder bytesUploaded = new LongAdder();
+    private final LongAdder bytesDownloaded = new LongAdder();
+
+    /**
+     * Counts a call of an operation
+     *
+     * @param operation name of the operation
+     * @param nanos     how long the call took
+     * @param success   false if the call failed
+     */
+    public void record(String operation, long nanos, boolean success) {
+        OperationMetrics metrics = operations.computeIfAbsent(operation, name -> new OperationMetrics());
+        metrics.latency.record(nanos);
+        if (!success) {
+            metrics.errors.increment();
+        }
+    }
+
+    public void addBytesUploaded(long bytes) {
+        bytesUploaded.add(bytes);
+    }
+
+    public void addBytesDownloaded(long bytes) {
+        bytesDownloaded.add(bytes);
+    }
+
+    public long getBytesUploaded() {
+        return bytesUploaded.sum();
+    }
+
+    public long getBytesDownloaded() {
+        return bytesDownloaded.sum();
+    }
+
+    /**
+     * @return the metrics of every operation called so far, sorted by name
+     */
+    public Map<String, OperationMetrics> getOperations() {
+        return new TreeMap<>(operations);
+    }
+
+    /**
+     * @return total number of calls of all the operations
+     */
+    public long getCalls() {
+        long calls = 0;
+        for (OperationMetrics metrics : operations.values()) {
+            calls += metrics.getCalls();
+        }
+        return calls;
+    }
+
+    /**
+     * @return total number of failed calls of all the operations
+     */
+    public long getErrors() {
+        long errors = 0;
+        for (OperationMetrics metrics : operations.values()) {
+            errors += metrics.getErrors();
+        }
+        return errors;
+    }
+
+    public static class OperationMetrics {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder errors = new LongAdder();
+
+        public long getCalls() {
+            return latency.getCount();
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package com.thingworx.extensions.sftpExtension;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.List;
 
 /**
@@ -10,6 +12,22 @@ import java.util.List;
  * Implementations can use any backend available
  */
 public interface SftpRepository extends AutoCloseable {
+    /**
+     * Returns a view of this repository whose operations use the given timeout instead of the configured ones.
+     * Transfers fail when no data moved for that long, the other operations when they take longer
+     *
+     * @param timeout timeout in milliseconds, 0 for no limit
+     */
+    SftpRepository withTimeout(long timeout);
+
+    /**
+     * Returns a view of this repository whose transfers report the bytes moved to the given progress,
+     * and stop when it is cancelled
+     *
+     * @param progress where the transfers report their progress
+     */
+    SftpRepository withProgress(TransferProgress progress);
+
     /**
      * Creates a new folder on the remote filesystem on the specified path
      *
@@ -59,6 +77,31 @@ public interface SftpRepository extends AutoCloseable {
      */
     List<FileSystemFile> listDirectories(String directoryPath) throws SftpException;
 
+    /**
+     * Lists a page of the entries of a directory that meet the given criteria. Only the requested page
+     * of the sorted entries is kept while the listing is received
+     *
+     * @param directoryPath directory path to list
+     * @param filter        criteria of the entries to return
+     * @param sort          attribute to sort the entries by
+     * @param descending    sort in descending order
+     * @param offset        number of sorted entries to skip
+     * @param limit         maximum number of entries to return, 0 for no limit
+     * @return the requested page of the matching entries
+     */
+    List<FileSystemFile> listFiles(String directoryPath, ListingFilter filter, ListingSort sort, boolean descending,
+                                   int offset, int limit) throws SftpException;
+
+    /**
+     * Walks a directory tree, returning the entries of all the levels that meet the given criteria
+     *
+     * @param directoryPath directory where to start
+     * @param maxDepth      number of levels to descend, 1 being the directory itself. 0 for no limit
+     * @param filter        criteria of the entries to return. Directories are walked even if not returned
+     * @return the matching files and directories in the tree
+     */
+    List<FileSystemFile> walkDirectory(String directoryPath, int maxDepth, ListingFilter filter) throws SftpException;
+
     /**
      * Gets the file information for a given folder
      *
@@ -75,6 +118,23 @@ public interface SftpRepository extends AutoCloseable {
      */
     boolean deleteFile(String filePath) throws SftpException;
 
+    /**
+     * Executes many file operations concurrently. A failed operation does not stop the others
+     *
+     * @param operations  the operations to execute
+     * @param concurrency maximum number of operations executed at the same time
+     * @return the outcome of every operation, in the same order as the operations
+     */
+    List<BatchResult> executeBatch(List<BatchOperation> operations, int concurrency) throws SftpException;
+
+    /**
+     * Deletes a folder with all its contents
+     *
+     * @param directoryPath the folder to delete
+     * @return how many files and directories were deleted, and how long it took
+     */
+    DeleteResult deleteFolder(String directoryPath) throws SftpException;
+
     /**
      * Download a file from the remote filesystem
      *
@@ -84,12 +144,100 @@ public interface SftpRepository extends AutoCloseable {
     ByteArrayOutputStream downloadFile(String filePath) throws SftpException;
 
     /**
-     * Upload a file to the remote filesystem
+     * Download a file from the remote filesystem, writing it to the given stream as it is received
      *
-     * @param inputStream the file to upload represented as input file stream
+     * @param filePath     file to download specified by the full path
+     * @param outputStream where to write the file contents. It is not closed
+     */
+    void downloadFile(String filePath, OutputStream outputStream) throws SftpException;
+
+    /**
+     * Download a file from the remote filesystem into a local file, fetching byte ranges of the file
+     * concurrently over several connections
+     *
+     * @param filePath       file to download specified by the full path
+     * @param targetFile     local file where to write the contents. It is created or overwritten
+     * @param maxSegments    maximum number of ranges to fetch in parallel
+     * @param minSegmentSize the file is not split in ranges smaller than this number of bytes
+     * @return Information about the completed transfer
+     */
+    TransferResult downloadFile(String filePath, File targetFile, int maxSegments, long minSegmentSize)
+            throws SftpException;
+
+    /**
+     * Download a file from the remote filesystem into a local file, continuing a previous interrupted
+     * download of the same file if the remote file did not change since. Interrupted transfers are retried
+     * from the last byte received.
+     *
+     * @param filePath   file to download specified by the full path
+     * @param targetFile local file where to write the contents
+     * @param maxRetries how many times to reconnect and continue after a connection failure
+     * @return Information about the completed transfer. Only the bytes transferred by this call are counted
+     */
+    TransferResult downloadFileResumable(String filePath, File targetFile, int maxRetries) throws SftpException;
+
+    /**
+     * Upload a file to the remote filesystem. The stream is read in chunks as the data is sent
+     *
+     * @param inputStream the file to upload represented as input file stream. It is not closed
      * @param filePath    path where to upload the file
      */
-    void uploadFile(ByteArrayInputStream inputStream, String filePath) throws SftpException;
+    void uploadFile(InputStream inputStream, String filePath) throws SftpException;
+
+    /**
+     * Upload a local file to the remote filesystem, writing byte ranges of the file concurrently
+     * over several connections. The size of the remote file is verified once all the ranges are written
+     *
+     * @param sourceFile     local file to upload
+     * @param filePath       path where to upload the file
+     * @param maxSegments    maximum number of ranges to write in parallel
+     * @param minSegmentSize the file is not split in ranges smaller than this number of bytes
+     * @return Information about the completed transfer
+     */
+    TransferResult uploadFile(File sourceFile, String filePath, int maxSegments, long minSegmentSize)
+            throws SftpException;
+
+    /**
+     * Upload a local file to the remote filesystem, continuing a previous interrupted upload of the same file
+     * if the local file did not change since. Interrupted transfers are retried from the last byte
+     * stored on the server.
+     *
+     * @param sourceFile local file to upload
+     * @param filePath   path where to upload the file
+     * @param maxRetries how many times to reconnect and continue after a connection failure
+     * @return Information about the completed transfer. Only the bytes transferred by this call are counted
+     */
+    TransferResult uploadFileResumable(File sourceFile, String filePath, int maxRetries) throws SftpException;
+
+    /**
+     * Brings a local directory up to date with a remote directory. Only the files that are new, or whose size or
+     * modification time differ from the manifest of the last sync, are copied, concurrently over several
+     * connections. Directories are created as needed, but empty directories are not copied
+     *
+     * @param remoteDirectory directory to copy from
+     * @param localDirectory  directory to copy to. It is created if missing
+     * @param manifest        state of both directories after the last sync. It is updated with the files synchronized
+     * @param deleteMissing   also delete the local files that were removed from the remote directory since the last sync
+     * @param concurrency     maximum number of files copied at the same time
+     * @return how many files were copied, deleted or left alone. Files that failed are reported, not thrown
+     */
+    SyncResult syncFromRemote(String remoteDirectory, File localDirectory, SyncManifest manifest,
+                              boolean deleteMissing, int concurrency) throws SftpException;
+
+    /**
+     * Brings a remote directory up to date with a local directory. Only the files that are new, or whose size or
+     * modification time differ from the manifest of the last sync, are copied, concurrently over several
+     * connections. Directories are created as needed, but empty directories are not copied
+     *
+     * @param localDirectory  directory to copy from
+     * @param remoteDirectory directory to copy to. It is created if missing
+     * @param manifest        state of both directories after the last sync. It is updated with the files synchronized
+     * @param deleteMissing   also delete the remote files that were removed from the local directory since the last sync
+     * @param concurrency     maximum number of files copied at the same time
+     * @return how many files were copied, deleted or left alone. Files that failed are reported, not thrown
+     */
+    SyncResult syncToRemote(File localDirectory, String remoteDirectory, SyncManifest manifest,
+                            boolean deleteMissing, int concurrency) throws SftpException;
 
     /**
      * Moves to another directory
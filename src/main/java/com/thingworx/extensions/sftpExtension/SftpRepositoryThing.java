@@ -4,23 +4,38 @@ package com.thingworx.extensions.sftpExtension;
 import ch.qos.logback.classic.Logger;
 import com.thingworx.data.util.InfoTableInstanceFactory;
 import com.thingworx.entities.utils.ThingUtilities;
+import com.thingworx.extensions.sftpExtension.jsch.ConnectionBenchmark;
+import com.thingworx.extensions.sftpExtension.jsch.SftpChannelPool;
 import com.thingworx.logging.LogUtilities;
 import com.thingworx.metadata.annotations.*;
+import com.thingworx.security.context.SecurityContext;
 import com.thingworx.system.ContextType;
 import com.thingworx.things.Thing;
+import com.thingworx.things.events.ThingworxEvent;
 import com.thingworx.things.repository.FileRepositoryThing;
 import com.thingworx.types.InfoTable;
 import com.thingworx.types.collections.ValueCollection;
+import com.thingworx.types.primitives.BooleanPrimitive;
 import com.thingworx.types.primitives.DatetimePrimitive;
 import com.thingworx.types.primitives.NumberPrimitive;
 import com.thingworx.types.primitives.StringPrimitive;
+import com.thingworx.webservices.context.ThreadLocalContext;
+import org.joda.time.DateTime;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ScheduledFuture;
 
 
 @ThingworxImplementedShapeDefinitions(
@@ -71,6 +86,54 @@ import java.util.List;
                                 description = "Timeout (milliseconds) before closing a connection",
                                 baseType = "INTEGER",
                                 aspects = {"defaultValue:60000", "friendlyName:KeepAlive Timeout"}
+                        ), @ThingworxFieldDefinition(
+                                ordinal = 8,
+                                name = "poolMinSize",
+                                description = "Number of sftp channels kept open while the connection is active",
+                                baseType = "INTEGER",
+                                aspects = {"defaultValue:1", "friendlyName:Minimum Channels"}
+                        ), @ThingworxFieldDefinition(
+                                ordinal = 9,
+                                name = "poolMaxSize",
+                                description = "Maximum number of concurrent sftp channels. Limited to the Session Channels setting",
+                                baseType = "INTEGER",
+                                aspects = {"defaultValue:4", "friendlyName:Maximum Channels"}
+                        ), @ThingworxFieldDefinition(
+                                ordinal = 10,
+                                name = "poolBorrowTimeout",
+                                description = "Timeout (milliseconds) to wait for a free sftp channel",
+                                baseType = "INTEGER",
+                                aspects = {"defaultValue:30000", "friendlyName:Channel Wait Timeout"}
+                        ), @ThingworxFieldDefinition(
+                                ordinal = 11,
+                                name = "preconnect",
+                                description = "Connect in the background when the thing starts, and keep the connection open instead of closing it when idle",
+                                baseType = "BOOLEAN",
+                                aspects = {"defaultValue:false", "friendlyName:Keep Connected"}
+                        ), @ThingworxFieldDefinition(
+                                ordinal = 12,
+                                name = "operationTimeout",
+                                description = "Time (milliseconds) a listing, file info, move or delete may take before its channel is closed. 0 for no limit",
+                                baseType = "INTEGER",
+                                aspects = {"defaultValue:30000", "friendlyName:Operation Timeout"}
+                        ), @ThingworxFieldDefinition(
+                                ordinal = 13,
+                                name = "metadataChannels",
+                                description = "Maximum number of channels used at the same time by listings, file info, moves and deletes",
+                                baseType = "INTEGER",
+                                aspects = {"defaultValue:4", "friendlyName:Metadata Channels"}
+                        ), @ThingworxFieldDefinition(
+                                ordinal = 14,
+                                name = "transferChannels",
+                                description = "Maximum number of channels used at the same time by downloads and uploads. At least one channel is left to the other operations, if Maximum Channels is 2 or more",
+                                baseType = "INTEGER",
+                                aspects = {"defaultValue:3", "friendlyName:Transfer Channels"}
+                        ), @ThingworxFieldDefinition(
+                                ordinal = 15,
+                                name = "sessionMaxChannels",
+                                description = "Maximum number of channels on one ssh session, counting those of all the things connecting to the same server with the same credentials. Should not exceed the server MaxSessions. Things that would go over it get a session of their own",
+                                baseType = "INTEGER",
+                                aspects = {"defaultValue:10", "friendlyName:Session Channels"}
                         )}
                 )
         ),
@@ -100,14 +163,337 @@ import java.util.List;
                                         aspects = {"friendlyName: Private key passphrase"}
                                 )}
                         )
+                ),
+                @ThingworxConfigurationTableDefinition(
+                        name = "TransferSettings",
+                        description = "File transfer tuning",
+                        isMultiRow = false,
+                        ordinal = 2,
+                        dataShape = @ThingworxDataShapeDefinition(
+                                fields = {@ThingworxFieldDefinition(
+                                        ordinal = 0,
+                                        name = "parallelSegments",
+                                        description = "Maximum number of byte ranges transferred in parallel by the parallel services",
+                                        baseType = "INTEGER",
+                                        aspects = {"defaultValue:4", "friendlyName:Parallel Segments"}
+                                ), @ThingworxFieldDefinition(
+                                        ordinal = 1,
+                                        name = "minSegmentSize",
+                                        description = "Files are not split in byte ranges smaller than this (bytes)",
+                                        baseType = "INTEGER",
+                                        aspects = {"defaultValue:8388608", "friendlyName:Minimum Segment Size"}
+                                ), @ThingworxFieldDefinition(
+                                        ordinal = 2,
+                                        name = "transferRetries",
+                                        description = "How many times the resumable services reconnect and continue an interrupted transfer",
+                                        baseType = "INTEGER",
+                                        aspects = {"defaultValue:3", "friendlyName:Transfer Retries"}
+                                ), @ThingworxFieldDefinition(
+                                        ordinal = 3,
+                                        name = "transferTimeout",
+                                        description = "Time (milliseconds) a transfer may go without receiving or sending data before its channel is closed. 0 for no limit",
+                                        baseType = "INTEGER",
+                                        aspects = {"defaultValue:60000", "friendlyName:Transfer Timeout"}
+                                ), @ThingworxFieldDefinition(
+                                        ordinal = 4,
+                                        name = "queueWorkers",
+                                        description = "Maximum number of queued transfers running at the same time",
+                                        baseType = "INTEGER",
+                                        aspects = {"defaultValue:2", "friendlyName:Queue Workers"}
+                                ), @ThingworxFieldDefinition(
+                                        ordinal = 5,
+                                        name = "queueCapacity",
+                                        description = "Maximum number of queued transfers waiting for a worker. Further transfers are rejected",
+                                        baseType = "INTEGER",
+                                        aspects = {"defaultValue:100", "friendlyName:Queue Capacity"}
+                                )}
+                        )
+                ),
+                @ThingworxConfigurationTableDefinition(
+                        name = "CacheSettings",
+                        description = "Caching of directory listings and file information",
+                        isMultiRow = false,
+                        ordinal = 3,
+                        dataShape = @ThingworxDataShapeDefinition(
+                                fields = {@ThingworxFieldDefinition(
+                                        ordinal = 0,
+                                        name = "cacheTtl",
+                                        description = "Time (milliseconds) a listing or file info is cached. 0 disables caching",
+                                        baseType = "INTEGER",
+                                        aspects = {"defaultValue:0", "friendlyName:Cache Time To Live"}
+                                ), @ThingworxFieldDefinition(
+                                        ordinal = 1,
+                                        name = "cacheMaxEntries",
+                                        description = "Maximum number of listings and file infos cached",
+                                        baseType = "INTEGER",
+                                        aspects = {"defaultValue:1000", "friendlyName:Cache Max Entries"}
+                                )}
+                        )
+                ),
+                @ThingworxConfigurationTableDefinition(
+                        name = "CircuitBreakerSettings",
+                        description = "Fail fast while the SFTP server is unreachable",
+                        isMultiRow = false,
+                        ordinal = 4,
+                        dataShape = @ThingworxDataShapeDefinition(
+                                fields = {@ThingworxFieldDefinition(
+                                        ordinal = 0,
+                                        name = "failureThreshold",
+                                        description = "Number of consecutive failed connection attempts after which calls fail right away",
+                                        baseType = "INTEGER",
+                                        aspects = {"defaultValue:3", "friendlyName:Failure Threshold"}
+                                ), @ThingworxFieldDefinition(
+                                        ordinal = 1,
+                                        name = "initialBackoff",
+                                        description = "Time (milliseconds) before the first background reconnection attempt",
+                                        baseType = "INTEGER",
+                                        aspects = {"defaultValue:5000", "friendlyName:Initial Backoff"}
+                                ), @ThingworxFieldDefinition(
+                                        ordinal = 2,
+                                        name = "maxBackoff",
+                                        description = "Maximum time (milliseconds) between background reconnection attempts",
+                                        baseType = "INTEGER",
+                                        aspects = {"defaultValue:300000", "friendlyName:Max Backoff"}
+                                )}
+                        )
+                ),
+                @ThingworxConfigurationTableDefinition(
+                        name = "WatchedDirectories",
+                        description = "Remote directories polled for changes, reported with the FileAdded, FileModified and FileRemoved events",
+                        isMultiRow = true,
+                        ordinal = 5,
+                        dataShape = @ThingworxDataShapeDefinition(
+                                fields = {@ThingworxFieldDefinition(
+                                        ordinal = 0,
+                                        name = "path",
+                                        description = "Directory to watch. Subdirectories are not watched",
+                                        baseType = "STRING",
+                                        aspects = {"friendlyName:Directory"}
+                                ), @ThingworxFieldDefinition(
+                                        ordinal = 1,
+                                        name = "pattern",
+                                        description = "Only watch the files matching this glob pattern, like *.csv. Watches all the files if empty",
+                                        baseType = "STRING",
+                                        aspects = {"friendlyName:File Pattern"}
+                                ), @ThingworxFieldDefinition(
+                                        ordinal = 2,
+                                        name = "pollInterval",
+                                        description = "Time (milliseconds) between two listings of the directory",
+                                        baseType = "INTEGER",
+                                        aspects = {"defaultValue:10000", "friendlyName:Poll Interval"}
+                                ), @ThingworxFieldDefinition(
+                                        ordinal = 3,
+                                        name = "stableTime",
+                                        description = "Time (milliseconds) a new or modified file must stay the same size and date before it is reported",
+                                        baseType = "INTEGER",
+                                        aspects = {"defaultValue:0", "friendlyName:Stable Time"}
+                                )}
+                        )
+                ),
+                @ThingworxConfigurationTableDefinition(
+                        name = "BandwidthSettings",
+                        description = "Limit the rate of the transfers, so they do not saturate the network",
+                        isMultiRow = false,
+                        ordinal = 6,
+                        dataShape = @ThingworxDataShapeDefinition(
+                                fields = {@ThingworxFieldDefinition(
+                                        ordinal = 0,
+                                        name = "rateLimit",
+                                        description = "Maximum bytes per second transferred by this thing. Its concurrent transfers share it equally. 0 for no limit",
+                                        baseType = "INTEGER",
+                                        aspects = {"defaultValue:0", "friendlyName:Rate Limit"}
+                                ), @ThingworxFieldDefinition(
+                                        ordinal = 1,
+                                        name = "endpointRateLimit",
+                                        description = "Maximum bytes per second transferred by all the things connecting to the same host and port. The lowest value set by those things applies. 0 for no limit",
+                                        baseType = "INTEGER",
+                                        aspects = {"defaultValue:0", "friendlyName:Endpoint Rate Limit"}
+                                ), @ThingworxFieldDefinition(
+                                        ordinal = 2,
+                                        name = "globalRateLimit",
+                                        description = "Maximum bytes per second transferred by all the things. The lowest value set by the things applies. 0 for no limit",
+                                        baseType = "INTEGER",
+                                        aspects = {"defaultValue:0", "friendlyName:Global Rate Limit"}
+                                ), @ThingworxFieldDefinition(
+                                        ordinal = 3,
+                                        name = "transferWeight",
+                                        description = "Share of the endpoint and global rates this thing gets while other things transfer, relative to their weight",
+                                        baseType = "INTEGER",
+                                        aspects = {"defaultValue:1", "friendlyName:Transfer Weight"}
+                                )}
+                        )
+                ),
+                @ThingworxConfigurationTableDefinition(
+                        name = "AlgorithmSettings",
+                        description = "SSH algorithms offered when connecting, comma separated in order of preference. Empty uses the defaults. Use BenchmarkConnection to compare them",
+                        isMultiRow = false,
+                        ordinal = 7,
+                        dataShape = @ThingworxDataShapeDefinition(
+                                fields = {@ThingworxFieldDefinition(
+                                        ordinal = 0,
+                                        name = "ciphers",
+                                        description = "Ciphers, for example aes128-gcm@openssh.com,aes128-ctr",
+                                        baseType = "STRING",
+                                        aspects = {"friendlyName:Ciphers"}
+                                ), @ThingworxFieldDefinition(
+                                        ordinal = 1,
+                                        name = "macs",
+                                        description = "Message authentication codes, for example hmac-sha2-256-etm@openssh.com",
+                                        baseType = "STRING",
+                                        aspects = {"friendlyName:MACs"}
+                                ), @ThingworxFieldDefinition(
+                                        ordinal = 2,
+                                        name = "keyExchange",
+                                        description = "Key exchange algorithms, for example curve25519-sha256,ecdh-sha2-nistp256",
+                                        baseType = "STRING",
+                                        aspects = {"friendlyName:Key Exchange"}
+                                ), @ThingworxFieldDefinition(
+                                        ordinal = 3,
+                                        name = "compression",
+                                        description = "Compression methods, for example zlib@openssh.com,zlib,none. Empty for no compression",
+                                        baseType = "STRING",
+                                        aspects = {"friendlyName:Compression"}
+                                )}
+                        )
+        )}
+)
+@ThingworxEventDefinitions(
+        events = {@ThingworxEventDefinition(
+                name = "FileAdded",
+                description = "A file appeared in a watched directory",
+                dataShape = "SftpFileChange"
+        ), @ThingworxEventDefinition(
+                name = "FileModified",
+                description = "The size or date of a file in a watched directory changed",
+                dataShape = "SftpFileChange"
+        ), @ThingworxEventDefinition(
+                name = "FileRemoved",
+                description = "A file disappeared from a watched directory",
+                dataShape = "SftpFileChange"
+        ), @ThingworxEventDefinition(
+                name = "TransferJobFinished",
+                description = "A queued transfer completed, failed or was cancelled",
+                dataShape = "SftpTransferJob"
+        )}
+)
+@ThingworxPropertyDefinitions(
+        properties = {@ThingworxPropertyDefinition(
+                name = "CacheHits",
+                description = "Number of listings and file infos served from the cache",
+                baseType = "NUMBER",
+                aspects = {"isReadOnly:true", "defaultValue:0"}
+        ), @ThingworxPropertyDefinition(
+                name = "CacheMisses",
+                description = "Number of listings and file infos fetched from the server while caching is enabled",
+                baseType = "NUMBER",
+                aspects = {"isReadOnly:true", "defaultValue:0"}
+        ), @ThingworxPropertyDefinition(
+                name = "CircuitState",
+                description = "CLOSED while connections are allowed, OPEN or HALF_OPEN while the server is considered unreachable",
+                baseType = "STRING",
+                aspects = {"isReadOnly:true", "defaultValue:CLOSED"}
+        ), @ThingworxPropertyDefinition(
+                name = "OperationCount",
+                description = "Number of calls of the repository operations",
+                baseType = "NUMBER",
+                aspects = {"isReadOnly:true", "defaultValue:0"}
+        ), @ThingworxPropertyDefinition(
+                name = "ErrorCount",
+                description = "Number of failed calls of the repository operations",
+                baseType = "NUMBER",
+                aspects = {"isReadOnly:true", "defaultValue:0"}
+        ), @ThingworxPropertyDefinition(
+                name = "BytesUploaded",
+                description = "Number of bytes sent to the server",
+                baseType = "NUMBER",
+                aspects = {"isReadOnly:true", "defaultValue:0"}
+        ), @ThingworxPropertyDefinition(
+                name = "BytesDownloaded",
+                description = "Number of bytes received from the server",
+                baseType = "NUMBER",
+                aspects = {"isReadOnly:true", "defaultValue:0"}
+        ), @ThingworxPropertyDefinition(
+                name = "OpenChannels",
+                description = "Number of sftp channels open, both in use and idle",
+                baseType = "NUMBER",
+                aspects = {"isReadOnly:true", "defaultValue:0"}
+        ), @ThingworxPropertyDefinition(
+                name = "BusyChannels",
+                description = "Number of sftp channels in use by an operation",
+                baseType = "NUMBER",
+                aspects = {"isReadOnly:true", "defaultValue:0"}
+        ), @ThingworxPropertyDefinition(
+                name = "ChannelUtilization",
+                description = "Percentage of the maximum number of channels in use",
+                baseType = "NUMBER",
+                aspects = {"isReadOnly:true", "defaultValue:0"}
+        ), @ThingworxPropertyDefinition(
+                name = "MetadataBusyChannels",
+                description = "Number of sftp channels in use by listings, file info, moves and deletes",
+                baseType = "NUMBER",
+                aspects = {"isReadOnly:true", "defaultValue:0"}
+        ), @ThingworxPropertyDefinition(
+                name = "MetadataQueueDepth",
+                description = "Number of listings, file info, moves and deletes waiting for a free channel",
+                baseType = "NUMBER",
+                aspects = {"isReadOnly:true", "defaultValue:0"}
+        ), @ThingworxPropertyDefinition(
+                name = "TransferBusyChannels",
+                description = "Number of sftp channels in use by downloads and uploads",
+                baseType = "NUMBER",
+                aspects = {"isReadOnly:true", "defaultValue:0"}
+        ), @ThingworxPropertyDefinition(
+                name = "TransferQueueDepth",
+                description = "Number of downloads and uploads waiting for a free channel",
+                baseType = "NUMBER",
+                aspects = {"isReadOnly:true", "defaultValue:0"}
+        ), @ThingworxPropertyDefinition(
+                name = "TransferRate",
+                description = "Bytes per second transferred by this thing, averaged over the last seconds",
+                baseType = "NUMBER",
+                aspects = {"isReadOnly:true", "defaultValue:0"}
+        ), @ThingworxPropertyDefinition(
+                name = "EndpointTransferRate",
+                description = "Bytes per second transferred by all the things connecting to the same host and port",
+                baseType = "NUMBER",
+                aspects = {"isReadOnly:true", "defaultValue:0"}
+        ), @ThingworxPropertyDefinition(
+                name = "GlobalTransferRate",
+                description = "Bytes per second transferred by all the things",
+                baseType = "NUMBER",
+                aspects = {"isReadOnly:true", "defaultValue:0"}
+        ), @ThingworxPropertyDefinition(
+                name = "QueuedTransfers",
+                description = "Number of queued transfers waiting for a worker",
+                baseType = "NUMBER",
+                aspects = {"isReadOnly:true", "defaultValue:0"}
+        ), @ThingworxPropertyDefinition(
+                name = "RunningTransfers",
+                description = "Number of queued transfers running",
+                baseType = "NUMBER",
+                aspects = {"isReadOnly:true", "defaultValue:0"}
         )}
 )
 public class SftpRepositoryThing extends Thing {
     private static final Logger LOGGER = LogUtilities.getInstance().getApplicationLogger(SftpRepositoryThing.class);
     private static final String CONNECTION_SETTINGS_TABLE = "ConnectionInfo";
     private static final String KEY_BASED_SETTINGS_TABLE = "Keybasedauth";
-    private ManagedSftpFileRepository repository;
-    private final SftpConfiguration config = new SftpConfiguration();
+    private static final String TRANSFER_SETTINGS_TABLE = "TransferSettings";
+    private static final String CACHE_SETTINGS_TABLE = "CacheSettings";
+    private static final String CIRCUIT_BREAKER_SETTINGS_TABLE = "CircuitBreakerSettings";
+    private static final String WATCH_SETTINGS_TABLE = "WatchedDirectories";
+    private static final String BANDWIDTH_SETTINGS_TABLE = "BandwidthSettings";
+    private static final String ALGORITHM_SETTINGS_TABLE = "AlgorithmSettings";
+    private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+    /**
+     * Interval (milliseconds) at which the status properties are refreshed
+     */
+    private static final long STATUS_INTERVAL = 5 * 1000;
+    private volatile ManagedSftpFileRepository repository;
+    private volatile TransferQueue transferQueue;
+    private ScheduledFuture<?> statusTask;
+    private final List<ScheduledFuture<?>> watchTasks = new ArrayList<>();
+    private volatile SftpConfiguration config = new SftpConfiguration();
 
     public static InfoTable convertToInfotable(Collection<FileSystemFile> files) throws Exception {
         InfoTable messagesInfoTable = InfoTableInstanceFactory.createInfoTableFromDataShape("FileSystemFile");
@@ -127,6 +513,11 @@ public class SftpRepositoryThing extends Thing {
     @Override
     protected void initializeThing(ContextType contextType) throws Exception {
         super.initializeThing(contextType);
+        // a reconfigured thing is initialized again, so the connections made with the old settings are dropped.
+        // They are closed first, as they give back their shared sessions and rate limits using the old settings
+        closeRepository();
+        // the old settings are left untouched for whatever still references them
+        SftpConfiguration config = new SftpConfiguration();
         // get values from the configuration table
         config.setHost(this.getStringConfigurationSetting(CONNECTION_SETTINGS_TABLE, "host"));
         config.setPort((Integer) this.getConfigurationSetting(CONNECTION_SETTINGS_TABLE, "port"));
@@ -145,7 +536,87 @@ public class SftpRepositoryThing extends Thing {
         config.setUsername(this.getStringConfigurationSetting(CONNECTION_SETTINGS_TABLE, "username"));
         config.setConnectionTimeout((Integer) this.getConfigurationSetting(CONNECTION_SETTINGS_TABLE, "connectionTimeout"));
         config.setKeepAliveTimeout((Integer) this.getConfigurationSetting(CONNECTION_SETTINGS_TABLE, "keepAliveTimeout"));
+        config.setPoolMinSize(getIntegerSetting(CONNECTION_SETTINGS_TABLE, "poolMinSize", config.getPoolMinSize()));
+        config.setPoolMaxSize(getIntegerSetting(CONNECTION_SETTINGS_TABLE, "poolMaxSize", config.getPoolMaxSize()));
+        config.setMetadataChannels(getIntegerSetting(CONNECTION_SETTINGS_TABLE, "metadataChannels",
+                config.getMetadataChannels()));
+        config.setTransferChannels(getIntegerSetting(CONNECTION_SETTINGS_TABLE, "transferChannels",
+                config.getTransferChannels()));
+        config.setSessionMaxChannels(getIntegerSetting(CONNECTION_SETTINGS_TABLE, "sessionMaxChannels",
+                config.getSessionMaxChannels()));
+        config.setPoolBorrowTimeout(getIntegerSetting(CONNECTION_SETTINGS_TABLE, "poolBorrowTimeout",
+                config.getPoolBorrowTimeout()));
+        config.setOperationTimeout(getIntegerSetting(CONNECTION_SETTINGS_TABLE, "operationTimeout",
+                config.getOperationTimeout()));
+        config.setPreconnect(getBooleanSetting(CONNECTION_SETTINGS_TABLE, "preconnect", config.isPreconnect()));
+        config.setParallelSegments(getIntegerSetting(TRANSFER_SETTINGS_TABLE, "parallelSegments",
+                config.getParallelSegments()));
+        config.setMinSegmentSize(getIntegerSetting(TRANSFER_SETTINGS_TABLE, "minSegmentSize",
+                (int) config.getMinSegmentSize()));
+        config.setTransferRetries(getIntegerSetting(TRANSFER_SETTINGS_TABLE, "transferRetries",
+                config.getTransferRetries()));
+        config.setTransferTimeout(getIntegerSetting(TRANSFER_SETTINGS_TABLE, "transferTimeout",
+                config.getTransferTimeout()));
+        config.setQueueWorkers(getIntegerSetting(TRANSFER_SETTINGS_TABLE, "queueWorkers", config.getQueueWorkers()));
+        config.setQueueCapacity(getIntegerSetting(TRANSFER_SETTINGS_TABLE, "queueCapacity",
+                config.getQueueCapacity()));
+        config.setCacheTtl(getIntegerSetting(CACHE_SETTINGS_TABLE, "cacheTtl", config.getCacheTtl()));
+        config.setCacheMaxEntries(getIntegerSetting(CACHE_SETTINGS_TABLE, "cacheMaxEntries",
+                config.getCacheMaxEntries()));
+        config.setCircuitFailureThreshold(getIntegerSetting(CIRCUIT_BREAKER_SETTINGS_TABLE, "failureThreshold",
+                config.getCircuitFailureThreshold()));
+        config.setCircuitInitialBackoff(getIntegerSetting(CIRCUIT_BREAKER_SETTINGS_TABLE, "initialBackoff",
+                config.getCircuitInitialBackoff()));
+        config.setCircuitMaxBackoff(getIntegerSetting(CIRCUIT_BREAKER_SETTINGS_TABLE, "maxBackoff",
+                config.getCircuitMaxBackoff()));
+        config.setRateLimit(getIntegerSetting(BANDWIDTH_SETTINGS_TABLE, "rateLimit", (int) config.getRateLimit()));
+        config.setEndpointRateLimit(getIntegerSetting(BANDWIDTH_SETTINGS_TABLE, "endpointRateLimit",
+                (int) config.getEndpointRateLimit()));
+        config.setGlobalRateLimit(getIntegerSetting(BANDWIDTH_SETTINGS_TABLE, "globalRateLimit",
+                (int) config.getGlobalRateLimit()));
+        config.setTransferWeight(getIntegerSetting(BANDWIDTH_SETTINGS_TABLE, "transferWeight",
+                config.getTransferWeight()));
+        config.setCiphers(this.getStringConfigurationSetting(ALGORITHM_SETTINGS_TABLE, "ciphers"));
+        config.setMacs(this.getStringConfigurationSetting(ALGORITHM_SETTINGS_TABLE, "macs"));
+        config.setKeyExchange(this.getStringConfigurationSetting(ALGORITHM_SETTINGS_TABLE, "keyExchange"));
+        config.setCompression(this.getStringConfigurationSetting(ALGORITHM_SETTINGS_TABLE, "compression"));
+        this.config = config;
         repository = new ManagedSftpFileRepository(config);
+        transferQueue = new TransferQueue(Math.max(1, config.getQueueWorkers()), Math.max(1, config.getQueueCapacity()),
+                this::dispatchJobEvent);
+        // some of the status changes in the background, like the circuit breaker
+        statusTask = SftpScheduler.scheduleAtFixedRate(this::updateStatus, STATUS_INTERVAL);
+        startWatchers();
+    }
+
+    @Override
+    protected void cleanupThing() throws Exception {
+        closeRepository();
+        super.cleanupThing();
+    }
+
+    /**
+     * Closes the connections of this thing, and stops their idle eviction.
+     * Services called afterwards fail because the connection pool is closed
+     */
+    private void closeRepository() {
+        if (statusTask != null) {
+            statusTask.cancel(false);
+        }
+        for (ScheduledFuture<?> watchTask : watchTasks) {
+            watchTask.cancel(false);
+        }
+        watchTasks.clear();
+        if (transferQueue != null) {
+            transferQueue.close();
+        }
+        if (repository != null) {
+            try {
+                repository.close();
+            } catch (Exception e) {
+                LOGGER.warn("Failed to close the sftp connections of " + getName(), e);
+            }
+        }
     }
 
     @ThingworxServiceDefinition(
@@ -164,7 +635,9 @@ public class SftpRepositoryThing extends Thing {
             description = "Directory path",
             baseType = "STRING"
     ) String path) throws Exception {
-        return convertToInfotable(repository.getRepository().listFilesAndDirectories(path));
+        InfoTable result = convertToInfotable(repository.getRepository().listFilesAndDirectories(path));
+        updateCacheStatistics();
+        return result;
     }
 
     @ThingworxServiceDefinition(
@@ -172,7 +645,7 @@ public class SftpRepositoryThing extends Thing {
             description = "Delete a file",
             category = "Files"
     )
-    public synchronized Boolean DeleteFile(@ThingworxServiceParameter(
+    public Boolean DeleteFile(@ThingworxServiceParameter(
             name = "path",
             description = "File path",
             baseType = "STRING"
@@ -190,7 +663,9 @@ public class SftpRepositoryThing extends Thing {
             description = "File path",
             baseType = "STRING"
     ) String path) throws Exception {
-        return convertToInfotable(repository.getRepository().getFileInfo(path));
+        InfoTable result = convertToInfotable(repository.getRepository().getFileInfo(path));
+        updateCacheStatistics();
+        return result;
     }
 
     @ThingworxServiceDefinition(
@@ -209,7 +684,9 @@ public class SftpRepositoryThing extends Thing {
             description = "Directory path",
             baseType = "STRING"
     ) String path) throws Exception {
-        return convertToInfotable(repository.getRepository().listDirectories(path));
+        InfoTable result = convertToInfotable(repository.getRepository().listDirectories(path));
+        updateCacheStatistics();
+        return result;
     }
 
     @ThingworxServiceDefinition(
@@ -228,7 +705,138 @@ public class SftpRepositoryThing extends Thing {
             description = "Directory path. Can include wildcards",
             baseType = "STRING"
     ) String path) throws Exception {
-        return convertToInfotable(repository.getRepository().listFiles(path));
+        InfoTable result = convertToInfotable(repository.getRepository().listFiles(path));
+        updateCacheStatistics();
+        return result;
+    }
+
+    @ThingworxServiceDefinition(
+            name = "SearchFiles",
+            description = "Get a filtered, sorted and paged listing of a directory",
+            category = "Transfers"
+    )
+    @ThingworxServiceResult(
+            name = "result",
+            description = "File Results",
+            baseType = "INFOTABLE",
+            aspects = {"dataShape:FileSystemFile"}
+    )
+    public InfoTable SearchFiles(@ThingworxServiceParameter(
+            name = "path",
+            description = "Directory path",
+            baseType = "STRING"
+    ) String path, @ThingworxServiceParameter(
+            name = "pattern",
+            description = "Glob pattern the names must match, like *.csv",
+            baseType = "STRING"
+    ) String pattern, @ThingworxServiceParameter(
+            name = "regex",
+            description = "Regular expression the names must match. Used instead of the pattern if set",
+            baseType = "STRING"
+    ) String regex, @ThingworxServiceParameter(
+            name = "modifiedAfter",
+            description = "Only include entries modified at or after this time",
+            baseType = "DATETIME"
+    ) DateTime modifiedAfter, @ThingworxServiceParameter(
+            name = "modifiedBefore",
+            description = "Only include entries modified before this time",
+            baseType = "DATETIME"
+    ) DateTime modifiedBefore, @ThingworxServiceParameter(
+            name = "minSize",
+            description = "Only include files of at least this size (bytes)",
+            baseType = "NUMBER"
+    ) Double minSize, @ThingworxServiceParameter(
+            name = "maxSize",
+            description = "Only include files of at most this size (bytes)",
+            baseType = "NUMBER"
+    ) Double maxSize, @ThingworxServiceParameter(
+            name = "includeDirectories",
+            description = "Include the directories in the result",
+            baseType = "BOOLEAN",
+            aspects = {"defaultValue:false"}
+    ) Boolean includeDirectories, @ThingworxServiceParameter(
+            name = "sortBy",
+            description = "Field to sort by: name, size or lastModifiedDate",
+            baseType = "STRING",
+            aspects = {"defaultValue:name"}
+    ) String sortBy, @ThingworxServiceParameter(
+            name = "descending",
+            description = "Sort in descending order",
+            baseType = "BOOLEAN",
+            aspects = {"defaultValue:false"}
+    ) Boolean descending, @ThingworxServiceParameter(
+            name = "offset",
+            description = "Number of sorted entries to skip",
+            baseType = "INTEGER",
+            aspects = {"defaultValue:0"}
+    ) Integer offset, @ThingworxServiceParameter(
+            name = "limit",
+            description = "Maximum number of entries to return. 0 for no limit",
+            baseType = "INTEGER",
+            aspects = {"defaultValue:0"}
+    ) Integer limit) throws Exception {
+        ListingFilter filter = createFilter(modifiedAfter, modifiedBefore, minSize, maxSize);
+        if (regex != null && !regex.isEmpty()) {
+            filter.setRegex(regex);
+        } else {
+            filter.setGlob(pattern);
+        }
+        filter.setIncludeDirectories(includeDirectories != null && includeDirectories);
+        return convertToInfotable(repository.getRepository().listFiles(path, filter, ListingSort.fromFieldName(sortBy),
+                descending != null && descending, offset != null ? offset : 0, limit != null ? limit : 0));
+    }
+
+    @ThingworxServiceDefinition(
+            name = "WalkDirectory",
+            description = "Get the files and directories of a whole directory tree, listing several directories in parallel",
+            category = "Transfers"
+    )
+    @ThingworxServiceResult(
+            name = "result",
+            description = "File Results",
+            baseType = "INFOTABLE",
+            aspects = {"dataShape:FileSystemFile"}
+    )
+    public InfoTable WalkDirectory(@ThingworxServiceParameter(
+            name = "path",
+            description = "Directory path where to start",
+            baseType = "STRING"
+    ) String path, @ThingworxServiceParameter(
+            name = "maxDepth",
+            description = "Number of levels to descend, 1 being only the directory itself. 0 for no limit",
+            baseType = "INTEGER",
+            aspects = {"defaultValue:0"}
+    ) Integer maxDepth, @ThingworxServiceParameter(
+            name = "pattern",
+            description = "Glob pattern the names must match, like *.csv",
+            baseType = "STRING"
+    ) String pattern, @ThingworxServiceParameter(
+            name = "modifiedAfter",
+            description = "Only include entries modified at or after this time",
+            baseType = "DATETIME"
+    ) DateTime modifiedAfter, @ThingworxServiceParameter(
+            name = "modifiedBefore",
+            description = "Only include entries modified before this time",
+            baseType = "DATETIME"
+    ) DateTime modifiedBefore, @ThingworxServiceParameter(
+            name = "minSize",
+            description = "Only include files of at least this size (bytes)",
+            baseType = "NUMBER"
+    ) Double minSize, @ThingworxServiceParameter(
+            name = "maxSize",
+            description = "Only include files of at most this size (bytes)",
+            baseType = "NUMBER"
+    ) Double maxSize, @ThingworxServiceParameter(
+            name = "includeDirectories",
+            description = "Include the directories in the result",
+            baseType = "BOOLEAN",
+            aspects = {"defaultValue:false"}
+    ) Boolean includeDirectories) throws Exception {
+        ListingFilter filter = createFilter(modifiedAfter, modifiedBefore, minSize, maxSize);
+        filter.setGlob(pattern);
+        filter.setIncludeDirectories(includeDirectories != null && includeDirectories);
+        return convertToInfotable(repository.getRepository().walkDirectory(path,
+                maxDepth != null ? maxDepth : 0, filter));
     }
 
     @ThingworxServiceDefinition(
@@ -236,7 +844,7 @@ public class SftpRepositoryThing extends Thing {
             description = "Move a file",
             category = "Files"
     )
-    public synchronized void MoveFile(@ThingworxServiceParameter(
+    public void MoveFile(@ThingworxServiceParameter(
             name = "sourcePath",
             description = "Path of file to move",
             baseType = "STRING"
@@ -258,7 +866,7 @@ public class SftpRepositoryThing extends Thing {
             description = "Rename a file",
             category = "Files"
     )
-    public synchronized void RenameFile(@ThingworxServiceParameter(
+    public void RenameFile(@ThingworxServiceParameter(
             name = "path",
             description = "File path",
             baseType = "STRING"
@@ -275,6 +883,102 @@ public class SftpRepositoryThing extends Thing {
         repository.getRepository().renameFile(path, name, overwrite);
     }
 
+    @ThingworxServiceDefinition(
+            name = "BatchMove",
+            description = "Move many files in parallel",
+            category = "Files"
+    )
+    @ThingworxServiceResult(
+            name = "result",
+            description = "Outcome of every operation",
+            baseType = "INFOTABLE",
+            aspects = {"dataShape:SftpBatchResult"}
+    )
+    public InfoTable BatchMove(@ThingworxServiceParameter(
+            name = "operations",
+            description = "Files to move: path and target, optionally overwrite",
+            baseType = "INFOTABLE",
+            aspects = {"dataShape:SftpBatchOperation"}
+    ) InfoTable operations, @ThingworxServiceParameter(
+            name = "concurrency",
+            description = "Maximum number of operations executed at the same time. Uses all the channels if empty",
+            baseType = "INTEGER"
+    ) Integer concurrency) throws Exception {
+        return executeBatch(operations, BatchOperation.Type.MOVE, concurrency);
+    }
+
+    @ThingworxServiceDefinition(
+            name = "BatchRename",
+            description = "Rename many files in parallel",
+            category = "Files"
+    )
+    @ThingworxServiceResult(
+            name = "result",
+            description = "Outcome of every operation",
+            baseType = "INFOTABLE",
+            aspects = {"dataShape:SftpBatchResult"}
+    )
+    public InfoTable BatchRename(@ThingworxServiceParameter(
+            name = "operations",
+            description = "Files to rename: path and the new name as target, optionally overwrite",
+            baseType = "INFOTABLE",
+            aspects = {"dataShape:SftpBatchOperation"}
+    ) InfoTable operations, @ThingworxServiceParameter(
+            name = "concurrency",
+            description = "Maximum number of operations executed at the same time. Uses all the channels if empty",
+            baseType = "INTEGER"
+    ) Integer concurrency) throws Exception {
+        return executeBatch(operations, BatchOperation.Type.RENAME, concurrency);
+    }
+
+    @ThingworxServiceDefinition(
+            name = "BatchDelete",
+            description = "Delete many files in parallel",
+            category = "Files"
+    )
+    @ThingworxServiceResult(
+            name = "result",
+            description = "Outcome of every operation",
+            baseType = "INFOTABLE",
+            aspects = {"dataShape:SftpBatchResult"}
+    )
+    public InfoTable BatchDelete(@ThingworxServiceParameter(
+            name = "operations",
+            description = "Files to delete: path",
+            baseType = "INFOTABLE",
+            aspects = {"dataShape:SftpBatchOperation"}
+    ) InfoTable operations, @ThingworxServiceParameter(
+            name = "concurrency",
+            description = "Maximum number of operations executed at the same time. Uses all the channels if empty",
+            baseType = "INTEGER"
+    ) Integer concurrency) throws Exception {
+        return executeBatch(operations, BatchOperation.Type.DELETE, concurrency);
+    }
+
+    @ThingworxServiceDefinition(
+            name = "BatchCreateFolder",
+            description = "Create many folders in parallel",
+            category = "Files"
+    )
+    @ThingworxServiceResult(
+            name = "result",
+            description = "Outcome of every operation",
+            baseType = "INFOTABLE",
+            aspects = {"dataShape:SftpBatchResult"}
+    )
+    public InfoTable BatchCreateFolder(@ThingworxServiceParameter(
+            name = "operations",
+            description = "Folders to create: path",
+            baseType = "INFOTABLE",
+            aspects = {"dataShape:SftpBatchOperation"}
+    ) InfoTable operations, @ThingworxServiceParameter(
+            name = "concurrency",
+            description = "Maximum number of operations executed at the same time. Uses all the channels if empty",
+            baseType = "INTEGER"
+    ) Integer concurrency) throws Exception {
+        return executeBatch(operations, BatchOperation.Type.CREATE_FOLDER, concurrency);
+    }
+
     @ThingworxServiceDefinition(
             name = "CreateFolder",
             description = "Create a folder",
@@ -288,6 +992,33 @@ public class SftpRepositoryThing extends Thing {
         return repository.getRepository().createFolder(path);
     }
 
+    @ThingworxServiceDefinition(
+            name = "DeleteFolder",
+            description = "Delete a folder with all its contents, deleting several files in parallel",
+            category = "Directories"
+    )
+    @ThingworxServiceResult(
+            name = "result",
+            description = "Deletion statistics",
+            baseType = "INFOTABLE",
+            aspects = {"dataShape:SftpDeleteResult"}
+    )
+    public InfoTable DeleteFolder(@ThingworxServiceParameter(
+            name = "path",
+            description = "Folder path",
+            baseType = "STRING"
+    ) String path) throws Exception {
+        DeleteResult result = repository.getRepository().deleteFolder(path);
+        InfoTable resultTable = InfoTableInstanceFactory.createInfoTableFromDataShape("SftpDeleteResult");
+        ValueCollection vc = new ValueCollection();
+        vc.put("path", new StringPrimitive(result.getPath()));
+        vc.put("files", new NumberPrimitive(result.getFiles()));
+        vc.put("directories", new NumberPrimitive(result.getDirectories()));
+        vc.put("duration", new NumberPrimitive(result.getDurationMillis()));
+        resultTable.addRow(vc);
+        return resultTable;
+    }
+
     @ThingworxServiceDefinition(
             name = "DownloadFile",
             description = "Download a FTP server file to a repository"
@@ -299,12 +1030,79 @@ public class SftpRepositoryThing extends Thing {
     ) String filePath, @ThingworxServiceParameter(
             name = "FileRepository",
             description = "File repository",
-            baseType = "THINGNAME") String fileRepository
+            baseType = "THINGNAME") String fileRepository, @ThingworxServiceParameter(
+            name = "Timeout",
+            description = "Time (milliseconds) the transfer may go without progress. Uses the configured value if empty",
+            baseType = "INTEGER") Integer timeout
     ) throws Exception {
         Thing thing = ThingUtilities.findThing(fileRepository);
         FileRepositoryThing fileRepoThing = (FileRepositoryThing) thing;
-        ByteArrayOutputStream bos = repository.getRepository().downloadFile(filePath);
-        fileRepoThing.CreateBinaryFile(new File(filePath).getAbsoluteFile().getName(), bos.toByteArray(), true);
+        downloadToRepository(getRepository(timeout), filePath, fileRepoThing);
+    }
+
+    /**
+     * Downloads a file to the root of a file repository. The file is written under a temporary name and only
+     * replaces an existing repository file once the download is complete
+     */
+    private void downloadToRepository(SftpRepository sftpRepository, String filePath,
+                                      FileRepositoryThing fileRepoThing) throws Exception {
+        String targetPath = new File(filePath).getAbsoluteFile().getName();
+        String partialPath = "." + targetPath + "." + UUID.randomUUID() + ".part";
+        try {
+            // stream straight into the repository file, so memory use does not depend on the file size
+            try (OutputStream out = new BufferedOutputStream(
+                    fileRepoThing.openFileForWrite(partialPath, FileRepositoryThing.FileMode.WRITE), TRANSFER_BUFFER_SIZE)) {
+                sftpRepository.downloadFile(filePath, out);
+            }
+            Path partialFile = getRepositoryFile(fileRepoThing, partialPath).toPath();
+            Path targetFile = getRepositoryFile(fileRepoThing, targetPath).toPath();
+            try {
+                Files.move(partialFile, targetFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(partialFile, targetFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (Exception e) {
+            // don't leave a partially downloaded file behind. The existing file, if any, was not touched
+            try {
+                fileRepoThing.DeleteFile(partialPath);
+            } catch (Exception deleteException) {
+                LOGGER.warn("Failed to remove partially downloaded file " + partialPath, deleteException);
+            }
+            throw e;
+        }
+    }
+
+    @ThingworxServiceDefinition(
+            name = "DownloadFileParallel",
+            description = "Download a large FTP server file to a repository, fetching byte ranges in parallel"
+    )
+    @ThingworxServiceResult(
+            name = "result",
+            description = "Transfer statistics",
+            baseType = "INFOTABLE",
+            aspects = {"dataShape:SftpTransferResult"}
+    )
+    public InfoTable DownloadFileParallel(@ThingworxServiceParameter(
+            name = "FilePath",
+            description = "Path to the file",
+            baseType = "STRING"
+    ) String filePath, @ThingworxServiceParameter(
+            name = "FileRepository",
+            description = "File repository",
+            baseType = "THINGNAME") String fileRepository, @ThingworxServiceParameter(
+            name = "Segments",
+            description = "Maximum number of parallel segments. Uses the configured value if empty",
+            baseType = "INTEGER") Integer segments, @ThingworxServiceParameter(
+            name = "Timeout",
+            description = "Time (milliseconds) the transfer may go without progress. Uses the configured value if empty",
+            baseType = "INTEGER") Integer timeout
+    ) throws Exception {
+        Thing thing = ThingUtilities.findThing(fileRepository);
+        FileRepositoryThing fileRepoThing = (FileRepositoryThing) thing;
+        File targetFile = getRepositoryFile(fileRepoThing, new File(filePath).getAbsoluteFile().getName());
+        int maxSegments = segments != null && segments > 0 ? segments : config.getParallelSegments();
+        return convertToInfotable(getRepository(timeout).downloadFile(filePath, targetFile, maxSegments,
+                config.getMinSegmentSize()));
     }
 
     @ThingworxServiceDefinition(
@@ -319,6 +1117,217 @@ public class SftpRepositoryThing extends Thing {
             name = "RemoteFilePath",
             description = "SFTP file path",
             baseType = "STRING"
+    ) String remotePath, @ThingworxServiceParameter(
+            name = "FileRepository",
+            description = "File repository",
+            baseType = "THINGNAME") String fileRepository, @ThingworxServiceParameter(
+            name = "Timeout",
+            description = "Time (milliseconds) the transfer may go without progress. Uses the configured value if empty",
+            baseType = "INTEGER") Integer timeout
+    ) throws Exception {
+        Thing thing = ThingUtilities.findThing(fileRepository);
+        FileRepositoryThing fileRepoThing = (FileRepositoryThing) thing;
+        uploadFromRepository(getRepository(timeout), repositoryPath, remotePath, fileRepoThing);
+    }
+
+    private void uploadFromRepository(SftpRepository sftpRepository, String repositoryPath, String remotePath,
+                                      FileRepositoryThing fileRepoThing) throws Exception {
+        // read the repository file as it is sent, instead of loading it in memory
+        try (InputStream in = fileRepoThing.openFileForRead(repositoryPath)) {
+            sftpRepository.uploadFile(in, remotePath);
+        }
+    }
+
+    @ThingworxServiceDefinition(
+            name = "QueueDownload",
+            description = "Queue the download of a FTP server file to a repository, and return right away. " +
+                    "The TransferJobFinished event fires when it ends",
+            category = "Transfers"
+    )
+    @ThingworxServiceResult(
+            name = "result",
+            description = "Id of the transfer job",
+            baseType = "STRING"
+    )
+    public String QueueDownload(@ThingworxServiceParameter(
+            name = "FilePath",
+            description = "Path to the file",
+            baseType = "STRING"
+    ) String filePath, @ThingworxServiceParameter(
+            name = "FileRepository",
+            description = "File repository",
+            baseType = "THINGNAME") String fileRepository, @ThingworxServiceParameter(
+            name = "Timeout",
+            description = "Time (milliseconds) the transfer may go without progress. Uses the configured value if empty",
+            baseType = "INTEGER") Integer timeout
+    ) throws Exception {
+        FileRepositoryThing fileRepoThing = (FileRepositoryThing) ThingUtilities.findThing(fileRepository);
+        SftpRepository sftpRepository = getRepository(timeout);
+        String target = fileRepository + ":" + new File(filePath).getAbsoluteFile().getName();
+        return queueTransfer("download", filePath, target,
+                progress -> downloadToRepository(sftpRepository.withProgress(progress), filePath, fileRepoThing));
+    }
+
+    @ThingworxServiceDefinition(
+            name = "QueueUpload",
+            description = "Queue the upload of a file from a repository to the SFTP Server, and return right away. " +
+                    "The TransferJobFinished event fires when it ends",
+            category = "Transfers"
+    )
+    @ThingworxServiceResult(
+            name = "result",
+            description = "Id of the transfer job",
+            baseType = "STRING"
+    )
+    public String QueueUpload(@ThingworxServiceParameter(
+            name = "RepoFilePath",
+            description = "Path of Repository File",
+            baseType = "STRING"
+    ) String repositoryPath, @ThingworxServiceParameter(
+            name = "RemoteFilePath",
+            description = "SFTP file path",
+            baseType = "STRING"
+    ) String remotePath, @ThingworxServiceParameter(
+            name = "FileRepository",
+            description = "File repository",
+            baseType = "THINGNAME") String fileRepository, @ThingworxServiceParameter(
+            name = "Timeout",
+            description = "Time (milliseconds) the transfer may go without progress. Uses the configured value if empty",
+            baseType = "INTEGER") Integer timeout
+    ) throws Exception {
+        FileRepositoryThing fileRepoThing = (FileRepositoryThing) ThingUtilities.findThing(fileRepository);
+        SftpRepository sftpRepository = getRepository(timeout);
+        return queueTransfer("upload", fileRepository + ":" + repositoryPath, remotePath, progress -> {
+            progress.setTotal(getRepositoryFile(fileRepoThing, repositoryPath).length());
+            uploadFromRepository(sftpRepository.withProgress(progress), repositoryPath, remotePath, fileRepoThing);
+        });
+    }
+
+    @ThingworxServiceDefinition(
+            name = "GetJobStatus",
+            description = "Get the status and progress of a queued transfer",
+            category = "Transfers"
+    )
+    @ThingworxServiceResult(
+            name = "result",
+            description = "Status of the transfer",
+            baseType = "INFOTABLE",
+            aspects = {"dataShape:SftpTransferJob"}
+    )
+    public InfoTable GetJobStatus(@ThingworxServiceParameter(
+            name = "JobId",
+            description = "Id returned when the transfer was queued",
+            baseType = "STRING"
+    ) String jobId) throws Exception {
+        TransferJob job = transferQueue.getJob(jobId);
+        if (job == null) {
+            throw new SftpException("Unknown transfer job " + jobId);
+        }
+        return convertToInfotable(job);
+    }
+
+    @ThingworxServiceDefinition(
+            name = "CancelJob",
+            description = "Cancel a queued transfer. A running transfer stops at the next chunk of data",
+            category = "Transfers"
+    )
+    @ThingworxServiceResult(
+            name = "result",
+            description = "True if the transfer was still queued or running",
+            baseType = "BOOLEAN"
+    )
+    public Boolean CancelJob(@ThingworxServiceParameter(
+            name = "JobId",
+            description = "Id returned when the transfer was queued",
+            baseType = "STRING"
+    ) String jobId) throws Exception {
+        return transferQueue.cancel(jobId);
+    }
+
+    @ThingworxServiceDefinition(
+            name = "UploadFileParallel",
+            description = "Upload a large file from a repository to the SFTP Server, writing byte ranges in parallel"
+    )
+    @ThingworxServiceResult(
+            name = "result",
+            description = "Transfer statistics",
+            baseType = "INFOTABLE",
+            aspects = {"dataShape:SftpTransferResult"}
+    )
+    public InfoTable UploadFileParallel(@ThingworxServiceParameter(
+            name = "RepoFilePath",
+            description = "Path of Repository File",
+            baseType = "STRING"
+    ) String repositoryPath, @ThingworxServiceParameter(
+            name = "RemoteFilePath",
+            description = "SFTP file path",
+            baseType = "STRING"
+    ) String remotePath, @ThingworxServiceParameter(
+            name = "FileRepository",
+            description = "File repository",
+            baseType = "THINGNAME") String fileRepository, @ThingworxServiceParameter(
+            name = "Segments",
+            description = "Maximum number of parallel segments. Uses the configured value if empty",
+            baseType = "INTEGER") Integer segments, @ThingworxServiceParameter(
+            name = "Timeout",
+            description = "Time (milliseconds) the transfer may go without progress. Uses the configured value if empty",
+            baseType = "INTEGER") Integer timeout
+    ) throws Exception {
+        Thing thing = ThingUtilities.findThing(fileRepository);
+        FileRepositoryThing fileRepoThing = (FileRepositoryThing) thing;
+        File sourceFile = getRepositoryFile(fileRepoThing, repositoryPath);
+        if (!sourceFile.isFile()) {
+            throw new SftpException("Repository file " + repositoryPath + " does not exist");
+        }
+        int maxSegments = segments != null && segments > 0 ? segments : config.getParallelSegments();
+        return convertToInfotable(getRepository(timeout).uploadFile(sourceFile, remotePath, maxSegments,
+                config.getMinSegmentSize()));
+    }
+
+    @ThingworxServiceDefinition(
+            name = "DownloadFileResumable",
+            description = "Download a FTP server file to a repository, continuing a previously interrupted download"
+    )
+    @ThingworxServiceResult(
+            name = "result",
+            description = "Transfer statistics",
+            baseType = "INFOTABLE",
+            aspects = {"dataShape:SftpTransferResult"}
+    )
+    public InfoTable DownloadFileResumable(@ThingworxServiceParameter(
+            name = "FilePath",
+            description = "Path to the file",
+            baseType = "STRING"
+    ) String filePath, @ThingworxServiceParameter(
+            name = "FileRepository",
+            description = "File repository",
+            baseType = "THINGNAME") String fileRepository
+    ) throws Exception {
+        Thing thing = ThingUtilities.findThing(fileRepository);
+        FileRepositoryThing fileRepoThing = (FileRepositoryThing) thing;
+        File targetFile = getRepositoryFile(fileRepoThing, new File(filePath).getAbsoluteFile().getName());
+        return convertToInfotable(repository.getRepository().downloadFileResumable(filePath, targetFile,
+                config.getTransferRetries()));
+    }
+
+    @ThingworxServiceDefinition(
+            name = "UploadFileResumable",
+            description = "Upload a file from a repository to the SFTP Server, continuing a previously interrupted upload"
+    )
+    @ThingworxServiceResult(
+            name = "result",
+            description = "Transfer statistics",
+            baseType = "INFOTABLE",
+            aspects = {"dataShape:SftpTransferResult"}
+    )
+    public InfoTable UploadFileResumable(@ThingworxServiceParameter(
+            name = "RepoFilePath",
+            description = "Path of Repository File",
+            baseType = "STRING"
+    ) String repositoryPath, @ThingworxServiceParameter(
+            name = "RemoteFilePath",
+            description = "SFTP file path",
+            baseType = "STRING"
     ) String remotePath, @ThingworxServiceParameter(
             name = "FileRepository",
             description = "File repository",
@@ -326,9 +1335,469 @@ public class SftpRepositoryThing extends Thing {
     ) throws Exception {
         Thing thing = ThingUtilities.findThing(fileRepository);
         FileRepositoryThing fileRepoThing = (FileRepositoryThing) thing;
+        File sourceFile = getRepositoryFile(fileRepoThing, repositoryPath);
+        if (!sourceFile.isFile()) {
+            throw new SftpException("Repository file " + repositoryPath + " does not exist");
+        }
+        return convertToInfotable(repository.getRepository().uploadFileResumable(sourceFile, remotePath,
+                config.getTransferRetries()));
+    }
+
+    @ThingworxServiceDefinition(
+            name = "SyncFromRemote",
+            description = "Copy the new and changed files of a SFTP server directory to a repository directory",
+            category = "Transfers"
+    )
+    @ThingworxServiceResult(
+            name = "result",
+            description = "Synchronization statistics",
+            baseType = "INFOTABLE",
+            aspects = {"dataShape:SftpSyncResult"}
+    )
+    public InfoTable SyncFromRemote(@ThingworxServiceParameter(
+            name = "RemotePath",
+            description = "SFTP directory to copy from",
+            baseType = "STRING"
+    ) String remotePath, @ThingworxServiceParameter(
+            name = "RepoPath",
+            description = "Repository directory to copy to. Uses the root of the repository if empty",
+            baseType = "STRING"
+    ) String repositoryPath, @ThingworxServiceParameter(
+            name = "FileRepository",
+            description = "File repository",
+            baseType = "THINGNAME") String fileRepository, @ThingworxServiceParameter(
+            name = "DeleteMissing",
+            description = "Also delete the repository files that were removed from the SFTP directory since the last sync",
+            baseType = "BOOLEAN",
+            aspects = {"defaultValue:false"}) Boolean deleteMissing, @ThingworxServiceParameter(
+            name = "Concurrency",
+            description = "Maximum number of files copied at the same time. Uses all the channels if empty",
+            baseType = "INTEGER") Integer concurrency
+    ) throws Exception {
+        Thing thing = ThingUtilities.findThing(fileRepository);
+        FileRepositoryThing fileRepoThing = (FileRepositoryThing) thing;
+        File localDirectory = getRepositoryFile(fileRepoThing, repositoryPath != null ? repositoryPath : "");
+        File manifestFile = getManifestFile(localDirectory, "from", remotePath);
+        SyncManifest manifest = SyncManifest.load(manifestFile);
+        SyncResult result = repository.getRepository().syncFromRemote(remotePath, localDirectory, manifest,
+                Boolean.TRUE.equals(deleteMissing), concurrency != null ? concurrency : 0);
+        manifest.save(manifestFile);
+        return convertToInfotable(result);
+    }
+
+    @ThingworxServiceDefinition(
+            name = "SyncToRemote",
+            description = "Copy the new and changed files of a repository directory to a SFTP server directory",
+            category = "Transfers"
+    )
+    @ThingworxServiceResult(
+            name = "result",
+            description = "Synchronization statistics",
+            baseType = "INFOTABLE",
+            aspects = {"dataShape:SftpSyncResult"}
+    )
+    public InfoTable SyncToRemote(@ThingworxServiceParameter(
+            name = "RepoPath",
+            description = "Repository directory to copy from. Uses the root of the repository if empty",
+            baseType = "STRING"
+    ) String repositoryPath, @ThingworxServiceParameter(
+            name = "RemotePath",
+            description = "SFTP directory to copy to",
+            baseType = "STRING"
+    ) String remotePath, @ThingworxServiceParameter(
+            name = "FileRepository",
+            description = "File repository",
+            baseType = "THINGNAME") String fileRepository, @ThingworxServiceParameter(
+            name = "DeleteMissing",
+            description = "Also delete the SFTP files that were removed from the repository directory since the last sync",
+            baseType = "BOOLEAN",
+            aspects = {"defaultValue:false"}) Boolean deleteMissing, @ThingworxServiceParameter(
+            name = "Concurrency",
+            description = "Maximum number of files copied at the same time. Uses all the channels if empty",
+            baseType = "INTEGER") Integer concurrency
+    ) throws Exception {
+        Thing thing = ThingUtilities.findThing(fileRepository);
+        FileRepositoryThing fileRepoThing = (FileRepositoryThing) thing;
+        File localDirectory = getRepositoryFile(fileRepoThing, repositoryPath != null ? repositoryPath : "");
+        File manifestFile = getManifestFile(localDirectory, "to", remotePath);
+        SyncManifest manifest = SyncManifest.load(manifestFile);
+        SyncResult result = repository.getRepository().syncToRemote(localDirectory, remotePath, manifest,
+                Boolean.TRUE.equals(deleteMissing), concurrency != null ? concurrency : 0);
+        manifest.save(manifestFile);
+        return convertToInfotable(result);
+    }
+
+    @ThingworxServiceDefinition(
+            name = "GetStatistics",
+            description = "Get the number of calls, failures and latency percentiles of every operation, " +
+                    "including opening connections and waiting for a free channel",
+            category = "Statistics"
+    )
+    @ThingworxServiceResult(
+            name = "result",
+            description = "Statistics per operation",
+            baseType = "INFOTABLE",
+            aspects = {"dataShape:SftpOperationStatistics"}
+    )
+    public InfoTable GetStatistics() throws Exception {
+        InfoTable result = InfoTableInstanceFactory.createInfoTableFromDataShape("SftpOperationStatistics");
+        for (Map.Entry<String, SftpMetrics.OperationMetrics> entry : repository.getMetrics().getOperations().entrySet()) {
+            LatencyHistogram latency = entry.getValue().getLatency();
+            ValueCollection vc = new ValueCollection();
+            vc.put("operation", new StringPrimitive(entry.getKey()));
+            vc.put("calls", new NumberPrimitive(entry.getValue().getCalls()));
+            vc.put("errors", new NumberPrimitive(entry.getValue().getErrors()));
+            vc.put("mean", new NumberPrimitive(latency.getMean()));
+            vc.put("p50", new NumberPrimitive(latency.getPercentile(50)));
+            vc.put("p95", new NumberPrimitive(latency.getPercentile(95)));
+            vc.put("p99", new NumberPrimitive(latency.getPercentile(99)));
+            vc.put("max", new NumberPrimitive(latency.getMax()));
+            result.addRow(vc);
+        }
+        updateStatistics();
+        return result;
+    }
+
+    @ThingworxServiceDefinition(
+            name = "BenchmarkConnection",
+            description = "Measure the handshake time and the upload and download rates of the server with " +
+                    "several sets of ssh algorithms, to find the fastest one for the AlgorithmSettings",
+            category = "Statistics"
+    )
+    @ThingworxServiceResult(
+            name = "result",
+            description = "Measures of every profile",
+            baseType = "INFOTABLE",
+            aspects = {"dataShape:SftpConnectionBenchmark"}
+    )
+    public InfoTable BenchmarkConnection(@ThingworxServiceParameter(
+            name = "RemoteDirectory",
+            description = "Directory where a test file is written, then deleted",
+            baseType = "STRING"
+    ) String remoteDirectory, @ThingworxServiceParameter(
+            name = "Profiles",
+            description = "Algorithms to compare. Compares a set of common ones, and the configured one, if empty",
+            baseType = "INFOTABLE",
+            aspects = {"dataShape:SftpAlgorithmProfile"}
+    ) InfoTable profiles, @ThingworxServiceParameter(
+            name = "TestSize",
+            description = "Size of the test file in bytes",
+            baseType = "INTEGER",
+            aspects = {"defaultValue:8388608"}
+    ) Integer testSize, @ThingworxServiceParameter(
+            name = "Compressible",
+            description = "Test with text, that compresses well, instead of random bytes",
+            baseType = "BOOLEAN",
+            aspects = {"defaultValue:false"}
+    ) Boolean compressible) throws Exception {
+        List<AlgorithmProfile> candidates = new ArrayList<>();
+        if (profiles != null && profiles.getRowCount() > 0) {
+            for (ValueCollection row : profiles.getRows()) {
+                candidates.add(new AlgorithmProfile(row.getStringValue("name"), row.getStringValue("ciphers"),
+                        row.getStringValue("macs"), row.getStringValue("keyExchange"),
+                        row.getStringValue("compression")));
+            }
+        } else {
+            candidates.add(new AlgorithmProfile("configured", config.getCiphers(), config.getMacs(),
+                    config.getKeyExchange(), config.getCompression()));
+            candidates.addAll(AlgorithmProfile.getCandidates());
+        }
+        ConnectionBenchmark benchmark = new ConnectionBenchmark(config, remoteDirectory,
+                testSize != null && testSize > 0 ? testSize : 8 * 1024 * 1024, Boolean.TRUE.equals(compressible));
+        InfoTable result = InfoTableInstanceFactory.createInfoTableFromDataShape("SftpConnectionBenchmark");
+        for (BenchmarkResult measure : benchmark.run(candidates)) {
+            AlgorithmProfile profile = measure.getProfile();
+            ValueCollection vc = new ValueCollection();
+            vc.put("name", new StringPrimitive(profile.getName()));
+            vc.put("ciphers", new StringPrimitive(profile.getCiphers()));
+            vc.put("macs", new StringPrimitive(profile.getMacs()));
+            vc.put("keyExchange", new StringPrimitive(profile.getKeyExchange()));
+            vc.put("compression", new StringPrimitive(profile.getCompression()));
+            vc.put("handshakeTime", new NumberPrimitive(measure.getHandshakeMillis()));
+            vc.put("uploadRate", new NumberPrimitive(measure.getUploadRate()));
+            vc.put("downloadRate", new NumberPrimitive(measure.getDownloadRate()));
+            vc.put("error", new StringPrimitive(measure.getError()));
+            result.addRow(vc);
+        }
+        return result;
+    }
+
+    /**
+     * Resolves a path of a file repository to a file on disk, making sure it does not point outside the repository
+     */
+    private File getRepositoryFile(FileRepositoryThing fileRepoThing, String path) throws Exception {
+        File root = new File(fileRepoThing.getRootPath()).getCanonicalFile();
+        File file = new File(root, path).getCanonicalFile();
+        if (!file.toPath().startsWith(root.toPath())) {
+            throw new SftpException("Path " + path + " is outside of the file repository");
+        }
+        return file;
+    }
+
+    /**
+     * Manifests are kept in the synchronized directory, one for every thing, direction and remote directory
+     */
+    private File getManifestFile(File localDirectory, String direction, String remotePath) {
+        String remote = remotePath.length() > 1 && remotePath.endsWith("/")
+                ? remotePath.substring(0, remotePath.length() - 1) : remotePath;
+        return new File(new File(localDirectory, SyncManifest.DIRECTORY), String.format("%s-%s-%08x.properties",
+                getName(), direction, remote.hashCode()));
+    }
+
+    private InfoTable convertToInfotable(TransferJob job) throws Exception {
+        InfoTable resultTable = InfoTableInstanceFactory.createInfoTableFromDataShape("SftpTransferJob");
+        TransferProgress progress = job.getProgress();
+        ValueCollection vc = new ValueCollection();
+        vc.put("id", new StringPrimitive(job.getId()));
+        vc.put("type", new StringPrimitive(job.getType()));
+        vc.put("source", new StringPrimitive(job.getSource()));
+        vc.put("target", new StringPrimitive(job.getTarget()));
+        vc.put("status", new StringPrimitive(job.getStatus().name()));
+        vc.put("bytes", new NumberPrimitive(progress.getBytes()));
+        vc.put("totalBytes", new NumberPrimitive(progress.getTotal()));
+        vc.put("rate", new NumberPrimitive(progress.getRate()));
+        vc.put("error", new StringPrimitive(job.getError()));
+        vc.put("queued", new DatetimePrimitive(job.getQueuedAt()));
+        if (job.getStartedAt() > 0) {
+            vc.put("started", new DatetimePrimitive(job.getStartedAt()));
+        }
+        if (job.getFinishedAt() > 0) {
+            vc.put("finished", new DatetimePrimitive(job.getFinishedAt()));
+        }
+        resultTable.addRow(vc);
+        return resultTable;
+    }
+
+    private InfoTable convertToInfotable(SyncResult result) throws Exception {
+        InfoTable resultTable = InfoTableInstanceFactory.createInfoTableFromDataShape("SftpSyncResult");
+        ValueCollection vc = new ValueCollection();
+        vc.put("path", new StringPrimitive(result.getPath()));
+        vc.put("transferred", new NumberPrimitive(result.getTransferred()));
+        vc.put("unchanged", new NumberPrimitive(result.getUnchanged()));
+        vc.put("deleted", new NumberPrimitive(result.getDeleted()));
+        vc.put("failed", new NumberPrimitive(result.getErrors().size()));
+        vc.put("errors", new StringPrimitive(String.join("\n", result.getErrors())));
+        vc.put("bytes", new NumberPrimitive(result.getBytes()));
+        vc.put("duration", new NumberPrimitive(result.getDurationMillis()));
+        resultTable.addRow(vc);
+        return resultTable;
+    }
+
+    private InfoTable convertToInfotable(TransferResult result) throws Exception {
+        InfoTable resultTable = InfoTableInstanceFactory.createInfoTableFromDataShape("SftpTransferResult");
+        ValueCollection vc = new ValueCollection();
+        vc.put("path", new StringPrimitive(result.getPath()));
+        vc.put("bytes", new NumberPrimitive(result.getBytes()));
+        vc.put("duration", new NumberPrimitive(result.getDurationMillis()));
+        vc.put("throughput", new NumberPrimitive(result.getThroughput()));
+        vc.put("segments", new NumberPrimitive(result.getSegments()));
+        resultTable.addRow(vc);
+        return resultTable;
+    }
+
+    private InfoTable executeBatch(InfoTable operations, BatchOperation.Type type, Integer concurrency)
+            throws Exception {
+        List<BatchOperation> batch = new ArrayList<>(operations.getRowCount());
+        for (ValueCollection row : operations.getRows()) {
+            Object overwrite = row.getValue("overwrite");
+            batch.add(new BatchOperation(type, row.getStringValue("path"), row.getStringValue("target"),
+                    Boolean.TRUE.equals(overwrite)));
+        }
+        List<BatchResult> results = repository.getRepository().executeBatch(batch,
+                concurrency != null ? concurrency : 0);
+        InfoTable resultTable = InfoTableInstanceFactory.createInfoTableFromDataShape("SftpBatchResult");
+        for (BatchResult result : results) {
+            ValueCollection vc = new ValueCollection();
+            vc.put("path", new StringPrimitive(result.getOperation().getPath()));
+            vc.put("target", new StringPrimitive(result.getOperation().getTarget()));
+            vc.put("success", new BooleanPrimitive(result.isSuccess()));
+            vc.put("error", new StringPrimitive(result.getError()));
+            vc.put("duration", new NumberPrimitive(result.getDurationMillis()));
+            resultTable.addRow(vc);
+        }
+        return resultTable;
+    }
+
+    /**
+     * Creates a listing filter from optional service parameters
+     */
+    private static ListingFilter createFilter(DateTime modifiedAfter, DateTime modifiedBefore, Double minSize,
+                                              Double maxSize) {
+        ListingFilter filter = new ListingFilter();
+        if (modifiedAfter != null) {
+            filter.setModifiedAfter(modifiedAfter.getMillis());
+        }
+        if (modifiedBefore != null) {
+            filter.setModifiedBefore(modifiedBefore.getMillis());
+        }
+        if (minSize != null) {
+            filter.setMinSize(minSize.longValue());
+        }
+        if (maxSize != null) {
+            filter.setMaxSize(maxSize.longValue());
+        }
+        return filter;
+    }
+
+    /**
+     * Publishes the cache hit and miss counters as properties
+     */
+    private void updateCacheStatistics() throws Exception {
+        CachingSftpRepository cache = repository.getCache();
+        if (cache != null) {
+            this.setPropertyValue("CacheHits", new NumberPrimitive(cache.getHits()));
+            this.setPropertyValue("CacheMisses", new NumberPrimitive(cache.getMisses()));
+        }
+    }
+
+    /**
+     * @return the repository, using the given timeout instead of the configured ones if it's set
+     */
+    private SftpRepository getRepository(Integer timeout) throws SftpException {
+        SftpRepository sftpRepository = repository.getRepository();
+        return timeout != null && timeout > 0 ? sftpRepository.withTimeout(timeout) : sftpRepository;
+    }
+
+    /**
+     * Publishes the counters and the channel usage as properties, so they can be logged and subscribed to
+     */
+    private void updateStatistics() throws Exception {
+        SftpMetrics metrics = repository.getMetrics();
+        this.setPropertyValue("OperationCount", new NumberPrimitive(metrics.getCalls()));
+        this.setPropertyValue("ErrorCount", new NumberPrimitive(metrics.getErrors()));
+        this.setPropertyValue("BytesUploaded", new NumberPrimitive(metrics.getBytesUploaded()));
+        this.setPropertyValue("BytesDownloaded", new NumberPrimitive(metrics.getBytesDownloaded()));
+        this.setPropertyValue("OpenChannels", new NumberPrimitive(repository.getOpenChannels()));
+        this.setPropertyValue("BusyChannels", new NumberPrimitive(repository.getBusyChannels()));
+        this.setPropertyValue("ChannelUtilization",
+                new NumberPrimitive(100.0 * repository.getBusyChannels() / Math.max(1, repository.getMaxChannels())));
+        this.setPropertyValue("MetadataBusyChannels",
+                new NumberPrimitive(repository.getBusyChannels(SftpChannelPool.Lane.METADATA)));
+        this.setPropertyValue("MetadataQueueDepth",
+                new NumberPrimitive(repository.getWaitingBorrowers(SftpChannelPool.Lane.METADATA)));
+        this.setPropertyValue("TransferBusyChannels",
+                new NumberPrimitive(repository.getBusyChannels(SftpChannelPool.Lane.TRANSFER)));
+        this.setPropertyValue("TransferQueueDepth",
+                new NumberPrimitive(repository.getWaitingBorrowers(SftpChannelPool.Lane.TRANSFER)));
+        this.setPropertyValue("TransferRate", new NumberPrimitive(repository.getTransferRate()));
+        this.setPropertyValue("EndpointTransferRate", new NumberPrimitive(repository.getEndpointTransferRate()));
+        this.setPropertyValue("GlobalTransferRate", new NumberPrimitive(repository.getGlobalTransferRate()));
+        this.setPropertyValue("QueuedTransfers", new NumberPrimitive(transferQueue.getQueued()));
+        this.setPropertyValue("RunningTransfers", new NumberPrimitive(transferQueue.getRunning()));
+    }
+
+    /**
+     * Refreshes the status properties. Runs on the shared scheduler, outside of any request
+     */
+    private void updateStatus() {
+        ThreadLocalContext.setSecurityContext(SecurityContext.createSuperUserContext());
+        try {
+            this.setPropertyValue("CircuitState", new StringPrimitive(repository.getCircuitState().name()));
+            updateCacheStatistics();
+            updateStatistics();
+        } catch (Exception e) {
+            LOGGER.warn("Failed to update the status of " + getName(), e);
+        } finally {
+            ThreadLocalContext.clearSecurityContext();
+        }
+    }
+
+    /**
+     * Starts polling the directories of the WatchedDirectories configuration table
+     */
+    private void startWatchers() throws SftpException {
+        InfoTable watched = this.getConfigurationTable(WATCH_SETTINGS_TABLE);
+        if (watched == null) {
+            return;
+        }
+        for (ValueCollection row : watched.getRows()) {
+            String path = row.getStringValue("path");
+            if (path == null || path.isEmpty()) {
+                continue;
+            }
+            ListingFilter filter = new ListingFilter();
+            filter.setGlob(row.getStringValue("pattern"));
+            Object pollInterval = row.getValue("pollInterval");
+            Object stableTime = row.getValue("stableTime");
+            DirectoryWatcher watcher = new DirectoryWatcher(repository.getRepository(), path, filter,
+                    stableTime instanceof Number ? ((Number) stableTime).longValue() : 0, this::dispatchFileEvent);
+            watchTasks.add(SftpScheduler.scheduleWithFixedDelay(watcher::poll,
+                    pollInterval instanceof Number ? Math.max(1000, ((Number) pollInterval).longValue()) : 10000));
+            LOGGER.info(String.format("Watching %s on %s for changes", path, getName()));
+        }
+    }
+
+    /**
+     * Queues a transfer that runs with the permissions of the caller
+     *
+     * @return the id of the job
+     */
+    private String queueTransfer(String type, String source, String target, TransferQueue.Transfer transfer)
+            throws SftpException {
+        SecurityContext securityContext = ThreadLocalContext.getSecurityContext();
+        return transferQueue.submit(type, source, target, progress -> {
+            ThreadLocalContext.setSecurityContext(securityContext);
+            try {
+                transfer.run(progress);
+            } finally {
+                ThreadLocalContext.clearSecurityContext();
+            }
+        }).getId();
+    }
+
+    /**
+     * Fires the event of a finished transfer job. Runs on the worker thread, outside of any request
+     */
+    private void dispatchJobEvent(TransferJob job) throws Exception {
+        dispatchEvent("TransferJobFinished", convertToInfotable(job));
+    }
+
+    /**
+     * Fires the event of a change in a watched directory. Runs on the polling thread, outside of any request
+     */
+    private void dispatchFileEvent(DirectoryWatcher.Change change, String path, long size, long modified)
+            throws Exception {
+        InfoTable data = InfoTableInstanceFactory.createInfoTableFromDataShape("SftpFileChange");
+        ValueCollection vc = new ValueCollection();
+        vc.put("path", new StringPrimitive(path));
+        vc.put("name", new StringPrimitive(path.substring(path.lastIndexOf('/') + 1)));
+        vc.put("size", new NumberPrimitive(size));
+        vc.put("lastModifiedDate", new DatetimePrimitive(modified));
+        data.addRow(vc);
+        dispatchEvent(change == DirectoryWatcher.Change.ADDED ? "FileAdded"
+                : change == DirectoryWatcher.Change.MODIFIED ? "FileModified" : "FileRemoved", data);
+    }
+
+    /**
+     * Fires an event from a background thread
+     */
+    private void dispatchEvent(String name, InfoTable data) throws Exception {
+        ThreadLocalContext.setSecurityContext(SecurityContext.createSuperUserContext());
+        try {
+            ThingworxEvent event = new ThingworxEvent();
+            event.setTraceActive(ThreadLocalContext.isTraceActive());
+            event.setSecurityContext(ThreadLocalContext.getSecurityContext());
+            event.setSource(getName());
+            event.setEventName(name);
+            event.setEventData(data);
+            this.dispatchBackgroundEvent(event);
+        } finally {
+            ThreadLocalContext.clearSecurityContext();
+        }
+    }
+
+    /**
+     * Reads an integer configuration setting, falling back to a default for things created
+     * before the setting was introduced
+     */
+    private int getIntegerSetting(String table, String name, int defaultValue) {
+        Object value = this.getConfigurationSetting(table, name);
+        return value instanceof Number ? ((Number) value).intValue() : defaultValue;
+    }
 
-        ByteArrayInputStream bis = new ByteArrayInputStream(fileRepoThing.LoadBinary(repositoryPath));
-        repository.getRepository().uploadFile(bis, remotePath);
+    private boolean getBooleanSetting(String table, String name, boolean defaultValue) {
+        Object value = this.getConfigurationSetting(table, name);
+        return value instanceof Boolean ? (Boolean) value : defaultValue;
     }
 
     private InfoTable convertToInfotable(FileSystemFile file) throws Exception {
@@ -0,0 +1,69 @@
+package com.thingworx.extensions.sftpExtension;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A small pool of threads shared by all the sftp things, for their periodic housekeeping tasks.
+ * Periodic tasks that wait for the server, like polling a directory, run on a separate pool,
+ * so that a slow server never delays the housekeeping, like expiring the deadlines of stalled operations.
+ * Connections opened in the background, which block until the handshake is done or times out, get a pool
+ * of their own for the same reason.
+ */
+public final class SftpScheduler {
+    private static final int THREADS = 2;
+    private static final int POLLER_THREADS = 4;
+    private static final int CONNECTOR_THREADS = 4;
+    private static final ScheduledThreadPoolExecutor EXECUTOR = createExecutor(THREADS, "SftpSchedulerThread");
+    private static final ScheduledThreadPoolExecutor POLLER = createExecutor(POLLER_THREADS, "SftpPollerThread");
+    private static final ScheduledThreadPoolExecutor CONNECTOR = createExecutor(CONNECTOR_THREADS, "SftpConnectThread");
+
+    private SftpScheduler() {
+    }
+
+    /**
+     * Runs a task periodically until the returned future is cancelled
+     *
+     * @param task   the task to run. It should not throw exceptions, as that stops further runs
+     * @param period time (milliseconds) between two runs
+     * @return the handle used to cancel the task
+     */
+    public static ScheduledFuture<?> scheduleAtFixedRate(Runnable task, long period) {
+        return EXECUTOR.scheduleAtFixedRate(task, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs a task that calls the server periodically, until the returned future is cancelled.
+     * The interval is counted from the end of a run, so runs never pile up behind a slow server
+     *
+     * @param task     the task to run. It should not throw exceptions, as that stops further runs
+     * @param interval time (milliseconds) between the end of a run and the start of the next
+     * @return the handle used to cancel the task
+     */
+    public static ScheduledFuture<?> scheduleWithFixedDelay(Runnable task, long interval) {
+        return POLLER.scheduleWithFixedDelay(task, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs a task that connects to the server once, after a delay
+     *
+     * @param task  the task to run. It may block until the connection timeout
+     * @param delay time (milliseconds) to wait before running it
+     * @return the handle used to cancel the task
+     */
+    public static ScheduledFuture<?> scheduleConnect(Runnable task, long delay) {
+        return CONNECTOR.schedule(task, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private static ScheduledThreadPoolExecutor createExecutor(int threads, String name) {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(threads, runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        // cancelled tasks of stopped things should not linger in the queue
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+}
@@ -0,0 +1,141 @@
+package com.thingworx.extensions.sftpExtension;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * State of a synchronized directory after the last sync: the size of every file, and its modification time
+ * on both sides. A file whose size and modification times still match on both sides did not change since,
+ * and is not transferred again. Files are identified by their path relative to the synchronized directory,
+ * with / as separator.
+ */
+public class SyncManifest {
+    /**
+     * Name of the directories where manifests are kept. They are never synchronized themselves
+     */
+    public static final String DIRECTORY = ".sftpsync";
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Loads a manifest saved by {@link #save(File)}
+     *
+     * @return the manifest, or an empty one if there was no sync before or the manifest is unreadable
+     */
+    public static SyncManifest load(File file) {
+        SyncManifest manifest = new SyncManifest();
+        if (!file.isFile()) {
+            return manifest;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+            for (String path : properties.stringPropertyNames()) {
+                String[] values = properties.getProperty(path).split(",");
+                manifest.put(path, Long.parseLong(values[0]), Long.parseLong(values[1]), Long.parseLong(values[2]));
+            }
+            return manifest;
+        } catch (IOException | RuntimeException e) {
+            // everything gets compared again, which only costs transfers
+            return new SyncManifest();
+        }
+    }
+
+    /**
+     * Writes the manifest next to the given file first, and then replaces it, so that an interrupted
+     * save leaves the previous manifest intact
+     */
+    public void save(File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Cannot create directory " + parent);
+        }
+        Properties properties = new Properties();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            Entry value = entry.getValue();
+            properties.setProperty(entry.getKey(), value.size + "," + value.remoteModified + "," + value.localModified);
+        }
+        File temporary = new File(file.getPath() + ".tmp");
+        try (OutputStream out = new FileOutputStream(temporary)) {
+            properties.store(out, "sftp sync manifest");
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * @return the state of a file after the last sync, or null if it was not synchronized
+     */
+    public Entry get(String path) {
+        return entries.get(path);
+    }
+
+    /**
+     * Records the state of a file that is now the same on both sides
+     *
+     * @param path           path relative to the synchronized directory
+     * @param size           size in bytes
+     * @param remoteModified modification time of the remote file (epoch milliseconds)
+     * @param localModified  modification time of the local file (epoch milliseconds)
+     */
+    public void put(String path, long size, long remoteModified, long localModified) {
+        entries.put(path, new Entry(size, remoteModified, localModified));
+    }
+
+    public void remove(String path) {
+        entries.remove(path);
+    }
+
+    public Set<String> getPaths() {
+        return new HashSet<>(entries.keySet());
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * State of a single file after the last sync
+     */
+    public static class Entry {
+        private final long size;
+        private final long remoteModified;
+        private final long localModified;
+
+        private Entry(long size, long remoteModified, long localModified) {
+            this.size = size;
+            this.remoteModified = remoteModified;
+            this.localModified = localModified;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getRemoteModified() {
+            return remoteModified;
+        }
+
+        public long getLocalModified() {
+            return localModified;
+        }
+
+        /**
+         * @return true if neither the remote nor the local file changed since the last sync
+         */
+        public boolean matches(long remoteSize, long remoteModified, long localSize, long localModified) {
+            return remoteSize == size && localSize == size && remoteModified == this.remoteModified
+                    && localModified == this.localModified;
+        }
+    }
+}
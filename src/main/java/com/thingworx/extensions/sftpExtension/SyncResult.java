@@ -0,0 +1,70 @@
+package com.thingworx.extensions.sftpExtension;
+
+import java.util.List;
+
+/**
+ * An POJO representation of the SftpSyncResult Thingworx datashape
+ */
+public class SyncResult {
+    private final String path;
+    private final int transferred;
+    private final int unchanged;
+    private final int deleted;
+    private final List<String> errors;
+    private final long bytes;
+    private final long durationMillis;
+
+    public SyncResult(String path, int transferred, int unchanged, int deleted, List<String> errors, long bytes,
+                      long durationMillis) {
+        this.path = path;
+        this.transferred = transferred;
+        this.unchanged = unchanged;
+        this.deleted = deleted;
+        this.errors = errors;
+        this.bytes = bytes;
+        this.durationMillis = durationMillis;
+    }
+
+    /**
+     * @return the remote directory that was synchronized
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return number of new or changed files copied
+     */
+    public int getTransferred() {
+        return transferred;
+    }
+
+    /**
+     * @return number of files that were the same on both sides, and were not copied
+     */
+    public int getUnchanged() {
+        return unchanged;
+    }
+
+    /**
+     * @return number of files deleted because they were removed from the source since the last sync
+     */
+    public int getDeleted() {
+        return deleted;
+    }
+
+    /**
+     * @return one message for every file that could not be copied or deleted. They are retried on the next sync
+     */
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+}
@@ -0,0 +1,131 @@
+package com.thingworx.extensions.sftpExtension;
+
+import java.util.concurrent.Future;
+
+/**
+ * A transfer submitted to a {@link TransferQueue}, an POJO representation of the SftpTransferJob Thingworx datashape
+ */
+public class TransferJob {
+    private final String id;
+    private final String type;
+    private final String source;
+    private final String target;
+    private final TransferProgress progress = new TransferProgress();
+    private final long queuedAt = System.currentTimeMillis();
+    private volatile Status status = Status.QUEUED;
+    private volatile long startedAt;
+    private volatile long finishedAt;
+    private volatile String error;
+    private volatile Future<?> future;
+
+    TransferJob(String id, String type, String source, String target) {
+        this.id = id;
+        this.type = type;
+        this.source = source;
+        this.target = target;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return download or upload
+     */
+    public String getType() {
+        return type;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public TransferProgress getProgress() {
+        return progress;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public long getQueuedAt() {
+        return queuedAt;
+    }
+
+    /**
+     * @return when the transfer started (epoch milliseconds), or 0 while it is queued
+     */
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    /**
+     * @return when the transfer ended (epoch milliseconds), or 0 while it is queued or running
+     */
+    public long getFinishedAt() {
+        return finishedAt;
+    }
+
+    /**
+     * @return reason of the failure, if the job failed
+     */
+    public String getError() {
+        return error;
+    }
+
+    public boolean isFinished() {
+        return status == Status.COMPLETED || status == Status.FAILED || status == Status.CANCELLED;
+    }
+
+    void setFuture(Future<?> future) {
+        this.future = future;
+    }
+
+    Future<?> getFuture() {
+        return future;
+    }
+
+    /**
+     * @return false if the job was cancelled before it could start
+     */
+    synchronized boolean start() {
+        if (status != Status.QUEUED) {
+            return false;
+        }
+        status = Status.RUNNING;
+        startedAt = System.currentTimeMillis();
+        progress.start();
+        return true;
+    }
+
+    synchronized void finish(Status status, String error) {
+        this.status = status;
+        this.error = error;
+        finishedAt = System.currentTimeMillis();
+        progress.stop();
+    }
+
+    /**
+     * Cancels the job if it did not finish yet
+     *
+     * @return the status the job had. A queued job is cancelled right away, while a running job
+     * ends as cancelled once the repository notices
+     */
+    synchronized Status cancel() {
+        Status previous = status;
+        if (status == Status.QUEUED) {
+            finish(Status.CANCELLED, null);
+        } else if (status == Status.RUNNING) {
+            progress.cancel();
+        }
+        return previous;
+    }
+
+    public enum Status {
+        QUEUED, RUNNING, COMPLETED, FAILED, CANCELLED
+    }
+}
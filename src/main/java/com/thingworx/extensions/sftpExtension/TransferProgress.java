@@ -0,0 +1,72 @@
+package com.thingworx.extensions.sftpExtension;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress of a transfer, updated by the repository as the data moves. Cancelling it makes the
+ * repository abort the transfer at the next chunk of data
+ */
+public class TransferProgress {
+    private final AtomicLong bytes = new AtomicLong();
+    private volatile long total = -1;
+    private volatile long startedAt;
+    private volatile long stoppedAt;
+    private volatile boolean cancelled;
+
+    /**
+     * Starts measuring the rate
+     */
+    public void start() {
+        startedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Stops measuring the rate, so it stays the average of the whole transfer
+     */
+    public void stop() {
+        stoppedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * @param count number of bytes transferred since the last call
+     */
+    public void add(long count) {
+        bytes.addAndGet(count);
+    }
+
+    /**
+     * @param total size of the transfer in bytes, if it is known
+     */
+    public void setTotal(long total) {
+        if (total > 0) {
+            this.total = total;
+        }
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * @return size of the transfer in bytes, or -1 if it is not known
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * @return average rate since the transfer started, or of the whole transfer once stopped, in bytes per second
+     */
+    public double getRate() {
+        long elapsed = (stoppedAt == 0 ? System.currentTimeMillis() : stoppedAt) - startedAt;
+        return startedAt == 0 || elapsed <= 0 ? 0 : bytes.get() * 1000d / elapsed;
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
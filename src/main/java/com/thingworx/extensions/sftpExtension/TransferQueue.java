@@ -0,0 +1,183 @@
+package com.thingworx.extensions.sftpExtension;
+
+import ch.qos.logback.classic.Logger;
+import com.thingworx.logging.LogUtilities;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs transfers in the background on a bounded pool of workers, so that callers get a job handle right away
+ * instead of waiting for the transfer. Jobs beyond the capacity of the queue are rejected.
+ * Finished jobs are kept for a while, so that their outcome can still be looked up.
+ */
+public class TransferQueue implements AutoCloseable {
+    private static final Logger LOGGER = LogUtilities.getInstance().getApplicationLogger(SftpRepositoryThing.class);
+    /**
+     * Time (milliseconds) a finished job can still be looked up
+     */
+    private static final long RETENTION = 60 * 60 * 1000;
+    /**
+     * Time (milliseconds) an idle worker thread is kept
+     */
+    private static final long WORKER_KEEP_ALIVE = 60 * 1000;
+
+    private final ThreadPoolExecutor executor;
+    private final Map<String, TransferJob> jobs = new ConcurrentHashMap<>();
+    private final Listener listener;
+
+    /**
+     * @param workers  maximum number of transfers running at the same time
+     * @param capacity maximum number of transfers waiting for a worker
+     * @param listener called when a job finishes, on the worker thread
+     */
+    public TransferQueue(int workers, int capacity, Listener listener) {
+        this.listener = listener;
+        executor = new ThreadPoolExecutor(workers, workers, WORKER_KEEP_ALIVE, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(capacity), runnable -> {
+            Thread thread = new Thread(runnable, "SftpTransferThread");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // a thing without queued transfers keeps no threads
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queues a transfer
+     *
+     * @param type     download or upload
+     * @param source   what is transferred
+     * @param target   where it is transferred to
+     * @param transfer the transfer itself. It reports its progress, and stops when the progress is cancelled
+     * @return the job, whose id can be used to look it up
+     * @throws SftpException if the queue is full
+     */
+    public TransferJob submit(String type, String source, String target, Transfer transfer) throws SftpException {
+        purgeFinished();
+        TransferJob job = new TransferJob(UUID.randomUUID().toString(), type, source, target);
+        jobs.put(job.getId(), job);
+        try {
+            job.setFuture(executor.submit(() -> run(job, transfer)));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.getId());
+            throw new SftpException(String.format("Cannot queue the %s of %s, %d transfers are already waiting",
+                    type, source, executor.getQueue().size()), e);
+        }
+        return job;
+    }
+
+    /**
+     * @return the job, or null if there is no such job or it finished long ago
+     */
+    public TransferJob getJob(String id) {
+        return jobs.get(id);
+    }
+
+    /**
+     * Cancels a job. A queued job never starts, while a running one stops at the next chunk of data
+     *
+     * @return true if the job was queued or running
+     */
+    public boolean cancel(String id) {
+        TransferJob job = jobs.get(id);
+        if (job == null) {
+            return false;
+        }
+        TransferJob.Status previous = job.cancel();
+        if (previous == TransferJob.Status.QUEUED) {
+            executor.remove((Runnable) job.getFuture());
+            notifyFinished(job);
+        }
+        return previous == TransferJob.Status.QUEUED || previous == TransferJob.Status.RUNNING;
+    }
+
+    /**
+     * @return number of jobs waiting for a worker
+     */
+    public int getQueued() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return number of jobs running
+     */
+    public int getRunning() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * Cancels all the jobs, queued or running. Every one of them is reported to the listener: the queued ones
+     * right away, and the running ones once they stop
+     */
+    @Override
+    public void close() {
+        List<TransferJob> queued = new ArrayList<>();
+        for (TransferJob job : jobs.values()) {
+            if (job.cancel() == TransferJob.Status.QUEUED) {
+                queued.add(job);
+            }
+        }
+        // cancelled first, so that the interrupted transfers end as cancelled rather than failed
+        executor.shutdownNow();
+        // the workers drop the queued jobs, so they are never going to report them
+        for (TransferJob job : queued) {
+            notifyFinished(job);
+        }
+    }
+
+    private void run(TransferJob job, Transfer transfer) {
+        if (!job.start()) {
+            // cancelled while it was queued
+            return;
+        }
+        try {
+            transfer.run(job.getProgress());
+            job.finish(TransferJob.Status.COMPLETED, null);
+        } catch (Exception e) {
+            if (job.getProgress().isCancelled()) {
+                job.finish(TransferJob.Status.CANCELLED, null);
+            } else {
+                LOGGER.warn(String.format("The %s of %s failed: %s", job.getType(), job.getSource(), e.getMessage()));
+                job.finish(TransferJob.Status.FAILED, e.getMessage());
+            }
+        }
+        notifyFinished(job);
+    }
+
+    private void notifyFinished(TransferJob job) {
+        try {
+            listener.onFinished(job);
+        } catch (Exception e) {
+            LOGGER.warn("Failed to report the end of transfer " + job.getId(), e);
+        }
+    }
+
+    private void purgeFinished() {
+        long oldest = System.currentTimeMillis() - RETENTION;
+        jobs.values().removeIf(job -> job.isFinished() && job.getFinishedAt() < oldest);
+    }
+
+    /**
+     * A transfer executed by a worker
+     */
+    @FunctionalInterface
+    public interface Transfer {
+        void run(TransferProgress progress) throws Exception;
+    }
+
+    /**
+     * Receives the jobs that completed, failed or were cancelled
+     */
+    @FunctionalInterface
+    public interface Listener {
+        void onFinished(TransferJob job) throws Exception;
+    }
+}
@@ -0,0 +1,51 @@
+package com.thingworx.extensions.sftpExtension;
+
+/**
+ * An POJO representation of the SftpTransferResult Thingworx datashape
+ */
+public class TransferResult {
+    private String path;
+    private long bytes;
+    private long durationMillis;
+    private int segments;
+
+    public TransferResult(String path, long bytes, long durationMillis, int segments) {
+        this.path = path;
+        this.bytes = bytes;
+        this.durationMillis = durationMillis;
+        this.segments = segments;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    public int getSegments() {
+        return segments;
+    }
+
+    /**
+     * @return the achieved throughput, in bytes per second
+     */
+    public double getThroughput() {
+        return durationMillis > 0 ? bytes * 1000d / durationMillis : bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "TransferResult{" +
+                "path='" + path + '\'' +
+                ", bytes=" + bytes +
+                ", durationMillis=" + durationMillis +
+                ", segments=" + segments +
+                '}';
+    }
+}
@@ -0,0 +1,183 @@
+package com.thingworx.extensions.sftpExtension.jsch;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * A token bucket limiting the bytes per second of the transfers going through it, that shares the rate
+ * between the concurrent transfers in proportion to their weight.
+ * Every chunk of data is given a virtual finish time, which advances faster for flows with a lower weight, and
+ * the waiting chunks are let through in that order (weighted fair queuing). A flow that was idle does not
+ * get credit for the time it did not transfer anything.
+ * The bucket holds at most one second of tokens. A chunk larger than the available tokens is let through as soon
+ * as there are any, and the debt is paid by the following chunks, so the chunk size does not matter.
+ * The bytes let through are also measured, whether a rate is set or not.
+ */
+final class BandwidthLimiter {
+    /**
+     * Longest time (milliseconds) a waiting transfer sleeps before it checks its turn again
+     */
+    private static final long MAX_WAIT = 1000;
+    /**
+     * Number of seconds over which the effective rate is averaged
+     */
+    private static final int RATE_WINDOW = 5;
+
+    private final PriorityQueue<Request> waiting = new PriorityQueue<>(
+            Comparator.comparingDouble((Request request) -> request.finishTag).thenComparingLong(request -> request.sequence));
+    private final Map<Flow, Double> finishTags = new HashMap<>();
+    /**
+     * The rates asked for by each of the users of this limiter. The lowest one applies
+     */
+    private final List<Long> requestedRates = new ArrayList<>();
+    private final long[] windowBytes = new long[RATE_WINDOW + 1];
+    private final long[] windowSeconds = new long[RATE_WINDOW + 1];
+    private long rate;
+    private double tokens;
+    private long refilledAt = System.nanoTime();
+    private double virtualTime;
+    private long sequence;
+
+    /**
+     * Adds a rate asked for by a user of this limiter
+     *
+     * @param rate bytes per second, or 0 for no limit
+     */
+    synchronized void addRate(long rate) {
+        requestedRates.add(rate);
+        updateRate();
+    }
+
+    /**
+     * Removes a rate added with {@link #addRate(long)}
+     */
+    synchronized void removeRate(long rate) {
+        requestedRates.remove(Long.valueOf(rate));
+        updateRate();
+    }
+
+    /**
+     * @return true if no user of this limiter asks for a rate anymore
+     */
+    synchronized boolean isUnused() {
+        return requestedRates.isEmpty();
+    }
+
+    /**
+     * @return the rate applied, in bytes per second, or 0 if there is no limit
+     */
+    synchronized long getRate() {
+        return rate;
+    }
+
+    /**
+     * @return the bytes per second let through, averaged over the last few seconds
+     */
+    synchronized double getEffectiveRate() {
+        long second = System.currentTimeMillis() / 1000;
+        long total = 0;
+        for (int i = 0; i < windowBytes.length; i++) {
+            // the current second is not over yet, so it is left out
+            if (windowSeconds[i] < second && windowSeconds[i] >= second - RATE_WINDOW) {
+                total += windowBytes[i];
+            }
+        }
+        return (double) total / RATE_WINDOW;
+    }
+
+    /**
+     * Waits until the flow may send or receive a chunk of data
+     *
+     * @param flow      the transfer, or group of transfers, the data belongs to
+     * @param bytes     size of the chunk
+     * @param heartbeat called regularly while waiting, to show that the transfer is still alive
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    synchronized void acquire(Flow flow, long bytes, Runnable heartbeat) throws InterruptedException {
+        if (rate <= 0) {
+            record(bytes);
+            return;
+        }
+        double start = Math.max(virtualTime, finishTags.getOrDefault(flow, 0d));
+        Request request = new Request(start + (double) bytes / flow.weight, sequence++);
+        finishTags.put(flow, request.finishTag);
+        waiting.add(request);
+        try {
+            while (true) {
+                refill();
+                if (rate <= 0) {
+                    record(bytes);
+                    return;
+                }
+                if (waiting.peek() == request && tokens > 0) {
+                    tokens -= bytes;
+                    record(bytes);
+                    virtualTime = request.finishTag;
+                    // flows that have no chunk ahead of the virtual time are idle, and start over when they resume
+                    finishTags.values().removeIf(tag -> tag <= virtualTime);
+                    return;
+                }
+                long wait = waiting.peek() == request ? (long) Math.ceil(-tokens * 1000 / rate) + 1 : MAX_WAIT;
+                wait(Math.max(1, Math.min(wait, MAX_WAIT)));
+                heartbeat.run();
+            }
+        } finally {
+            waiting.remove(request);
+            notifyAll();
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(rate, tokens + (now - refilledAt) / 1e9 * rate);
+        refilledAt = now;
+    }
+
+    private void record(long bytes) {
+        long second = System.currentTimeMillis() / 1000;
+        int slot = (int) (second % windowBytes.length);
+        if (windowSeconds[slot] != second) {
+            windowSeconds[slot] = second;
+            windowBytes[slot] = 0;
+        }
+        windowBytes[slot] += bytes;
+    }
+
+    private void updateRate() {
+        refill();
+        long lowest = 0;
+        for (long requested : requestedRates) {
+            if (requested > 0 && (lowest == 0 || requested < lowest)) {
+                lowest = requested;
+            }
+        }
+        rate = lowest;
+        tokens = Math.min(tokens, rate);
+        notifyAll();
+    }
+
+    /**
+     * A transfer, or group of transfers, that gets a share of the rate in proportion to its weight
+     */
+    static final class Flow {
+        private final double weight;
+
+        Flow(double weight) {
+            this.weight = weight > 0 ? weight : 1;
+        }
+    }
+
+    private static final class Request {
+        private final double finishTag;
+        private final long sequence;
+
+        private Request(double finishTag, long sequence) {
+            this.finishTag = finishTag;
+            this.sequence = sequence;
+        }
+    }
+}
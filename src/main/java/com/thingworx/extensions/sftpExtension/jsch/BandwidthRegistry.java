@@ -0,0 +1,72 @@
+package com.thingworx.extensions.sftpExtension.jsch;
+
+import com.thingworx.extensions.sftpExtension.SftpConfiguration;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The bandwidth limiters shared by all the connection pools of this process: one for all the transfers, and one
+ * for each server endpoint (host and port), so that the things transferring over the same link share its rate.
+ * Each pool asks for a rate when it is created. When several pools ask for different rates, the lowest one applies.
+ */
+final class BandwidthRegistry {
+    private static final String GLOBAL = "*";
+    private static final Map<String, BandwidthLimiter> LIMITERS = new HashMap<>();
+
+    private BandwidthRegistry() {
+    }
+
+    /**
+     * Takes a reference to the limiter of all the transfers
+     *
+     * @param rate bytes per second this pool asks for, or 0 for no limit
+     * @return the limiter. Must be given back using {@link #releaseGlobal(long)}
+     */
+    static BandwidthLimiter acquireGlobal(long rate) {
+        return acquire(GLOBAL, rate);
+    }
+
+    static void releaseGlobal(long rate) {
+        release(GLOBAL, rate);
+    }
+
+    /**
+     * Takes a reference to the limiter of the server endpoint in the configuration
+     *
+     * @param rate bytes per second this pool asks for, or 0 for no limit
+     * @return the limiter. Must be given back using {@link #releaseEndpoint(SftpConfiguration, long)}
+     */
+    static BandwidthLimiter acquireEndpoint(SftpConfiguration config, long rate) {
+        return acquire(getEndpointKey(config), rate);
+    }
+
+    static void releaseEndpoint(SftpConfiguration config, long rate) {
+        release(getEndpointKey(config), rate);
+    }
+
+    private static BandwidthLimiter acquire(String key, long rate) {
+        synchronized (LIMITERS) {
+            BandwidthLimiter limiter = LIMITERS.computeIfAbsent(key, k -> new BandwidthLimiter());
+            limiter.addRate(rate);
+            return limiter;
+        }
+    }
+
+    private static void release(String key, long rate) {
+        synchronized (LIMITERS) {
+            BandwidthLimiter limiter = LIMITERS.get(key);
+            if (limiter == null) {
+                return;
+            }
+            limiter.removeRate(rate);
+            if (limiter.isUnused()) {
+                LIMITERS.remove(key);
+            }
+        }
+    }
+
+    private static String getEndpointKey(SftpConfiguration config) {
+        return config.getHost() + ":" + config.getPort();
+    }
+}
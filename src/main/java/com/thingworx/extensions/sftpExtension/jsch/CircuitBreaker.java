@@ -0,0 +1,132 @@
+package com.thingworx.extensions.sftpExtension.jsch;
+
+import ch.qos.logback.classic.Logger;
+import com.jcraft.jsch.JSchException;
+import com.thingworx.extensions.sftpExtension.SftpConfiguration;
+import com.thingworx.extensions.sftpExtension.SftpException;
+import com.thingworx.extensions.sftpExtension.SftpRepositoryThing;
+import com.thingworx.extensions.sftpExtension.SftpScheduler;
+import com.thingworx.logging.LogUtilities;
+
+/**
+ * Stops connection attempts to an endpoint that keeps failing, so that callers fail right away instead of
+ * waiting for the connection timeout. Once open, the circuit is probed in the background with an
+ * exponentially growing delay, and closes again as soon as a connection succeeds.
+ */
+public class CircuitBreaker {
+    private static final Logger LOGGER = LogUtilities.getInstance().getApplicationLogger(SftpRepositoryThing.class);
+
+    public enum State {
+        /**
+         * Connections are allowed
+         */
+        CLOSED,
+        /**
+         * Connections are refused until the next probe
+         */
+        OPEN,
+        /**
+         * A probe is connecting, connections are still refused
+         */
+        HALF_OPEN
+    }
+
+    private final String key;
+    private State state = State.CLOSED;
+    private int failures;
+    private long backoff;
+    private long retryAt;
+    private String lastError;
+    private SftpConfiguration config;
+
+    CircuitBreaker(String key) {
+        this.key = key;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @throws SftpException if the circuit is not closed
+     */
+    synchronized void checkAvailable() throws SftpException {
+        if (state != State.CLOSED) {
+            throw new SftpException(String.format("Sftp server %s is unavailable, next connection attempt in %d ms. " +
+                    "Last error: %s", getEndpoint(), Math.max(0, retryAt - System.currentTimeMillis()), lastError));
+        }
+    }
+
+    void recordSuccess() {
+        State previous;
+        synchronized (this) {
+            previous = state;
+            state = State.CLOSED;
+            failures = 0;
+            backoff = 0;
+        }
+        if (previous != State.CLOSED) {
+            LOGGER.info("Sftp server " + getEndpoint() + " is reachable again");
+        }
+    }
+
+    /**
+     * Counts a failed connection attempt, opening the circuit once the configured threshold is reached
+     *
+     * @param config the configuration used to connect, that is also used by the probes
+     */
+    void recordFailure(SftpConfiguration config, Exception e) {
+        long delay;
+        synchronized (this) {
+            this.config = config;
+            lastError = e.getMessage();
+            failures++;
+            // while open, a probe is already scheduled
+            if (state == State.OPEN || (state == State.CLOSED && failures < config.getCircuitFailureThreshold())) {
+                return;
+            }
+            backoff = backoff == 0 ? config.getCircuitInitialBackoff()
+                    : Math.min(backoff * 2, config.getCircuitMaxBackoff());
+            delay = backoff;
+            retryAt = System.currentTimeMillis() + delay;
+            state = State.OPEN;
+        }
+        LOGGER.warn(String.format("Sftp server %s is unavailable after %d attempts, retrying in %d ms. Last error: %s",
+                getEndpoint(), failures, delay, lastError));
+        SftpScheduler.scheduleConnect(this::probe, delay);
+    }
+
+    /**
+     * Tries to connect, and keeps the session if some pool is still using the endpoint
+     */
+    private void probe() {
+        SftpConfiguration probeConfig;
+        synchronized (this) {
+            if (!SftpSessionRegistry.isInUse(key)) {
+                // nobody needs this endpoint anymore, so there's no point in probing it
+                state = State.CLOSED;
+                failures = 0;
+                backoff = 0;
+                return;
+            }
+            state = State.HALF_OPEN;
+            probeConfig = config;
+        }
+        // the probe opens no channel, so it fits in any session of the endpoint
+        SftpSessionRegistry.SharedSession shared = SftpSessionRegistry.acquire(probeConfig, 0);
+        try {
+            shared.probe(probeConfig);
+        } catch (JSchException e) {
+            LOGGER.debug("Sftp connection probe to " + getEndpoint() + " failed " + e.getMessage());
+        } catch (RuntimeException e) {
+            recordFailure(probeConfig, e);
+        } finally {
+            SftpSessionRegistry.release(shared, 0);
+        }
+    }
+
+    private String getEndpoint() {
+        // leave out the credential digest
+        return key.substring(0, key.lastIndexOf('#'));
+    }
+}
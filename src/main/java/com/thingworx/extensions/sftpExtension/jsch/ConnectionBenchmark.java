@@ -0,0 +1,197 @@
+package com.thingworx.extensions.sftpExtension.jsch;
+
+import ch.qos.logback.classic.Logger;
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+import com.thingworx.extensions.sftpExtension.AlgorithmProfile;
+import com.thingworx.extensions.sftpExtension.BenchmarkResult;
+import com.thingworx.extensions.sftpExtension.SftpConfiguration;
+import com.thingworx.extensions.sftpExtension.SftpRepositoryThing;
+import com.thingworx.logging.LogUtilities;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Measures how a server performs with different ssh algorithms, to find the fastest profile for it.
+ * Every profile gets a session of its own, outside of the pools and of the bandwidth limits. The time to open
+ * the session is measured, then the rates of uploading a test file to a remote directory and downloading it back.
+ * The test file is deleted afterwards.
+ */
+public class ConnectionBenchmark {
+    private static final Logger LOGGER = LogUtilities.getInstance().getApplicationLogger(SftpRepositoryThing.class);
+    private static final String TEST_FILE_PREFIX = ".sftpbenchmark-";
+    /**
+     * Size of the block repeated to make incompressible test data. Larger than the zlib window, so repeating it
+     * does not make the data compressible
+     */
+    private static final int RANDOM_BLOCK_SIZE = 64 * 1024;
+    private static final String TEXT_LINE = "2024-01-01T00:00:00Z,sensor-0001,temperature,21.5,OK\n";
+
+    private final SftpConfiguration config;
+    private final String remoteDirectory;
+    private final long testSize;
+    private final boolean compressible;
+
+    /**
+     * @param config          the connection settings. Its algorithms are replaced by those of each profile
+     * @param remoteDirectory directory where the test file is written
+     * @param testSize        size of the test file in bytes
+     * @param compressible    true to test with text, that compresses well, instead of random bytes
+     */
+    public ConnectionBenchmark(SftpConfiguration config, String remoteDirectory, long testSize, boolean compressible) {
+        this.config = config;
+        this.remoteDirectory = remoteDirectory;
+        this.testSize = testSize;
+        this.compressible = compressible;
+    }
+
+    /**
+     * Measures the profiles one after the other. A profile that fails does not stop the others
+     */
+    public List<BenchmarkResult> run(List<AlgorithmProfile> profiles) {
+        warmUp();
+        List<BenchmarkResult> results = new ArrayList<>(profiles.size());
+        for (AlgorithmProfile profile : profiles) {
+            BenchmarkResult result = run(profile);
+            LOGGER.info(String.format("Benchmarked profile %s on %s: handshake %d ms, upload %.0f bytes/s, " +
+                            "download %.0f bytes/s%s", profile.getName(), config.getHost(), result.getHandshakeMillis(),
+                    result.getUploadRate(), result.getDownloadRate(),
+                    result.getError() != null ? ", error: " + result.getError() : ""));
+            results.add(result);
+        }
+        return results;
+    }
+
+    private BenchmarkResult run(AlgorithmProfile profile) {
+        SftpConfiguration profileConfig = copyConnection(config);
+        profileConfig.setAlgorithms(profile);
+        long start = System.nanoTime();
+        Session session;
+        try {
+            session = SftpSessionRegistry.createSession(profileConfig);
+        } catch (JSchException e) {
+            return new BenchmarkResult(profile, 0, 0, 0, e.getMessage());
+        }
+        long handshakeMillis = (System.nanoTime() - start) / 1000000;
+        String testFile = (remoteDirectory.endsWith("/") ? remoteDirectory : remoteDirectory + "/") +
+                TEST_FILE_PREFIX + UUID.randomUUID() + ".tmp";
+        ChannelSftp channel = null;
+        try {
+            channel = (ChannelSftp) session.openChannel("sftp");
+            channel.connect(profileConfig.getConnectionTimeout());
+            long uploadStart = System.nanoTime();
+            channel.put(new TestData(testSize, compressible), testFile);
+            double uploadRate = getRate(testSize, System.nanoTime() - uploadStart);
+            long downloadStart = System.nanoTime();
+            channel.get(testFile, new DiscardingOutputStream());
+            double downloadRate = getRate(testSize, System.nanoTime() - downloadStart);
+            return new BenchmarkResult(profile, handshakeMillis, uploadRate, downloadRate, null);
+        } catch (JSchException | com.jcraft.jsch.SftpException e) {
+            return new BenchmarkResult(profile, handshakeMillis, 0, 0, e.getMessage());
+        } finally {
+            if (channel != null && channel.isConnected()) {
+                try {
+                    channel.rm(testFile);
+                } catch (com.jcraft.jsch.SftpException e) {
+                    LOGGER.debug("Could not delete benchmark file " + testFile + " " + e.getMessage());
+                }
+                channel.disconnect();
+            }
+            session.disconnect();
+        }
+    }
+
+    /**
+     * Connects once without measuring, so that loading the crypto providers is not counted in the handshake
+     * time of the first profile
+     */
+    private void warmUp() {
+        try {
+            SftpSessionRegistry.createSession(copyConnection(config)).disconnect();
+        } catch (JSchException e) {
+            LOGGER.debug("Benchmark warm up connection failed " + e.getMessage());
+        }
+    }
+
+    private static double getRate(long bytes, long nanos) {
+        return nanos > 0 ? bytes * 1e9 / nanos : 0;
+    }
+
+    /**
+     * @return a configuration with the connection settings only, so that the session is not shared
+     */
+    private static SftpConfiguration copyConnection(SftpConfiguration config) {
+        SftpConfiguration copy = new SftpConfiguration();
+        copy.setHost(config.getHost());
+        copy.setPort(config.getPort());
+        copy.setUsername(config.getUsername());
+        copy.setPassword(config.getPassword());
+        copy.setPrivateKey(config.getPrivateKey());
+        copy.setPassphrase(config.getPassphrase());
+        copy.setConnectionTimeout(config.getConnectionTimeout());
+        return copy;
+    }
+
+    /**
+     * Generates the content of the test file without holding it in memory
+     */
+    private static class TestData extends InputStream {
+        private final byte[] pattern;
+        private long remaining;
+        private int position;
+
+        private TestData(long size, boolean compressible) {
+            this.remaining = size;
+            if (compressible) {
+                pattern = TEXT_LINE.getBytes(StandardCharsets.US_ASCII);
+            } else {
+                pattern = new byte[RANDOM_BLOCK_SIZE];
+                new Random().nextBytes(pattern);
+            }
+        }
+
+        @Override
+        public int read() {
+            if (remaining <= 0) {
+                return -1;
+            }
+            remaining--;
+            int value = pattern[position] & 0xff;
+            position = (position + 1) % pattern.length;
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int count = (int) Math.min(length, remaining);
+            for (int copied = 0; copied < count; ) {
+                int chunk = Math.min(count - copied, pattern.length - position);
+                System.arraycopy(pattern, position, buffer, offset + copied, chunk);
+                copied += chunk;
+                position = (position + chunk) % pattern.length;
+            }
+            remaining -= count;
+            return count;
+        }
+    }
+
+    private static class DiscardingOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) {
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.thingworx.extensions.sftpExtension.jsch;
+
+import com.thingworx.extensions.sftpExtension.SftpException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A group of tasks that run concurrently, each usually on its own pooled channel.
+ * As soon as one of the tasks fails, the others are asked to stop through {@link #isAborted()}.
+ */
+class ParallelWork {
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "SftpWorkerThread");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final List<Future<?>> futures = new ArrayList<>();
+    private final AtomicBoolean aborted = new AtomicBoolean();
+    private final AtomicReference<Exception> failure = new AtomicReference<>();
+
+    /**
+     * Starts a task in the background
+     */
+    void submit(Task task) {
+        futures.add(EXECUTOR.submit(() -> {
+            try {
+                task.run();
+            } catch (Exception e) {
+                failure.compareAndSet(null, e);
+                aborted.set(true);
+            }
+        }));
+    }
+
+    /**
+     * @return true if one of the tasks failed, and the others should stop
+     */
+    boolean isAborted() {
+        return aborted.get();
+    }
+
+    /**
+     * Waits for all the submitted tasks to finish
+     *
+     * @throws SftpException the first failure of any of the tasks
+     */
+    void await() throws SftpException {
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                aborted.set(true);
+                Thread.currentThread().interrupt();
+                throw new SftpException("Interrupted while waiting for the parallel operation to finish", e);
+            } catch (ExecutionException e) {
+                failure.compareAndSet(null, e);
+            }
+        }
+        Exception e = failure.get();
+        if (e instanceof SftpException) {
+            throw (SftpException) e;
+        } else if (e != null) {
+            throw new SftpException("Parallel operation failed " + e.getMessage(), e);
+        }
+    }
+
+    @FunctionalInterface
+    interface Task {
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,67 @@
+package com.thingworx.extensions.sftpExtension.jsch;
+
+import com.thingworx.extensions.sftpExtension.SftpException;
+
+/**
+ * Splits a file transfer in byte ranges that are transferred concurrently.
+ * As soon as one of the ranges fails, the others are asked to stop through {@link #isAborted()}.
+ */
+class SegmentedTransfer {
+    private final long size;
+    private final int segments;
+    private final ParallelWork work = new ParallelWork();
+
+    SegmentedTransfer(long size, int segments) {
+        this.size = size;
+        this.segments = segments;
+    }
+
+    /**
+     * Works out in how many ranges a file should be split
+     *
+     * @param size           size of the file in bytes
+     * @param maxSegments    maximum number of ranges
+     * @param minSegmentSize no range is made smaller than this, unless the file itself is smaller
+     * @return the number of ranges, at least one
+     */
+    static int segmentCount(long size, int maxSegments, long minSegmentSize) {
+        long bySize = minSegmentSize > 0 ? size / minSegmentSize : size;
+        return (int) Math.max(1, Math.min(maxSegments, bySize));
+    }
+
+    int getSegments() {
+        return segments;
+    }
+
+    /**
+     * @return true if one of the ranges failed, and the others should stop
+     */
+    boolean isAborted() {
+        return work.isAborted();
+    }
+
+    /**
+     * Transfers all the ranges, and waits for them to finish
+     *
+     * @param task transfers a single range
+     * @throws SftpException the first failure of any of the ranges
+     */
+    void run(SegmentTask task) throws SftpException {
+        long segmentSize = size / segments;
+        for (int i = 0; i < segments; i++) {
+            long offset = i * segmentSize;
+            // the last range also takes the remainder of the division
+            long length = i == segments - 1 ? size - offset : segmentSize;
+            work.submit(() -> task.transfer(offset, length));
+        }
+        work.await();
+    }
+
+    /**
+     * Transfers the byte range of a file starting at the given offset
+     */
+    @FunctionalInterface
+    interface SegmentTask {
+        void transfer(long offset, long length) throws Exception;
+    }
+}
@@ -0,0 +1,731 @@
+package com.thingworx.extensions.sftpExtension.jsch;
+
+import ch.qos.logback.classic.Logger;
+import com.jcraft.jsch.*;
+import com.thingworx.extensions.sftpExtension.SftpConfiguration;
+import com.thingworx.extensions.sftpExtension.SftpException;
+import com.thingworx.extensions.sftpExtension.SftpMetrics;
+import com.thingworx.extensions.sftpExtension.SftpRepositoryThing;
+import com.thingworx.extensions.sftpExtension.SftpScheduler;
+import com.thingworx.logging.LogUtilities;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * A bounded pool of sftp channels opened over a single ssh session.
+ * Channels are borrowed for the duration of one operation and returned afterwards. The session is opened
+ * on demand, and let go together with all the channels once the pool has been idle for the keepAlive timeout.
+ * Sessions are shared with the other pools connecting to the same endpoint through the
+ * {@link SftpSessionRegistry}, so they are only disconnected once none of those pools needs them anymore.
+ * The pool reserves its maximum number of channels on the session, so that the pools sharing it never open
+ * more channels than the server accepts.
+ * A channel can be borrowed with a deadline. If the operation is still running when it expires, the channel
+ * is disconnected, which makes the blocked operation fail, and a new channel takes its place in the pool.
+ * Channels are borrowed in one of two {@link Lane lanes}, each limited to its own number of channels.
+ * Transfers can never take all the channels, so that listings and other short operations do not wait
+ * behind long downloads and uploads. This needs a pool of at least two channels: with a single channel,
+ * transfers and the other operations take turns on it.
+ * The transfers are paced by three bandwidth limiters: one of this pool, one shared with the other pools
+ * connecting to the same host and port, and one shared by all the pools. In the shared limiters, the pools get
+ * a share of the rate in proportion to their transfer weight.
+ */
+public class SftpChannelPool implements AutoCloseable {
+    private static final Logger LOGGER = LogUtilities.getInstance().getApplicationLogger(SftpRepositoryThing.class);
+    /**
+     * Channels that have been idle for longer than this are checked with a round trip before being handed out
+     */
+    private static final long VALIDATION_IDLE_TIME = 30 * 1000;
+    /**
+     * Interval (milliseconds) at which the deadlines of the borrowed channels are checked
+     */
+    private static final long DEADLINE_CHECK_INTERVAL = 1000;
+
+    private final SftpConfiguration config;
+    private final SftpMetrics metrics;
+    private final Deque<PooledChannel> idleChannels = new ArrayDeque<>();
+    private final Object sessionLock = new Object();
+    private final Map<ChannelSftp, Deadline> deadlines = new ConcurrentHashMap<>();
+    private final Map<ChannelSftp, Lane> borrowedLanes = new HashMap<>();
+    private final int[] laneBusy = new int[Lane.values().length];
+    private final int[] laneWaiting = new int[Lane.values().length];
+    private final ScheduledFuture<?> deadlineTask;
+    private final BandwidthLimiter bandwidthLimiter = new BandwidthLimiter();
+    private final BandwidthLimiter endpointBandwidthLimiter;
+    private final BandwidthLimiter globalBandwidthLimiter;
+    /**
+     * All the transfers of this pool, as seen by the shared limiters
+     */
+    private final BandwidthLimiter.Flow bandwidthFlow;
+    private SftpSessionRegistry.SharedSession sharedSession;
+    /**
+     * Channels reserved on the shared session, given back as is when the session is released
+     */
+    private int reservedChannels;
+    private Session session;
+    private int openChannels;
+    private long lastActivity = System.currentTimeMillis();
+    private boolean closed;
+
+    /**
+     * @param config  the connection settings
+     * @param metrics where the time spent waiting for channels and opening connections is recorded
+     */
+    public SftpChannelPool(SftpConfiguration config, SftpMetrics metrics) {
+        this.config = config;
+        this.metrics = metrics;
+        this.deadlineTask = SftpScheduler.scheduleAtFixedRate(this::expireDeadlines, DEADLINE_CHECK_INTERVAL);
+        bandwidthLimiter.addRate(config.getRateLimit());
+        endpointBandwidthLimiter = BandwidthRegistry.acquireEndpoint(config, config.getEndpointRateLimit());
+        globalBandwidthLimiter = BandwidthRegistry.acquireGlobal(config.getGlobalRateLimit());
+        bandwidthFlow = new BandwidthLimiter.Flow(config.getTransferWeight());
+    }
+
+    /**
+     * Borrows a channel for a metadata operation, see {@link #borrow(Lane)}
+     */
+    public ChannelSftp borrow() throws SftpException {
+        return borrow(Lane.METADATA);
+    }
+
+    /**
+     * Borrows a channel from the pool, opening a new one if none is idle and the maximum pool size
+     * has not been reached. Blocks up to the configured borrow timeout waiting for a free channel, or for
+     * the lane to be below its limit.
+     *
+     * @param lane the kind of operation the channel is used for
+     * @return a connected sftp channel. Must be given back using {@link #release(ChannelSftp)}
+     * @throws SftpException if the connection failed or no channel became available in time
+     */
+    public ChannelSftp borrow(Lane lane) throws SftpException {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            ChannelSftp channel = borrowOrOpen(lane);
+            success = true;
+            return channel;
+        } finally {
+            metrics.record(lane.metricName, System.nanoTime() - start, success);
+        }
+    }
+
+    private ChannelSftp borrowOrOpen(Lane lane) throws SftpException {
+        long deadline = System.currentTimeMillis() + config.getPoolBorrowTimeout();
+        acquireLane(lane, deadline);
+        ChannelSftp channel = null;
+        try {
+            channel = takeOrOpen(lane, deadline);
+            return channel;
+        } finally {
+            synchronized (this) {
+                if (channel != null) {
+                    borrowedLanes.put(channel, lane);
+                } else {
+                    laneBusy[lane.ordinal()]--;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    private ChannelSftp takeOrOpen(Lane lane, long deadline) throws SftpException {
+        while (true) {
+            PooledChannel pooled = takeIdleOrReserve(lane, deadline);
+            if (pooled == null) {
+                break;
+            }
+            // validation may need a round trip, so it's done outside of the pool lock
+            if (isValid(pooled)) {
+                return pooled.channel;
+            }
+            invalidate(pooled.channel);
+        }
+        // a slot was reserved, open the channel outside of the pool lock
+        try {
+            return openChannel();
+        } catch (SftpException | RuntimeException e) {
+            synchronized (this) {
+                openChannels--;
+                notifyAll();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Borrows a channel like {@link #borrow(Lane)}, that is disconnected if it's not given back before the timeout
+     *
+     * @param lane    the kind of operation the channel is used for
+     * @param timeout time (milliseconds) the channel may be used, or 0 for no limit.
+     *                It can be extended with {@link #renewDeadline(ChannelSftp)}
+     * @return a connected sftp channel. Must be given back using {@link #release(ChannelSftp)}
+     */
+    public ChannelSftp borrow(Lane lane, long timeout) throws SftpException {
+        ChannelSftp channel = borrow(lane);
+        if (timeout > 0) {
+            deadlines.put(channel, new Deadline(timeout));
+        }
+        return channel;
+    }
+
+    /**
+     * Borrows a channel like {@link #borrow(Lane, long)}, but only if the lane is below its limit and a channel is
+     * idle or can be opened, so that the caller never waits for other borrowers. Used to add workers to a
+     * parallel operation only while the pool has room for them
+     *
+     * @return a connected sftp channel, or null if none is free. Must be given back using {@link #release(ChannelSftp)}
+     * @throws SftpException if opening a new channel failed
+     */
+    public ChannelSftp tryBorrow(Lane lane, long timeout) throws SftpException {
+        PooledChannel pooled;
+        synchronized (this) {
+            if (closed) {
+                throw new SftpException("The sftp connection pool is closed");
+            }
+            if (laneBusy[lane.ordinal()] >= getMaxSize(lane) || (idleChannels.isEmpty() && openChannels >= getMaxSize())) {
+                return null;
+            }
+            laneBusy[lane.ordinal()]++;
+            lastActivity = System.currentTimeMillis();
+            pooled = idleChannels.pollFirst();
+            if (pooled == null) {
+                openChannels++;
+            }
+        }
+        ChannelSftp channel = null;
+        try {
+            if (pooled != null && isValid(pooled)) {
+                channel = pooled.channel;
+            } else {
+                if (pooled != null) {
+                    synchronized (this) {
+                        // the slot of the broken channel is kept for the new one
+                        destroy(pooled.channel);
+                        openChannels++;
+                    }
+                }
+                try {
+                    channel = openChannel();
+                } catch (SftpException | RuntimeException e) {
+                    synchronized (this) {
+                        openChannels--;
+                    }
+                    throw e;
+                }
+            }
+        } finally {
+            synchronized (this) {
+                if (channel != null) {
+                    borrowedLanes.put(channel, lane);
+                } else {
+                    laneBusy[lane.ordinal()]--;
+                    notifyAll();
+                }
+            }
+        }
+        if (timeout > 0) {
+            deadlines.put(channel, new Deadline(timeout));
+        }
+        return channel;
+    }
+
+    /**
+     * Restarts the deadline of a borrowed channel, for example before the next item of a long series
+     * or when a transfer made progress
+     */
+    public void renewDeadline(ChannelSftp channel) {
+        Deadline deadline = deadlines.get(channel);
+        if (deadline != null) {
+            deadline.renew();
+        }
+    }
+
+    /**
+     * @return a progress monitor for one transfer, that paces it within the bandwidth limits and restarts the
+     * deadline of the channel every time data is transferred, so that only transfers that stall expire
+     */
+    public SftpProgressMonitor getProgressMonitor(ChannelSftp channel) {
+        return new ThrottledMonitor(channel, deadlines.get(channel));
+    }
+
+    /**
+     * Gives back a channel previously obtained from {@link #borrow()}.
+     * Channels that are no longer connected are discarded.
+     *
+     * @param channel the borrowed channel
+     */
+    public synchronized void release(ChannelSftp channel) {
+        deadlines.remove(channel);
+        releaseLane(channel);
+        lastActivity = System.currentTimeMillis();
+        if (closed || !channel.isConnected()) {
+            destroy(channel);
+        } else {
+            idleChannels.addFirst(new PooledChannel(channel));
+        }
+        notifyAll();
+    }
+
+    /**
+     * Discards a borrowed channel instead of returning it to the pool, for example after it failed mid-operation
+     *
+     * @param channel the borrowed channel
+     */
+    public synchronized void invalidate(ChannelSftp channel) {
+        deadlines.remove(channel);
+        releaseLane(channel);
+        destroy(channel);
+        notifyAll();
+    }
+
+    /**
+     * Closes the channels that have been idle for longer than the keepAlive timeout, while keeping the
+     * configured minimum. If the whole pool has been unused for that long, the session is closed as well,
+     * unless the configuration asks for the connection to be kept open.
+     */
+    public void evictIdle() {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Iterator<PooledChannel> iterator = idleChannels.descendingIterator();
+            while (iterator.hasNext() && idleChannels.size() > config.getPoolMinSize()) {
+                PooledChannel pooled = iterator.next();
+                if (now - pooled.idleSince > config.getKeepAliveTimeout()) {
+                    iterator.remove();
+                    destroy(pooled.channel);
+                }
+            }
+        }
+        synchronized (sessionLock) {
+            synchronized (this) {
+                // only close the session if nobody is using or opening a channel on it
+                if (sharedSession == null || config.isPreconnect() || now - lastActivity <= config.getKeepAliveTimeout()
+                        || idleChannels.size() != openChannels) {
+                    return;
+                }
+                discardIdleChannels();
+            }
+            releaseSession();
+            LOGGER.info(String.format("Released sftp session %s@%s no messages in last %d ms",
+                    config.getUsername(), config.getHost(), now - lastActivity));
+        }
+    }
+
+    /**
+     * @return number of channels currently open, both borrowed and idle
+     */
+    public synchronized int getOpenChannels() {
+        return openChannels;
+    }
+
+    /**
+     * @return number of channels currently waiting in the pool
+     */
+    public synchronized int getIdleChannels() {
+        return idleChannels.size();
+    }
+
+    /**
+     * @return number of channels currently borrowed, or being opened for a borrower
+     */
+    public synchronized int getBusyChannels() {
+        return openChannels - idleChannels.size();
+    }
+
+    /**
+     * @return number of channels currently borrowed in a lane
+     */
+    public synchronized int getBusyChannels(Lane lane) {
+        return laneBusy[lane.ordinal()];
+    }
+
+    /**
+     * @return number of callers currently waiting for a channel in a lane
+     */
+    public synchronized int getWaitingBorrowers(Lane lane) {
+        return laneWaiting[lane.ordinal()];
+    }
+
+    /**
+     * @return the maximum number of channels this pool can open at the same time. A pool never opens more
+     * channels than a session may carry
+     */
+    public int getMaxSize() {
+        return Math.max(1, Math.min(config.getPoolMaxSize(), config.getSessionMaxChannels()));
+    }
+
+    /**
+     * @return the maximum number of channels that can be borrowed in a lane at the same time. Transfers
+     * leave at least one channel of the pool to metadata operations, unless the pool has a single channel
+     */
+    public int getMaxSize(Lane lane) {
+        if (lane == Lane.TRANSFER) {
+            return Math.max(1, Math.min(config.getTransferChannels(), getMaxSize() - 1));
+        }
+        return Math.max(1, Math.min(config.getMetadataChannels(), getMaxSize()));
+    }
+
+    /**
+     * @return bytes per second transferred by this pool, averaged over the last few seconds
+     */
+    public double getTransferRate() {
+        return bandwidthLimiter.getEffectiveRate();
+    }
+
+    /**
+     * @return bytes per second transferred by all the pools connecting to the host and port of this pool
+     */
+    public double getEndpointTransferRate() {
+        return endpointBandwidthLimiter.getEffectiveRate();
+    }
+
+    /**
+     * @return bytes per second transferred by all the pools
+     */
+    public double getGlobalTransferRate() {
+        return globalBandwidthLimiter.getEffectiveRate();
+    }
+
+    /**
+     * @return true if the pool has a connected session
+     */
+    public boolean isConnected() {
+        synchronized (sessionLock) {
+            return session != null && session.isConnected();
+        }
+    }
+
+    /**
+     * @return state of the circuit breaker guarding connections to the endpoint of this pool
+     */
+    public CircuitBreaker.State getCircuitState() {
+        return SftpSessionRegistry.getCircuitBreaker(config).getState();
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Closes all the idle channels and the underlying session. Borrowed channels are closed once released.
+     */
+    @Override
+    public void close() {
+        deadlineTask.cancel(false);
+        boolean wasClosed;
+        synchronized (this) {
+            wasClosed = closed;
+            closed = true;
+            discardIdleChannels();
+            notifyAll();
+        }
+        synchronized (sessionLock) {
+            releaseSession();
+        }
+        if (!wasClosed) {
+            BandwidthRegistry.releaseEndpoint(config, config.getEndpointRateLimit());
+            BandwidthRegistry.releaseGlobal(config.getGlobalRateLimit());
+        }
+    }
+
+    /**
+     * Disconnects the borrowed channels whose deadline has passed. The operation using the channel fails,
+     * and the channel is discarded once it's given back
+     */
+    private void expireDeadlines() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<ChannelSftp, Deadline> entry : deadlines.entrySet()) {
+            Deadline deadline = entry.getValue();
+            if (deadline.expiresAt <= now && deadlines.remove(entry.getKey(), deadline)) {
+                LOGGER.warn(String.format("Sftp operation on %s@%s did not complete within %d ms, closing its channel",
+                        config.getUsername(), config.getHost(), deadline.timeout));
+                entry.getKey().disconnect();
+            }
+        }
+    }
+
+    /**
+     * Waits until the lane is below its limit, and counts the caller in it
+     */
+    private synchronized void acquireLane(Lane lane, long deadline) throws SftpException {
+        while (laneBusy[lane.ordinal()] >= getMaxSize(lane)) {
+            if (closed) {
+                throw new SftpException("The sftp connection pool is closed");
+            }
+            await(lane, deadline);
+        }
+        laneBusy[lane.ordinal()]++;
+    }
+
+    /**
+     * Stops counting a channel given back in its lane. Must be called while holding the pool lock.
+     */
+    private void releaseLane(ChannelSftp channel) {
+        Lane lane = borrowedLanes.remove(channel);
+        if (lane != null) {
+            laneBusy[lane.ordinal()]--;
+        }
+    }
+
+    /**
+     * Waits for a channel to be given back. Must be called while holding the pool lock.
+     */
+    private void await(Lane lane, long deadline) throws SftpException {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+            throw new SftpException(String.format("Timed out waiting for a free sftp %s channel to %s@%s",
+                    lane.name().toLowerCase(), config.getUsername(), config.getHost()));
+        }
+        laneWaiting[lane.ordinal()]++;
+        try {
+            wait(remaining);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SftpException("Interrupted while waiting for a free sftp channel", e);
+        } finally {
+            laneWaiting[lane.ordinal()]--;
+        }
+    }
+
+    /**
+     * Takes the most recently used idle channel, or reserves a slot for a new channel if none is idle.
+     *
+     * @return the idle channel, or null if a slot was reserved instead
+     */
+    private synchronized PooledChannel takeIdleOrReserve(Lane lane, long deadline) throws SftpException {
+        while (true) {
+            if (closed) {
+                throw new SftpException("The sftp connection pool is closed");
+            }
+            lastActivity = System.currentTimeMillis();
+            PooledChannel pooled = idleChannels.pollFirst();
+            if (pooled != null) {
+                return pooled;
+            }
+            if (openChannels < getMaxSize()) {
+                openChannels++;
+                return null;
+            }
+            await(lane, deadline);
+        }
+    }
+
+    private ChannelSftp openChannel() throws SftpException {
+        synchronized (sessionLock) {
+            try {
+                if (sharedSession == null) {
+                    reservedChannels = getMaxSize();
+                    sharedSession = SftpSessionRegistry.acquire(config, reservedChannels);
+                }
+                // another pool may have already reconnected the shared session
+                long connectStart = System.nanoTime();
+                Session current;
+                try {
+                    current = sharedSession.connect(config);
+                } catch (JSchException e) {
+                    metrics.record("sessionConnect", System.nanoTime() - connectStart, false);
+                    throw e;
+                }
+                if (current != session) {
+                    // includes the time spent waiting for another pool that was already connecting
+                    metrics.record("sessionConnect", System.nanoTime() - connectStart, true);
+                    // channels opened on the previous session are useless now
+                    discardIdleChannels();
+                    session = current;
+                    prewarm();
+                }
+                return connectChannel();
+            } catch (JSchException e) {
+                LOGGER.error("Failed to open sftp channel " + e.getMessage(), e);
+                throw new SftpException("Failed to open sftp channel " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Opens channels up to the configured minimum pool size on a freshly created session
+     */
+    private void prewarm() throws JSchException {
+        while (true) {
+            synchronized (this) {
+                if (openChannels >= config.getPoolMinSize() || openChannels >= getMaxSize()) {
+                    return;
+                }
+                openChannels++;
+            }
+            ChannelSftp channel;
+            try {
+                channel = connectChannel();
+            } catch (JSchException e) {
+                synchronized (this) {
+                    openChannels--;
+                }
+                throw e;
+            }
+            release(channel);
+        }
+    }
+
+    private ChannelSftp connectChannel() throws JSchException {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            ChannelSftp channel = (ChannelSftp) session.openChannel("sftp");
+            channel.connect(config.getConnectionTimeout());
+            success = true;
+            return channel;
+        } finally {
+            metrics.record("channelConnect", System.nanoTime() - start, success);
+        }
+    }
+
+    /**
+     * Gives back the reference to the shared session. Must be called while holding the session lock.
+     */
+    private void releaseSession() {
+        if (sharedSession != null) {
+            SftpSessionRegistry.release(sharedSession, reservedChannels);
+            sharedSession = null;
+            session = null;
+        }
+    }
+
+    private synchronized void discardIdleChannels() {
+        for (PooledChannel pooled : idleChannels) {
+            destroy(pooled.channel);
+        }
+        idleChannels.clear();
+    }
+
+    private boolean isValid(PooledChannel pooled) {
+        try {
+            if (!pooled.channel.isConnected() || !pooled.channel.getSession().isConnected()) {
+                return false;
+            }
+            if (System.currentTimeMillis() - pooled.idleSince > VALIDATION_IDLE_TIME) {
+                // a cheap round trip, to detect connections silently dropped by the server or a firewall
+                pooled.channel.realpath(".");
+            }
+            return true;
+        } catch (JSchException | com.jcraft.jsch.SftpException e) {
+            LOGGER.debug("Discarding broken sftp channel " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Disconnects a channel and frees its slot. Must be called while holding the pool lock.
+     */
+    private void destroy(ChannelSftp channel) {
+        openChannels--;
+        channel.disconnect();
+    }
+
+    /**
+     * The kinds of operations channels are borrowed for, each with its own limit of channels
+     */
+    public enum Lane {
+        /**
+         * Short operations, like listings, file information, moves and deletions
+         */
+        METADATA("borrowMetadataChannel"),
+        /**
+         * Downloads and uploads, which can hold a channel for a long time
+         */
+        TRANSFER("borrowTransferChannel");
+
+        private final String metricName;
+
+        Lane(String metricName) {
+            this.metricName = metricName;
+        }
+    }
+
+    private static class PooledChannel {
+        private final ChannelSftp channel;
+        private final long idleSince = System.currentTimeMillis();
+
+        private PooledChannel(ChannelSftp channel) {
+            this.channel = channel;
+        }
+    }
+
+    /**
+     * Paces a transfer within the limits of this pool, its endpoint and the process, and renews the deadline
+     * of its channel as the data moves
+     */
+    private class ThrottledMonitor implements SftpProgressMonitor {
+        private final ChannelSftp channel;
+        private final Deadline deadline;
+        /**
+         * The transfer, as seen by the limiter of this pool. Concurrent transfers of the pool share its rate equally
+         */
+        private final BandwidthLimiter.Flow flow = new BandwidthLimiter.Flow(1);
+
+        private ThrottledMonitor(ChannelSftp channel, Deadline deadline) {
+            this.channel = channel;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public void init(int op, String src, String dest, long max) {
+            if (deadline != null) {
+                deadline.init(op, src, dest, max);
+            }
+        }
+
+        @Override
+        public boolean count(long count) {
+            Runnable heartbeat = () -> renewDeadline(channel);
+            try {
+                bandwidthLimiter.acquire(flow, count, heartbeat);
+                endpointBandwidthLimiter.acquire(bandwidthFlow, count, heartbeat);
+                globalBandwidthLimiter.acquire(bandwidthFlow, count, heartbeat);
+            } catch (InterruptedException e) {
+                // returning false would make jsch end the transfer quietly, as if it was complete
+                Thread.currentThread().interrupt();
+            }
+            return deadline == null || deadline.count(count);
+        }
+
+        @Override
+        public void end() {
+            if (deadline != null) {
+                deadline.end();
+            }
+        }
+    }
+
+    private static class Deadline implements SftpProgressMonitor {
+        private final long timeout;
+        private volatile long expiresAt;
+
+        private Deadline(long timeout) {
+            this.timeout = timeout;
+            renew();
+        }
+
+        private void renew() {
+            expiresAt = System.currentTimeMillis() + timeout;
+        }
+
+        @Override
+        public void init(int op, String src, String dest, long max) {
+            renew();
+        }
+
+        @Override
+        public boolean count(long count) {
+            renew();
+            return true;
+        }
+
+        @Override
+        public void end() {
+        }
+    }
+}
@@ -8,49 +8,93 @@ import com.thingworx.logging.LogUtilities;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 
-import java.io.ByteArrayInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * A implementation of the SftpRepository based on the Jsch library
+ * A implementation of the SftpRepository based on the Jsch library.
+ * Every operation runs on a channel borrowed from the pool with a deadline. Transfers only expire when no data
+ * moved for the transfer timeout, while the other operations expire when they take longer than the operation timeout.
  */
 public class SftpFileRepositoryImpl implements SftpRepository {
     private static final Logger LOGGER = LogUtilities.getInstance().getApplicationLogger(SftpRepositoryThing.class);
+    private static final int SEGMENT_BUFFER_SIZE = 64 * 1024;
+    private static final long RETRY_DELAY = 2 * 1000;
 
-    private final Session session;
-    private final ChannelSftp channel;
-    private boolean isDisconnected;
+    private final SftpChannelPool pool;
+    private final AtomicReference<String> workingDirectory;
+    private final long operationTimeout;
+    private final long transferTimeout;
+    private final TransferProgress progress;
 
-    public SftpFileRepositoryImpl(SftpConfiguration config) throws SftpException {
-        try {
-            JSch jSch = new JSch();
-            // attempt to load the private key
-            if (config.getPrivateKey() != null && !"".equals(config.getPassphrase())) {
-                // get the passphrase as a byte array
-                byte[] passphraseBytes = config.getPassphrase() != null ? config.getPassphrase().getBytes() : null;
-                // the private key as a byte array
-                byte[] privateKeyBytes = config.getPrivateKey().getBytes();
-                // add the identity
-                jSch.addIdentity(config.getUsername(), privateKeyBytes, null, passphraseBytes);
-            }
-            // create a session
-            session = jSch.getSession(config.getUsername(), config.getHost(), config.getPort());
-            // accept all hosts, don't require a known_hosts list
-            session.setConfig("StrictHostKeyChecking", "no");
-            session.setPassword(config.getPassword());
+    /**
+     * @param pool             where the channels are borrowed from
+     * @param operationTimeout time (milliseconds) a metadata operation may take, 0 for no limit
+     * @param transferTimeout  time (milliseconds) a transfer may go without progress, 0 for no limit
+     */
+    public SftpFileRepositoryImpl(SftpChannelPool pool, long operationTimeout, long transferTimeout) {
+        this(pool, new AtomicReference<>(), operationTimeout, transferTimeout, null);
+    }
 
-            session.connect(config.getConnectionTimeout());
-            channel = (ChannelSftp) session.openChannel("sftp");
-            channel.connect(config.getConnectionTimeout());
+    private SftpFileRepositoryImpl(SftpChannelPool pool, AtomicReference<String> workingDirectory,
+                                   long operationTimeout, long transferTimeout, TransferProgress progress) {
+        this.pool = pool;
+        this.workingDirectory = workingDirectory;
+        this.operationTimeout = operationTimeout;
+        this.transferTimeout = transferTimeout;
+        this.progress = progress;
+    }
 
-        } catch (JSchException e) {
-            LOGGER.error("Failed to create session " + e.getMessage(), e);
-            throw new SftpException("Failed to create session" + e.getMessage(), e);
-        }
+    /**
+     * The view shares the channel pool and the working directory with this repository
+     */
+    @Override
+    public SftpRepository withTimeout(long timeout) {
+        return new SftpFileRepositoryImpl(pool, workingDirectory, timeout, timeout, progress);
+    }
+
+    /**
+     * The view shares the channel pool and the working directory with this repository
+     */
+    @Override
+    public SftpRepository withProgress(TransferProgress progress) {
+        return new SftpFileRepositoryImpl(pool, workingDirectory, operationTimeout, transferTimeout, progress);
     }
 
     /**
@@ -60,6 +104,15 @@ public class SftpFileRepositoryImpl implements SftpRepository {
      */
     @Override
     public boolean createFolder(String path) throws SftpException {
+        ChannelSftp channel = borrowChannel();
+        try {
+            return createFolder(channel, path);
+        } finally {
+            pool.release(channel);
+        }
+    }
+
+    private boolean createFolder(ChannelSftp channel, String path) throws SftpException {
         try {
             channel.mkdir(path);
         } catch (com.jcraft.jsch.SftpException e) {
@@ -78,9 +131,12 @@ public class SftpFileRepositoryImpl implements SftpRepository {
      */
     @Override
     public void renameFile(String filePath, String newName, boolean overwrite) throws SftpException {
+        moveFile(filePath, getRenamedPath(filePath, newName), overwrite);
+    }
+
+    private static String getRenamedPath(String filePath, String newName) {
         // build the new file path
-        String newFilePath = Paths.get(filePath).getParent().resolve(newName).toString().replace("\\", "/");
-        moveFile(filePath, newFilePath, overwrite);
+        return Paths.get(filePath).getParent().resolve(newName).toString().replace("\\", "/");
     }
 
     /**
@@ -92,6 +148,16 @@ public class SftpFileRepositoryImpl implements SftpRepository {
      */
     @Override
     public void moveFile(String sourcePath, String targetPath, boolean overwrite) throws SftpException {
+        ChannelSftp channel = borrowChannel();
+        try {
+            moveFile(channel, sourcePath, targetPath, overwrite);
+        } finally {
+            pool.release(channel);
+        }
+    }
+
+    private void moveFile(ChannelSftp channel, String sourcePath, String targetPath, boolean overwrite)
+            throws SftpException {
         if (!overwrite) {
             // check if the file exists
             try {
@@ -140,6 +206,7 @@ public class SftpFileRepositoryImpl implements SftpRepository {
 
     private List<FileSystemFile> listFiles(String directoryPath, boolean filterDirectories, boolean filterFiles)
             throws SftpException {
+        ChannelSftp channel = borrowChannel();
         try {
             Vector<ChannelSftp.LsEntry> vv = channel.ls(directoryPath);
 
@@ -151,17 +218,7 @@ public class SftpFileRepositoryImpl implements SftpRepository {
                     // if it's a file and we don't have filter flag for files set, then add it
                     // if it's a folder and we don't have the filter flag for folders set, then add it
                     if ((!isDirectory && !filterFiles) || (!filterDirectories && isDirectory)) {
-                        FileSystemFile file = new FileSystemFile();
-                        file.setName(currentElement.getFilename());
-                        file.setIsDirectory(isDirectory);
-                        file.setSize(currentElement.getAttrs().getSize());
-                        file.setDateTime(new DateTime(currentElement.getAttrs().getMTime() * 1000L, DateTimeZone.UTC));
-                        if (!directoryPath.equals("/")) {
-                            file.setPath(directoryPath + "/" + currentElement.getFilename());
-                        } else {
-                            file.setPath("/" + currentElement.getFilename());
-                        }
-                        files.add(file);
+                        files.add(toFileSystemFile(directoryPath, currentElement));
                     }
                 }
                 LOGGER.info("found " + files.size() + " files");
@@ -172,6 +229,179 @@ public class SftpFileRepositoryImpl implements SftpRepository {
         } catch (com.jcraft.jsch.SftpException | NullPointerException e) {
             throw new SftpException(String.format("Failed to list files in %s, exception: %s",
                     directoryPath, e.getMessage()), e);
+        } finally {
+            pool.release(channel);
+        }
+    }
+
+    /**
+     * Lists a page of the entries of a directory that meet the given criteria. Entries are checked as
+     * jsch receives them, and only the best offset + limit entries are kept in a bounded heap, so rejected
+     * entries never become FileSystemFile objects
+     *
+     * @param directoryPath directory path to list
+     * @param filter        criteria of the entries to return
+     * @param sort          attribute to sort the entries by
+     * @param descending    sort in descending order
+     * @param offset        number of sorted entries to skip
+     * @param limit         maximum number of entries to return, 0 for no limit
+     * @return the requested page of the matching entries
+     */
+    @Override
+    public List<FileSystemFile> listFiles(String directoryPath, ListingFilter filter, ListingSort sort,
+                                          boolean descending, int offset, int limit) throws SftpException {
+        Comparator<ChannelSftp.LsEntry> comparator = entryComparator(sort, descending);
+        offset = Math.max(0, offset);
+        int keep = limit > 0 ? (int) Math.min(Integer.MAX_VALUE, (long) offset + limit) : Integer.MAX_VALUE;
+        // the head of the heap is the worst entry kept so far, the first one to drop
+        PriorityQueue<ChannelSftp.LsEntry> heap = new PriorityQueue<>(Math.min(keep, 1024), comparator.reversed());
+        int[] matched = new int[1];
+        ChannelSftp channel = borrowChannel();
+        try {
+            channel.ls(directoryPath, entry -> {
+                String name = entry.getFilename();
+                SftpATTRS attrs = entry.getAttrs();
+                if (".".equals(name) || "..".equals(name)
+                        || !filter.accepts(name, attrs.isDir(), attrs.getSize(), attrs.getMTime() * 1000L)) {
+                    return ChannelSftp.LsEntrySelector.CONTINUE;
+                }
+                matched[0]++;
+                heap.add(entry);
+                if (heap.size() > keep) {
+                    heap.poll();
+                }
+                return ChannelSftp.LsEntrySelector.CONTINUE;
+            });
+        } catch (com.jcraft.jsch.SftpException e) {
+            throw new SftpException(String.format("Failed to list files in %s, exception: %s",
+                    directoryPath, e.getMessage()), e);
+        } finally {
+            pool.release(channel);
+        }
+        List<ChannelSftp.LsEntry> entries = new ArrayList<>(heap);
+        entries.sort(comparator);
+        List<FileSystemFile> files = new ArrayList<>(Math.max(0, entries.size() - offset));
+        for (int i = offset; i < entries.size(); i++) {
+            files.add(toFileSystemFile(directoryPath, entries.get(i)));
+        }
+        LOGGER.info(String.format("found %d matching files in %s, returning %d", matched[0], directoryPath,
+                files.size()));
+        return files;
+    }
+
+    private static Comparator<ChannelSftp.LsEntry> entryComparator(ListingSort sort, boolean descending) {
+        Comparator<ChannelSftp.LsEntry> byName = Comparator.comparing(ChannelSftp.LsEntry::getFilename);
+        Comparator<ChannelSftp.LsEntry> comparator;
+        switch (sort) {
+            case SIZE:
+                comparator = Comparator.<ChannelSftp.LsEntry>comparingLong(e -> e.getAttrs().getSize()).thenComparing(byName);
+                break;
+            case LAST_MODIFIED:
+                comparator = Comparator.<ChannelSftp.LsEntry>comparingLong(e -> e.getAttrs().getMTime()).thenComparing(byName);
+                break;
+            default:
+                comparator = byName;
+        }
+        return descending ? comparator.reversed() : comparator;
+    }
+
+    private static FileSystemFile toFileSystemFile(String directoryPath, ChannelSftp.LsEntry entry) {
+        FileSystemFile file = new FileSystemFile();
+        file.setName(entry.getFilename());
+        file.setIsDirectory(entry.getAttrs().isDir());
+        file.setSize(entry.getAttrs().getSize());
+        file.setDateTime(new DateTime(entry.getAttrs().getMTime() * 1000L, DateTimeZone.UTC));
+        file.setPath(childPath(directoryPath, entry.getFilename()));
+        return file;
+    }
+
+    private static String childPath(String directoryPath, String name) {
+        if (!directoryPath.equals("/")) {
+            return directoryPath + "/" + name;
+        } else {
+            return "/" + name;
+        }
+    }
+
+    /**
+     * Walks a directory tree breadth first, listing the directories of each level concurrently
+     * over several pooled channels. Workers beyond the first are only added while the pool has free channels.
+     * Symbolic links are not followed
+     *
+     * @param directoryPath directory where to start
+     * @param maxDepth      number of levels to descend, 1 being the directory itself. 0 for no limit
+     * @param filter        criteria of the entries to return. Directories are walked even if not returned
+     * @return all the entries in the tree that meet the criteria
+     */
+    @Override
+    public List<FileSystemFile> walkDirectory(String directoryPath, int maxDepth, ListingFilter filter)
+            throws SftpException {
+        long start = System.currentTimeMillis();
+        Queue<FileSystemFile> results = new ConcurrentLinkedQueue<>();
+        String root = directoryPath.length() > 1 && directoryPath.endsWith("/")
+                ? directoryPath.substring(0, directoryPath.length() - 1) : directoryPath;
+        List<String> level = Collections.singletonList(root);
+        int directories = 0;
+        for (int depth = 1; !level.isEmpty() && (maxDepth <= 0 || depth <= maxDepth); depth++) {
+            Queue<String> pending = new ConcurrentLinkedQueue<>(level);
+            Queue<String> nextLevel = maxDepth <= 0 || depth < maxDepth ? new ConcurrentLinkedQueue<>() : null;
+            ParallelWork work = new ParallelWork();
+            int workers = Math.min(level.size(), pool.getMaxSize(SftpChannelPool.Lane.METADATA));
+            for (int i = 0; i < workers; i++) {
+                boolean first = i == 0;
+                // each worker keeps its channel for all the directories it lists
+                work.submit(() -> {
+                    ChannelSftp channel = first ? borrowChannel() : tryBorrowChannel();
+                    if (channel == null) {
+                        return;
+                    }
+                    try {
+                        String directory;
+                        while (!work.isAborted() && (directory = pending.poll()) != null) {
+                            pool.renewDeadline(channel);
+                            walkListing(channel, directory, directory.equals(root), filter, results, nextLevel);
+                        }
+                    } finally {
+                        pool.release(channel);
+                    }
+                });
+            }
+            work.await();
+            directories += level.size();
+            level = nextLevel != null ? new ArrayList<>(nextLevel) : Collections.emptyList();
+        }
+        LOGGER.info(String.format("Walked %d directories under %s in %d ms, found %d files", directories,
+                directoryPath, System.currentTimeMillis() - start, results.size()));
+        return new ArrayList<>(results);
+    }
+
+    /**
+     * Lists a single directory of a walk. The entries are handled as they are received, without building a list
+     */
+    private void walkListing(ChannelSftp channel, String directory, boolean isRoot, ListingFilter filter,
+                             Queue<FileSystemFile> results, Queue<String> subdirectories) throws SftpException {
+        try {
+            channel.ls(directory, entry -> {
+                String name = entry.getFilename();
+                if (".".equals(name) || "..".equals(name)) {
+                    return ChannelSftp.LsEntrySelector.CONTINUE;
+                }
+                SftpATTRS attrs = entry.getAttrs();
+                if (attrs.isDir() && subdirectories != null) {
+                    subdirectories.add(childPath(directory, name));
+                }
+                if (filter.accepts(name, attrs.isDir(), attrs.getSize(), attrs.getMTime() * 1000L)) {
+                    results.add(toFileSystemFile(directory, entry));
+                }
+                return ChannelSftp.LsEntrySelector.CONTINUE;
+            });
+        } catch (com.jcraft.jsch.SftpException e) {
+            if (isRoot || (e.id != ChannelSftp.SSH_FX_PERMISSION_DENIED && e.id != ChannelSftp.SSH_FX_NO_SUCH_FILE)) {
+                throw new SftpException(String.format("Failed to list files in %s, exception: %s",
+                        directory, e.getMessage()), e);
+            }
+            // directories that are not readable, or were removed meanwhile, are skipped
+            LOGGER.warn(String.format("Skipping directory %s: %s", directory, e.getMessage()));
         }
     }
 
@@ -194,6 +424,7 @@ public class SftpFileRepositoryImpl implements SftpRepository {
      */
     @Override
     public FileSystemFile getFileInfo(String filePath) throws SftpException {
+        ChannelSftp channel = borrowChannel();
         try {
             SftpATTRS attrs = channel.stat(filePath);
             FileSystemFile file = new FileSystemFile();
@@ -208,6 +439,8 @@ public class SftpFileRepositoryImpl implements SftpRepository {
                     filePath, e.getMessage()), e);
             throw new SftpException(String.format("Failed to get file info for %s, exception: %s",
                     filePath, e.getMessage()), e);
+        } finally {
+            pool.release(channel);
         }
     }
 
@@ -219,13 +452,129 @@ public class SftpFileRepositoryImpl implements SftpRepository {
      */
     @Override
     public boolean deleteFile(String filePath) throws SftpException {
-        FileSystemFile file = getFileInfo(filePath);
+        ChannelSftp channel = borrowChannel();
+        boolean isDirectory;
         try {
-            if (file.isDirectory()) {
-                removeFolder(filePath);
+            isDirectory = isDirectory(channel, filePath);
+            if (!isDirectory) {
+                deleteFile(channel, filePath);
+            }
+        } finally {
+            pool.release(channel);
+        }
+        if (isDirectory) {
+            // deleting a tree borrows channels itself
+            deleteFolder(filePath);
+        }
+        return true;
+    }
+
+    /**
+     * Deletes a folder with all its contents. The tree is listed once, then all the files are deleted
+     * concurrently over several pooled channels, and the directories are removed deepest level first
+     *
+     * @param directoryPath the folder to delete
+     * @return how many files and directories were deleted
+     */
+    @Override
+    public DeleteResult deleteFolder(String directoryPath) throws SftpException {
+        long start = System.currentTimeMillis();
+        ListingFilter everything = new ListingFilter();
+        List<FileSystemFile> entries = walkDirectory(directoryPath, 0, everything);
+        Queue<String> files = new ConcurrentLinkedQueue<>();
+        // directories grouped by depth, deepest first
+        TreeMap<Integer, Queue<String>> directories = new TreeMap<>(Comparator.reverseOrder());
+        for (FileSystemFile entry : entries) {
+            if (entry.isDirectory()) {
+                directories.computeIfAbsent(getDepth(entry.getPath()), depth -> new ConcurrentLinkedQueue<>())
+                        .add(entry.getPath());
             } else {
-                channel.rm(filePath);
+                files.add(entry.getPath());
+            }
+        }
+        int fileCount = files.size();
+        deleteConcurrently(files, false);
+        int directoryCount = 1;
+        for (Queue<String> level : directories.values()) {
+            directoryCount += level.size();
+            deleteConcurrently(level, true);
+        }
+        ChannelSftp channel = borrowChannel();
+        try {
+            channel.rmdir(directoryPath);
+        } catch (com.jcraft.jsch.SftpException e) {
+            throw new SftpException(String.format("Failed to delete folder %s exception: %s",
+                    directoryPath, e.getMessage()), e);
+        } finally {
+            pool.release(channel);
+        }
+        DeleteResult result = new DeleteResult(directoryPath, fileCount, directoryCount,
+                System.currentTimeMillis() - start);
+        LOGGER.info(String.format("Deleted %s with %d files and %d directories in %d ms", directoryPath,
+                result.getFiles(), result.getDirectories(), result.getDurationMillis()));
+        return result;
+    }
+
+    /**
+     * Removes files, or empty directories, over as many pooled channels as are free
+     */
+    private void deleteConcurrently(Queue<String> paths, boolean directories) throws SftpException {
+        ParallelWork work = new ParallelWork();
+        int workers = Math.min(paths.size(), pool.getMaxSize(SftpChannelPool.Lane.METADATA));
+        for (int i = 0; i < workers; i++) {
+            boolean first = i == 0;
+            work.submit(() -> {
+                ChannelSftp channel = first ? borrowChannel() : tryBorrowChannel();
+                if (channel == null) {
+                    return;
+                }
+                try {
+                    String path;
+                    while (!work.isAborted() && (path = paths.poll()) != null) {
+                        pool.renewDeadline(channel);
+                        try {
+                            if (directories) {
+                                channel.rmdir(path);
+                            } else {
+                                channel.rm(path);
+                            }
+                        } catch (com.jcraft.jsch.SftpException e) {
+                            throw new SftpException(String.format("Failed to delete %s exception: %s",
+                                    path, e.getMessage()), e);
+                        }
+                    }
+                } finally {
+                    pool.release(channel);
+                }
+            });
+        }
+        work.await();
+    }
+
+    private static int getDepth(String path) {
+        int depth = 0;
+        for (int i = 0; i < path.length(); i++) {
+            if (path.charAt(i) == '/') {
+                depth++;
             }
+        }
+        return depth;
+    }
+
+    private boolean isDirectory(ChannelSftp channel, String filePath) throws SftpException {
+        try {
+            return channel.stat(filePath).isDir();
+        } catch (com.jcraft.jsch.SftpException e) {
+            LOGGER.warn(String.format("Failed to get file info for %s, exception: %s",
+                    filePath, e.getMessage()), e);
+            throw new SftpException(String.format("Failed to get file info for %s, exception: %s",
+                    filePath, e.getMessage()), e);
+        }
+    }
+
+    private boolean deleteFile(ChannelSftp channel, String filePath) throws SftpException {
+        try {
+            channel.rm(filePath);
         } catch (com.jcraft.jsch.SftpException e) {
             LOGGER.error(String.format("Failed to delete file %s exception: %s",
                     filePath, e.getMessage()), e);
@@ -235,6 +584,90 @@ public class SftpFileRepositoryImpl implements SftpRepository {
         return true;
     }
 
+    /**
+     * Executes many file operations concurrently. Each worker keeps one pooled channel for all the
+     * operations it executes. A failed operation does not stop the others
+     *
+     * @param operations  the operations to execute
+     * @param concurrency maximum number of operations executed at the same time
+     * @return the outcome of every operation, in the same order as the operations
+     */
+    @Override
+    public List<BatchResult> executeBatch(List<BatchOperation> operations, int concurrency) throws SftpException {
+        long start = System.currentTimeMillis();
+        BatchResult[] results = new BatchResult[operations.size()];
+        AtomicInteger nextOperation = new AtomicInteger();
+        int maxWorkers = pool.getMaxSize(SftpChannelPool.Lane.METADATA);
+        int workers = Math.min(concurrency > 0 ? Math.min(concurrency, maxWorkers) : maxWorkers, operations.size());
+        ParallelWork work = new ParallelWork();
+        for (int i = 0; i < workers; i++) {
+            work.submit(() -> {
+                ChannelSftp channel = null;
+                try {
+                    int index;
+                    while (!work.isAborted() && (index = nextOperation.getAndIncrement()) < operations.size()) {
+                        if (channel == null) {
+                            channel = borrowChannel();
+                        } else {
+                            pool.renewDeadline(channel);
+                        }
+                        BatchOperation operation = operations.get(index);
+                        long operationStart = System.currentTimeMillis();
+                        try {
+                            if (operation.getType() == BatchOperation.Type.DELETE
+                                    && isDirectory(channel, operation.getPath())) {
+                                // deleting a tree borrows channels itself, so this one is given back meanwhile
+                                pool.release(channel);
+                                channel = null;
+                                deleteFolder(operation.getPath());
+                            } else {
+                                executeOperation(channel, operation);
+                            }
+                            results[index] = new BatchResult(operation, true, null,
+                                    System.currentTimeMillis() - operationStart);
+                        } catch (SftpException e) {
+                            results[index] = new BatchResult(operation, false, e.getMessage(),
+                                    System.currentTimeMillis() - operationStart);
+                            if (channel != null && !channel.isConnected()) {
+                                // the connection broke, continue on a new one
+                                pool.release(channel);
+                                channel = null;
+                            }
+                        }
+                    }
+                } finally {
+                    if (channel != null) {
+                        pool.release(channel);
+                    }
+                }
+            });
+        }
+        work.await();
+        LOGGER.info(String.format("Executed %d operations with %d workers in %d ms", operations.size(), workers,
+                System.currentTimeMillis() - start));
+        return Arrays.asList(results);
+    }
+
+    private void executeOperation(ChannelSftp channel, BatchOperation operation) throws SftpException {
+        switch (operation.getType()) {
+            case MOVE:
+                moveFile(channel, operation.getPath(), operation.getTarget(), operation.isOverwrite());
+                break;
+            case RENAME:
+                moveFile(channel, operation.getPath(), getRenamedPath(operation.getPath(), operation.getTarget()),
+                        operation.isOverwrite());
+                break;
+            case DELETE:
+                deleteFile(channel, operation.getPath());
+                break;
+            case CREATE_FOLDER:
+                createFolder(channel, operation.getPath());
+                break;
+            default:
+                throw new SftpException("Unsupported operation " + operation.getType());
+        }
+    }
+
     /**
      * Download a file from the remote filesystem
      *
@@ -243,93 +676,885 @@ public class SftpFileRepositoryImpl implements SftpRepository {
      */
     @Override
     public ByteArrayOutputStream downloadFile(String filePath) throws SftpException {
-        // first check if the file exists
         ByteArrayOutputStream out = new ByteArrayOutputStream();
+        downloadFile(filePath, out);
+        return out;
+    }
+
+    /**
+     * Download a file from the remote filesystem, writing it to the given stream as it is received
+     *
+     * @param filePath file to download specified by the full path
+     * @param out      where to write the file contents. It is not closed
+     */
+    @Override
+    public void downloadFile(String filePath, OutputStream out) throws SftpException {
+        // first check if the file exists
+        FileSystemFile file = getFileInfo(filePath);
+        if (file.isDirectory()) {
+            throw new SftpException("Cannot download an entire folder");
+        }
+        ChannelSftp channel = borrowTransferChannel();
         try {
-            FileSystemFile file = getFileInfo(filePath);
-            if (file.isDirectory()) {
-                throw new SftpException("Cannot download an entire folder");
-            }
-            channel.get(filePath, out);
+            channel.get(filePath, out, getProgressMonitor(channel));
+            checkCancelled(filePath);
         } catch (com.jcraft.jsch.SftpException e) {
             LOGGER.error(String.format("Failed to download file %s exception: %s",
                     filePath, e.getMessage()), e);
             throw new SftpException(String.format("Failed to download file %s exception: %s",
                     filePath, e.getMessage()), e);
+        } finally {
+            pool.release(channel);
         }
-        return out;
     }
 
     /**
-     * Upload a file to the remote filesystem
+     * Download a file from the remote filesystem into a local file, fetching byte ranges of the file
+     * concurrently over several pooled channels. A temporary local file is preallocated, and each range
+     * is written at its own offset
      *
-     * @param inputStream the file to upload represented as input file stream
+     * @param filePath       file to download specified by the full path
+     * @param targetFile     local file where to write the contents. It is created, or replaced once the download
+     *                       is complete
+     * @param maxSegments    maximum number of ranges to fetch in parallel
+     * @param minSegmentSize the file is not split in ranges smaller than this number of bytes
+     * @return Information about the completed transfer
+     */
+    @Override
+    public TransferResult downloadFile(String filePath, File targetFile, int maxSegments, long minSegmentSize)
+            throws SftpException {
+        long start = System.currentTimeMillis();
+        FileSystemFile file = getFileInfo(filePath);
+        if (file.isDirectory()) {
+            throw new SftpException("Cannot download an entire folder");
+        }
+        long size = (long) file.getSize();
+        // there is no point in having more ranges than channels
+        SegmentedTransfer transfer = new SegmentedTransfer(size,
+                SegmentedTransfer.segmentCount(size, Math.min(maxSegments, pool.getMaxSize(SftpChannelPool.Lane.TRANSFER)), minSegmentSize));
+        // an existing target file is only replaced once the download is complete
+        File partialFile = new File(targetFile.getAbsoluteFile().getParentFile(),
+                "." + targetFile.getName() + "." + UUID.randomUUID() + ".part");
+        try {
+            try (RandomAccessFile target = new RandomAccessFile(partialFile, "rw")) {
+                target.setLength(size);
+                FileChannel fileChannel = target.getChannel();
+                transfer.run((offset, length) -> downloadSegment(filePath, fileChannel, offset, length, transfer));
+            }
+            try {
+                Files.move(partialFile.toPath(), targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(partialFile.toPath(), targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            deletePartialFile(partialFile);
+            LOGGER.error(String.format("Failed to download file %s exception: %s", filePath, e.getMessage()), e);
+            throw new SftpException(String.format("Failed to download file %s exception: %s",
+                    filePath, e.getMessage()), e);
+        } catch (SftpException e) {
+            deletePartialFile(partialFile);
+            LOGGER.error(String.format("Failed to download file %s exception: %s", filePath, e.getMessage()), e);
+            throw e;
+        }
+        TransferResult result = new TransferResult(filePath, size, System.currentTimeMillis() - start,
+                transfer.getSegments());
+        LOGGER.info(String.format("Downloaded %s in %d segments at %.0f bytes/s", filePath,
+                result.getSegments(), result.getThroughput()));
+        return result;
+    }
+
+    /**
+     * Download a file from the remote filesystem into a local file, continuing a previous interrupted
+     * download of the same file if the remote file did not change since. Interrupted transfers are retried
+     * from the last byte received, which is the size of the partially downloaded local file.
+     *
+     * @param filePath   file to download specified by the full path
+     * @param targetFile local file where to write the contents
+     * @param maxRetries how many times to reconnect and continue after a connection failure
+     * @return Information about the completed transfer. Only the bytes transferred by this call are counted
+     */
+    @Override
+    public TransferResult downloadFileResumable(String filePath, File targetFile, int maxRetries)
+            throws SftpException {
+        long start = System.currentTimeMillis();
+        TransferCheckpoint checkpoint = TransferCheckpoint.load(targetFile);
+        long resumedFrom = -1;
+        long size;
+        for (int attempt = 0; ; attempt++) {
+            try {
+                FileSystemFile file = getFileInfo(filePath);
+                if (file.isDirectory()) {
+                    throw new SftpException("Cannot download an entire folder");
+                }
+                size = (long) file.getSize();
+                long modified = file.getDateTime().getMillis();
+                if (checkpoint == null || !checkpoint.matches(filePath, size, modified) || targetFile.length() > size) {
+                    // the remote file changed, or there is nothing to resume from
+                    deletePartialFile(targetFile);
+                    checkpoint = TransferCheckpoint.create(targetFile, filePath, size, modified);
+                }
+                long offset = targetFile.length();
+                if (resumedFrom < 0) {
+                    resumedFrom = offset;
+                }
+                checkpoint.setOffset(offset);
+                checkpoint.save();
+                downloadFrom(filePath, targetFile, offset);
+                break;
+            } catch (SftpException e) {
+                awaitRetry("download", filePath, e, attempt, maxRetries);
+            } catch (IOException e) {
+                LOGGER.error(String.format("Failed to download file %s exception: %s", filePath, e.getMessage()), e);
+                throw new SftpException(String.format("Failed to download file %s exception: %s",
+                        filePath, e.getMessage()), e);
+            }
+        }
+        checkpoint.delete();
+        return new TransferResult(filePath, size - resumedFrom, System.currentTimeMillis() - start, 1);
+    }
+
+    /**
+     * Upload a file to the remote filesystem. The stream is read in chunks as the data is sent
+     *
+     * @param inputStream the file to upload represented as input file stream. It is not closed
      * @param filePath    path where to upload the file
      */
     @Override
-    public void uploadFile(ByteArrayInputStream inputStream, String filePath) throws SftpException {
+    public void uploadFile(InputStream inputStream, String filePath) throws SftpException {
+        ChannelSftp channel = borrowTransferChannel();
         try {
-            channel.put(inputStream, filePath);
+            channel.put(inputStream, filePath, getProgressMonitor(channel), ChannelSftp.OVERWRITE);
+            checkCancelled(filePath);
         } catch (com.jcraft.jsch.SftpException e) {
             LOGGER.error(String.format("Failed to upload file %s exception: %s", filePath, e.getMessage()), e);
             throw new SftpException(String.format("Failed to upload file %s exception: %s", filePath, e.getMessage()), e);
+        } finally {
+            pool.release(channel);
         }
     }
 
+    /**
+     * Upload a local file to the remote filesystem, writing byte ranges of the file concurrently
+     * over several pooled channels. The remote file is first extended to its final size, so that
+     * every range can be written relative to the end of the file, regardless of the progress of the others
+     *
+     * @param sourceFile     local file to upload
+     * @param filePath       path where to upload the file
+     * @param maxSegments    maximum number of ranges to write in parallel
+     * @param minSegmentSize the file is not split in ranges smaller than this number of bytes
+     * @return Information about the completed transfer
+     */
+    @Override
+    public TransferResult uploadFile(File sourceFile, String filePath, int maxSegments, long minSegmentSize)
+            throws SftpException {
+        long start = System.currentTimeMillis();
+        long size = sourceFile.length();
+        SegmentedTransfer transfer = new SegmentedTransfer(size,
+                SegmentedTransfer.segmentCount(size, Math.min(maxSegments, pool.getMaxSize(SftpChannelPool.Lane.TRANSFER)), minSegmentSize));
+        try {
+            if (size == 0) {
+                try (InputStream in = new FileInputStream(sourceFile)) {
+                    uploadFile(in, filePath);
+                }
+            } else {
+                preallocateRemoteFile(sourceFile, filePath, size);
+                transfer.run((offset, length) -> uploadSegment(sourceFile, filePath, size, offset, length, transfer));
+            }
+        } catch (IOException e) {
+            LOGGER.error(String.format("Failed to upload file %s exception: %s", filePath, e.getMessage()), e);
+            throw new SftpException(String.format("Failed to upload file %s exception: %s", filePath, e.getMessage()), e);
+        }
+        long remoteSize = (long) getFileInfo(filePath).getSize();
+        if (remoteSize != size) {
+            throw new SftpException(String.format("Upload of %s is incomplete, expected %d bytes but found %d",
+                    filePath, size, remoteSize));
+        }
+        TransferResult result = new TransferResult(filePath, size, System.currentTimeMillis() - start,
+                transfer.getSegments());
+        LOGGER.info(String.format("Uploaded %s in %d segments at %.0f bytes/s", filePath,
+                result.getSegments(), result.getThroughput()));
+        return result;
+    }
+
+    /**
+     * Upload a local file to the remote filesystem, continuing a previous interrupted upload of the same file
+     * if the local file did not change since. Interrupted transfers are retried from the last byte
+     * stored on the server, which is the size of the partially uploaded remote file.
+     *
+     * @param sourceFile local file to upload
+     * @param filePath   path where to upload the file
+     * @param maxRetries how many times to reconnect and continue after a connection failure
+     * @return Information about the completed transfer. Only the bytes transferred by this call are counted
+     */
+    @Override
+    public TransferResult uploadFileResumable(File sourceFile, String filePath, int maxRetries)
+            throws SftpException {
+        long start = System.currentTimeMillis();
+        long size = sourceFile.length();
+        long modified = sourceFile.lastModified();
+        TransferCheckpoint checkpoint = TransferCheckpoint.load(sourceFile);
+        boolean resume = checkpoint != null && checkpoint.matches(filePath, size, modified);
+        if (!resume) {
+            checkpoint = TransferCheckpoint.create(sourceFile, filePath, size, modified);
+        }
+        long resumedFrom = -1;
+        for (int attempt = 0; ; attempt++) {
+            try {
+                if (sourceFile.length() != size || sourceFile.lastModified() != modified) {
+                    throw new SftpException("File " + sourceFile + " changed during the upload");
+                }
+                long offset = resume ? getRemoteSize(filePath) : 0;
+                if (offset > size) {
+                    // not a previous partial upload of this file, start over
+                    offset = 0;
+                }
+                if (resumedFrom < 0) {
+                    resumedFrom = offset;
+                }
+                checkpoint.setOffset(offset);
+                checkpoint.save();
+                uploadFrom(sourceFile, filePath, offset);
+                break;
+            } catch (SftpException e) {
+                awaitRetry("upload", filePath, e, attempt, maxRetries);
+                resume = true;
+            } catch (IOException e) {
+                LOGGER.error(String.format("Failed to upload file %s exception: %s", filePath, e.getMessage()), e);
+                throw new SftpException(String.format("Failed to upload file %s exception: %s",
+                        filePath, e.getMessage()), e);
+            }
+        }
+        long remoteSize = getRemoteSize(filePath);
+        if (remoteSize != size) {
+            throw new SftpException(String.format("Upload of %s is incomplete, expected %d bytes but found %d",
+                    filePath, size, remoteSize));
+        }
+        checkpoint.delete();
+        return new TransferResult(filePath, size - resumedFrom, System.currentTimeMillis() - start, 1);
+    }
+
+    /**
+     * Brings a local directory up to date with a remote directory. The remote tree is walked, the local tree
+     * scanned, and both are compared to the manifest of the last sync, so that only new or changed files are
+     * downloaded. Downloaded files get the modification time of the remote file
+     *
+     * @param remoteDirectory directory to copy from
+     * @param localDirectory  directory to copy to. It is created if missing
+     * @param manifest        state of both directories after the last sync. It is updated with the files synchronized
+     * @param deleteMissing   also delete the local files that were removed from the remote directory since the last sync
+     * @param concurrency     maximum number of files copied at the same time
+     * @return how many files were copied, deleted or left alone
+     */
+    @Override
+    public SyncResult syncFromRemote(String remoteDirectory, File localDirectory, SyncManifest manifest,
+                                     boolean deleteMissing, int concurrency) throws SftpException {
+        long start = System.currentTimeMillis();
+        String root = trimTrailingSlash(remoteDirectory);
+        Map<String, FileSystemFile> remoteFiles = listRemoteTree(root, null);
+        if (!localDirectory.isDirectory() && !localDirectory.mkdirs()) {
+            throw new SftpException("Cannot create directory " + localDirectory);
+        }
+        Map<String, File> localFiles = listLocalTree(localDirectory);
+        Queue<String> changed = new ConcurrentLinkedQueue<>();
+        int unchanged = 0;
+        for (Map.Entry<String, FileSystemFile> entry : remoteFiles.entrySet()) {
+            SyncManifest.Entry last = manifest.get(entry.getKey());
+            File localFile = localFiles.get(entry.getKey());
+            if (last != null && localFile != null && last.matches((long) entry.getValue().getSize(),
+                    entry.getValue().getDateTime().getMillis(), localFile.length(), localFile.lastModified())) {
+                unchanged++;
+            } else {
+                changed.add(entry.getKey());
+            }
+        }
+        Queue<String> errors = new ConcurrentLinkedQueue<>();
+        int deleted = 0;
+        for (String path : manifest.getPaths()) {
+            if (remoteFiles.containsKey(path)) {
+                continue;
+            }
+            File localFile = localFiles.get(path);
+            if (deleteMissing && localFile != null) {
+                if (localFile.delete()) {
+                    deleted++;
+                } else {
+                    errors.add(String.format("Failed to delete %s", localFile));
+                    continue;
+                }
+            }
+            manifest.remove(path);
+        }
+        AtomicLong bytes = new AtomicLong();
+        int transferred = syncConcurrently(changed, concurrency, errors, (channel, path) -> {
+            FileSystemFile source = remoteFiles.get(path);
+            File target = new File(localDirectory, path);
+            File parent = target.getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Cannot create directory " + parent);
+            }
+            // the file leaves the manifest until it is complete, so an interrupted copy is retried
+            manifest.remove(path);
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(target), SEGMENT_BUFFER_SIZE)) {
+                channel.get(source.getPath(), out, getProgressMonitor(channel));
+                checkCancelled(source.getPath());
+            } catch (com.jcraft.jsch.SftpException e) {
+                throw new SftpException(String.format("Failed to download file %s exception: %s",
+                        source.getPath(), e.getMessage()), e);
+            }
+            long modified = source.getDateTime().getMillis();
+            if (!target.setLastModified(modified)) {
+                LOGGER.warn("Failed to set the modification time of " + target);
+            }
+            manifest.put(path, (long) source.getSize(), modified, target.lastModified());
+            bytes.addAndGet(target.length());
+        });
+        SyncResult result = new SyncResult(root, transferred, unchanged, deleted, new ArrayList<>(errors),
+                bytes.get(), System.currentTimeMillis() - start);
+        LOGGER.info(String.format("Synchronized %s from %s: %d files copied, %d unchanged, %d deleted, %d failed " +
+                        "in %d ms", localDirectory, root, result.getTransferred(), result.getUnchanged(),
+                result.getDeleted(), result.getErrors().size(), result.getDurationMillis()));
+        return result;
+    }
+
+    /**
+     * Brings a remote directory up to date with a local directory. The local tree is scanned, the remote tree
+     * walked, and both are compared to the manifest of the last sync, so that only new or changed files are
+     * uploaded. The modification time of each uploaded file is read back, to recognize it on the next sync
+     *
+     * @param localDirectory  directory to copy from
+     * @param remoteDirectory directory to copy to. It is created if missing
+     * @param manifest        state of both directories after the last sync. It is updated with the files synchronized
+     * @param deleteMissing   also delete the remote files that were removed from the local directory since the last sync
+     * @param concurrency     maximum number of files copied at the same time
+     * @return how many files were copied, deleted or left alone
+     */
+    @Override
+    public SyncResult syncToRemote(File localDirectory, String remoteDirectory, SyncManifest manifest,
+                                   boolean deleteMissing, int concurrency) throws SftpException {
+        long start = System.currentTimeMillis();
+        String root = trimTrailingSlash(remoteDirectory);
+        if (!localDirectory.isDirectory()) {
+            throw new SftpException("Directory " + localDirectory + " does not exist");
+        }
+        Map<String, File> localFiles = listLocalTree(localDirectory);
+        Set<String> remoteDirectories = ConcurrentHashMap.newKeySet();
+        ChannelSftp rootChannel = borrowChannel();
+        try {
+            createDirectories(rootChannel, root, remoteDirectories);
+        } finally {
+            pool.release(rootChannel);
+        }
+        Map<String, FileSystemFile> remoteFiles = listRemoteTree(root, remoteDirectories);
+        Queue<String> changed = new ConcurrentLinkedQueue<>();
+        int unchanged = 0;
+        for (Map.Entry<String, File> entry : localFiles.entrySet()) {
+            SyncManifest.Entry last = manifest.get(entry.getKey());
+            FileSystemFile remoteFile = remoteFiles.get(entry.getKey());
+            if (last != null && remoteFile != null && last.matches((long) remoteFile.getSize(),
+                    remoteFile.getDateTime().getMillis(), entry.getValue().length(), entry.getValue().lastModified())) {
+                unchanged++;
+            } else {
+                changed.add(entry.getKey());
+            }
+        }
+        Queue<String> errors = new ConcurrentLinkedQueue<>();
+        Queue<String> removed = new ConcurrentLinkedQueue<>();
+        for (String path : manifest.getPaths()) {
+            if (localFiles.containsKey(path)) {
+                continue;
+            }
+            if (deleteMissing && remoteFiles.containsKey(path)) {
+                removed.add(path);
+            } else {
+                manifest.remove(path);
+            }
+        }
+        int deleted = syncConcurrently(removed, concurrency, errors, (channel, path) -> {
+            String remotePath = remoteFiles.get(path).getPath();
+            try {
+                channel.rm(remotePath);
+            } catch (com.jcraft.jsch.SftpException e) {
+                throw new SftpException(String.format("Failed to delete file %s exception: %s",
+                        remotePath, e.getMessage()), e);
+            }
+            manifest.remove(path);
+        });
+        AtomicLong bytes = new AtomicLong();
+        int transferred = syncConcurrently(changed, concurrency, errors, (channel, path) -> {
+            File source = localFiles.get(path);
+            String remotePath = childPath(root, path);
+            long size = source.length();
+            long modified = source.lastModified();
+            createDirectories(channel, remotePath.substring(0, remotePath.lastIndexOf('/')), remoteDirectories);
+            manifest.remove(path);
+            try (InputStream in = new FileInputStream(source)) {
+                channel.put(in, remotePath, getProgressMonitor(channel), ChannelSftp.OVERWRITE);
+                checkCancelled(remotePath);
+                SftpATTRS attrs = channel.stat(remotePath);
+                manifest.put(path, size, attrs.getMTime() * 1000L, modified);
+            } catch (com.jcraft.jsch.SftpException e) {
+                throw new SftpException(String.format("Failed to upload file %s exception: %s",
+                        remotePath, e.getMessage()), e);
+            }
+            bytes.addAndGet(size);
+        });
+        SyncResult result = new SyncResult(root, transferred, unchanged, deleted, new ArrayList<>(errors),
+                bytes.get(), System.currentTimeMillis() - start);
+        LOGGER.info(String.format("Synchronized %s from %s: %d files copied, %d unchanged, %d deleted, %d failed " +
+                        "in %d ms", root, localDirectory, result.getTransferred(), result.getUnchanged(),
+                result.getDeleted(), result.getErrors().size(), result.getDurationMillis()));
+        return result;
+    }
+
+    /**
+     * Walks a remote tree
+     *
+     * @param root        directory where to start
+     * @param directories if set, collects the paths of all the directories in the tree
+     * @return the files in the tree by their path relative to the root
+     */
+    private Map<String, FileSystemFile> listRemoteTree(String root, Set<String> directories) throws SftpException {
+        int prefix = root.equals("/") ? 1 : root.length() + 1;
+        Map<String, FileSystemFile> files = new HashMap<>();
+        for (FileSystemFile entry : walkDirectory(root, 0, new ListingFilter())) {
+            if (!entry.isDirectory()) {
+                files.put(entry.getPath().substring(prefix), entry);
+            } else if (directories != null) {
+                directories.add(entry.getPath());
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Scans a local tree, without following links. The manifest directories are left out
+     *
+     * @return the files in the tree by their path relative to the root, with / as separator
+     */
+    private static Map<String, File> listLocalTree(File root) throws SftpException {
+        Path rootPath = root.toPath();
+        Map<String, File> files = new HashMap<>();
+        try {
+            Files.walkFileTree(rootPath, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    return SyncManifest.DIRECTORY.equals(String.valueOf(dir.getFileName()))
+                            ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile()) {
+                        files.put(rootPath.relativize(file).toString().replace(File.separatorChar, '/'),
+                                file.toFile());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            throw new SftpException(String.format("Failed to list files in %s, exception: %s", root,
+                    e.getMessage()), e);
+        }
+        return files;
+    }
+
+    /**
+     * Creates a remote directory and its missing parents
+     *
+     * @param existing directories known to exist. Directories created are added to it
+     */
+    private void createDirectories(ChannelSftp channel, String path, Set<String> existing) throws SftpException {
+        if (path.isEmpty() || path.equals("/") || existing.contains(path)) {
+            return;
+        }
+        int index = path.lastIndexOf('/');
+        if (index > 0) {
+            createDirectories(channel, path.substring(0, index), existing);
+        }
+        try {
+            channel.stat(path);
+        } catch (com.jcraft.jsch.SftpException e) {
+            if (e.id != ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+                throw new SftpException(String.format("Failed to get file info for %s, exception: %s",
+                        path, e.getMessage()), e);
+            }
+            try {
+                channel.mkdir(path);
+            } catch (com.jcraft.jsch.SftpException mkdirException) {
+                // another worker may have created it meanwhile
+                if (!isDirectory(channel, path)) {
+                    throw new SftpException("Directory creation failed " + mkdirException.getMessage(), mkdirException);
+                }
+            }
+        }
+        existing.add(path);
+    }
+
+    /**
+     * Copies or deletes the files of a sync over several pooled channels. Each worker keeps one channel for all
+     * the files it handles. A failed file does not stop the others, its error is collected instead
+     *
+     * @return number of files handled successfully
+     */
+    private int syncConcurrently(Queue<String> paths, int concurrency, Queue<String> errors, SyncTask task)
+            throws SftpException {
+        AtomicInteger completed = new AtomicInteger();
+        int maxWorkers = pool.getMaxSize(SftpChannelPool.Lane.TRANSFER);
+        int workers = Math.min(concurrency > 0 ? Math.min(concurrency, maxWorkers) : maxWorkers, paths.size());
+        ParallelWork work = new ParallelWork();
+        for (int i = 0; i < workers; i++) {
+            work.submit(() -> {
+                ChannelSftp channel = null;
+                try {
+                    String path;
+                    while (!work.isAborted() && (path = paths.poll()) != null) {
+                        if (channel == null) {
+                            channel = borrowTransferChannel();
+                        } else {
+                            pool.renewDeadline(channel);
+                        }
+                        try {
+                            task.sync(channel, path);
+                            completed.incrementAndGet();
+                        } catch (SftpException | IOException e) {
+                            LOGGER.warn(String.format("Failed to synchronize %s: %s", path, e.getMessage()));
+                            errors.add(path + ": " + e.getMessage());
+                            if (!channel.isConnected()) {
+                                // the connection broke, continue on a new one
+                                pool.release(channel);
+                                channel = null;
+                            }
+                        }
+                    }
+                } finally {
+                    if (channel != null) {
+                        pool.release(channel);
+                    }
+                }
+            });
+        }
+        work.await();
+        return completed.get();
+    }
+
+    private static String trimTrailingSlash(String path) {
+        return path.length() > 1 && path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+    }
+
+    /**
+     * Copies or deletes a single file of a sync
+     */
+    @FunctionalInterface
+    private interface SyncTask {
+        void sync(ChannelSftp channel, String path) throws SftpException, IOException;
+    }
+
+    /**
+     * Moves to another directory. As every operation may run on a different pooled channel,
+     * the directory is remembered and applied to each channel as it gets borrowed
+     *
+     * @param directory directory to move to
+     */
     @Override
     public void changeDirectory(String directory) throws SftpException {
+        ChannelSftp channel = borrowChannel();
         try {
             channel.cd(directory);
+            workingDirectory.set(channel.pwd());
         } catch (com.jcraft.jsch.SftpException e) {
             LOGGER.error(String.format("Failed to change directory to %s exception: %s", directory, e.getMessage()), e);
             throw new SftpException(String.format("Failed to change directory to %s exception: %s",
                     directory, e.getMessage()), e);
+        } finally {
+            pool.release(channel);
         }
     }
 
     /**
-     * Closes the underlying channel and session
+     * Closes the underlying channel pool and session
      *
      * @throws Exception
      */
     @Override
     public void close() throws Exception {
-        this.isDisconnected = true;
-        if (channel != null) {
-            channel.disconnect();
+        pool.close();
+    }
+
+    public boolean isDisconnected() {
+        return pool.isClosed();
+    }
+
+    /**
+     * Appends the remote file, starting at the given offset, to the local file
+     */
+    private void downloadFrom(String filePath, File targetFile, long offset) throws SftpException, IOException {
+        ChannelSftp channel = borrowTransferChannel();
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(targetFile, true), SEGMENT_BUFFER_SIZE)) {
+            channel.get(filePath, out, getProgressMonitor(channel), ChannelSftp.RESUME, offset);
+            checkCancelled(filePath);
+        } catch (com.jcraft.jsch.SftpException e) {
+            throw new SftpException(String.format("Failed to download file %s from offset %d exception: %s",
+                    filePath, offset, e.getMessage()), e);
+        } finally {
+            pool.release(channel);
         }
-        if (session != null) {
-            session.disconnect();
+    }
+
+    /**
+     * Sends the local file to the remote file. If the offset is not zero, jsch skips the part of the local
+     * file that is already on the server, and appends the rest
+     */
+    private void uploadFrom(File sourceFile, String filePath, long offset) throws SftpException, IOException {
+        ChannelSftp channel = borrowTransferChannel();
+        try (InputStream in = new FileInputStream(sourceFile)) {
+            channel.put(in, filePath, getProgressMonitor(channel), offset > 0 ? ChannelSftp.RESUME : ChannelSftp.OVERWRITE);
+            checkCancelled(filePath);
+        } catch (com.jcraft.jsch.SftpException e) {
+            throw new SftpException(String.format("Failed to upload file %s from offset %d exception: %s",
+                    filePath, offset, e.getMessage()), e);
+        } finally {
+            pool.release(channel);
         }
     }
 
-    public boolean isDisconnected() {
-        return isDisconnected;
-    }
-
-    private void removeFolder(String directoryPath) throws com.jcraft.jsch.SftpException {
-        channel.cd(directoryPath);
-        // List source directory structure.
-        Vector<ChannelSftp.LsEntry> list = channel.ls(directoryPath);
-        // Iterate objects in the list to get file/folder names.
-        for (ChannelSftp.LsEntry oListItem : list) {
-            // If it is a file (not a directory).
-            if (!oListItem.getAttrs().isDir()) {
-                // Remove file.
-                channel.rm(directoryPath + "/" + oListItem.getFilename());
-
-            } else if (!(".".equals(oListItem.getFilename()) ||
-                    "..".equals(oListItem.getFilename()))) { // If it is a subdir.
-                try {
-                    // Try removing subdir.
-                    channel.rmdir(directoryPath + "/" + oListItem.getFilename());
-                } catch (Exception e) {
-                    // If subdir is not empty and error occurs.
-                    // Do lsFolderRemove on this subdir to enter it and clear its contents.
-                    removeFolder(directoryPath + "/" + oListItem.getFilename());
+    /**
+     * @return size of a remote file, or zero if it does not exist
+     */
+    private long getRemoteSize(String filePath) throws SftpException {
+        ChannelSftp channel = borrowChannel();
+        try {
+            return channel.stat(filePath).getSize();
+        } catch (com.jcraft.jsch.SftpException e) {
+            if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+                return 0;
+            }
+            throw new SftpException(String.format("Failed to get file info for %s, exception: %s",
+                    filePath, e.getMessage()), e);
+        } finally {
+            pool.release(channel);
+        }
+    }
+
+    /**
+     * Waits before retrying an interrupted transfer, or rethrows the failure if it cannot be retried
+     */
+    private void awaitRetry(String action, String filePath, SftpException e, int attempt, int maxRetries)
+            throws SftpException {
+        if (attempt >= maxRetries || !isRetryable(e)) {
+            LOGGER.error(String.format("Failed to %s file %s exception: %s", action, filePath, e.getMessage()), e);
+            throw e;
+        }
+        LOGGER.warn(String.format("The %s of %s was interrupted, retrying (%d/%d): %s", action, filePath,
+                attempt + 1, maxRetries, e.getMessage()));
+        try {
+            Thread.sleep(RETRY_DELAY * (attempt + 1));
+        } catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+            throw e;
+        }
+    }
+
+    /**
+     * Connection problems can be retried, while errors reported by the server like a missing file can't
+     */
+    private static boolean isRetryable(SftpException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof com.jcraft.jsch.SftpException) {
+            int id = ((com.jcraft.jsch.SftpException) cause).id;
+            return id != ChannelSftp.SSH_FX_NO_SUCH_FILE && id != ChannelSftp.SSH_FX_PERMISSION_DENIED;
+        }
+        return cause instanceof JSchException || cause instanceof IOException;
+    }
+
+    /**
+     * Removes a local file left behind by a failed download
+     */
+    private void deletePartialFile(File file) {
+        if (file.exists() && !file.delete()) {
+            LOGGER.warn("Failed to remove partially downloaded file " + file);
+        }
+    }
+
+    /**
+     * Fetches one byte range of a remote file, and writes it at the same offset in the local file
+     */
+    private void downloadSegment(String filePath, FileChannel target, long offset, long length,
+                                 SegmentedTransfer transfer) throws SftpException, IOException {
+        ChannelSftp channel = borrowTransferChannel();
+        try (InputStream in = channel.get(filePath, getProgressMonitor(channel), offset)) {
+            byte[] buffer = new byte[SEGMENT_BUFFER_SIZE];
+            long position = offset;
+            long remaining = length;
+            while (remaining > 0 && !transfer.isAborted()) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    throw new IOException(String.format("Unexpected end of file %s at offset %d", filePath, position));
+                }
+                ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, read);
+                while (byteBuffer.hasRemaining()) {
+                    position += target.write(byteBuffer, position);
+                }
+                remaining -= read;
+            }
+        } catch (com.jcraft.jsch.SftpException e) {
+            throw new SftpException(String.format("Failed to download range %d-%d of file %s exception: %s",
+                    offset, offset + length, filePath, e.getMessage()), e);
+        } finally {
+            pool.release(channel);
+        }
+    }
+
+    /**
+     * Truncates the remote file and extends it to its final size by writing its last byte
+     */
+    private void preallocateRemoteFile(File sourceFile, String filePath, long size) throws SftpException, IOException {
+        int lastByte;
+        try (RandomAccessFile source = new RandomAccessFile(sourceFile, "r")) {
+            source.seek(size - 1);
+            lastByte = source.read();
+        }
+        ChannelSftp channel = borrowTransferChannel();
+        try (OutputStream out = channel.put(filePath, null, ChannelSftp.OVERWRITE, size - 1)) {
+            out.write(lastByte);
+        } catch (com.jcraft.jsch.SftpException e) {
+            throw new SftpException(String.format("Failed to create file %s exception: %s",
+                    filePath, e.getMessage()), e);
+        } finally {
+            pool.release(channel);
+        }
+    }
+
+    /**
+     * Writes one byte range of a local file at the same offset in the remote file
+     */
+    private void uploadSegment(File sourceFile, String filePath, long size, long offset, long length,
+                               SegmentedTransfer transfer) throws SftpException, IOException {
+        ChannelSftp channel = borrowTransferChannel();
+        // in RESUME mode the offset is relative to the end of the remote file, which already has its final size
+        try (FileChannel in = FileChannel.open(sourceFile.toPath(), StandardOpenOption.READ);
+             OutputStream out = channel.put(filePath, getProgressMonitor(channel), ChannelSftp.RESUME,
+                     offset - size)) {
+            ByteBuffer buffer = ByteBuffer.allocate(SEGMENT_BUFFER_SIZE);
+            long position = offset;
+            long remaining = length;
+            while (remaining > 0 && !transfer.isAborted()) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), remaining));
+                int read = in.read(buffer, position);
+                if (read < 0) {
+                    throw new IOException(String.format("Unexpected end of file %s at offset %d", sourceFile, position));
                 }
+                out.write(buffer.array(), 0, read);
+                position += read;
+                remaining -= read;
+            }
+        } catch (com.jcraft.jsch.SftpException e) {
+            throw new SftpException(String.format("Failed to upload range %d-%d of file %s exception: %s",
+                    offset, offset + length, filePath, e.getMessage()), e);
+        } finally {
+            pool.release(channel);
+        }
+    }
+
+    /**
+     * Borrows a channel from the pool for a metadata operation, moved to the current working directory
+     */
+    private ChannelSftp borrowChannel() throws SftpException {
+        return borrowChannel(SftpChannelPool.Lane.METADATA, operationTimeout);
+    }
+
+    /**
+     * Borrows a channel for an additional worker of a parallel metadata operation, if one is free right away.
+     * Waiting for a busy pool would make the whole operation fail on the borrow timeout, while the first
+     * worker does all the work anyway
+     *
+     * @return the channel, moved to the current working directory, or null if none is free
+     */
+    private ChannelSftp tryBorrowChannel() throws SftpException {
+        ChannelSftp channel = pool.tryBorrow(SftpChannelPool.Lane.METADATA, operationTimeout);
+        return channel != null ? moveToWorkingDirectory(channel) : null;
+    }
+
+    /**
+     * Borrows a channel for a transfer. Pass {@link #getProgressMonitor(ChannelSftp)} to jsch,
+     * so that the deadline only expires if the transfer stalls
+     */
+    private ChannelSftp borrowTransferChannel() throws SftpException {
+        return borrowChannel(SftpChannelPool.Lane.TRANSFER, transferTimeout);
+    }
+
+    /**
+     * jsch ends a transfer quietly when the progress monitor cancels it, so it has to be reported here
+     */
+    private void checkCancelled(String filePath) throws SftpException {
+        if (progress != null && progress.isCancelled()) {
+            throw new SftpException("The transfer of " + filePath + " was cancelled");
+        }
+    }
+
+    /**
+     * @return the monitor to pass to jsch for a transfer, which renews the deadline of the channel and
+     * reports to the progress of this view, if any
+     */
+    private SftpProgressMonitor getProgressMonitor(ChannelSftp channel) {
+        SftpProgressMonitor deadline = pool.getProgressMonitor(channel);
+        return progress != null ? new ProgressMonitor(deadline, progress) : deadline;
+    }
+
+    private ChannelSftp borrowChannel(SftpChannelPool.Lane lane, long timeout) throws SftpException {
+        return moveToWorkingDirectory(pool.borrow(lane, timeout));
+    }
+
+    private ChannelSftp moveToWorkingDirectory(ChannelSftp channel) throws SftpException {
+        String directory = workingDirectory.get();
+        try {
+            // pwd is tracked locally by jsch, so this is only a round trip if the directory differs
+            if (directory != null && !directory.equals(channel.pwd())) {
+                channel.cd(directory);
+            }
+        } catch (com.jcraft.jsch.SftpException e) {
+            pool.release(channel);
+            throw new SftpException(String.format("Failed to change directory to %s exception: %s",
+                    directory, e.getMessage()), e);
+        }
+        return channel;
+    }
+
+    /**
+     * Reports the bytes of a transfer to a progress, and aborts the transfer once the progress is cancelled
+     */
+    private static class ProgressMonitor implements SftpProgressMonitor {
+        private final SftpProgressMonitor deadline;
+        private final TransferProgress progress;
+
+        private ProgressMonitor(SftpProgressMonitor deadline, TransferProgress progress) {
+            this.deadline = deadline;
+            this.progress = progress;
+        }
+
+        @Override
+        public void init(int op, String src, String dest, long max) {
+            progress.setTotal(max);
+            if (deadline != null) {
+                deadline.init(op, src, dest, max);
+            }
+        }
+
+        @Override
+        public boolean count(long count) {
+            progress.add(count);
+            if (deadline != null) {
+                deadline.count(count);
+            }
+            return !progress.isCancelled();
+        }
+
+        @Override
+        public void end() {
+            if (deadline != null) {
+                deadline.end();
             }
         }
-        channel.rmdir(directoryPath); // Finally remove the required dir.
     }
 }
@@ -0,0 +1,299 @@
+package com.thingworx.extensions.sftpExtension.jsch;
+
+import ch.qos.logback.classic.Logger;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+import com.thingworx.extensions.sftpExtension.SftpConfiguration;
+import com.thingworx.extensions.sftpExtension.SftpException;
+import com.thingworx.extensions.sftpExtension.SftpRepositoryThing;
+import com.thingworx.logging.LogUtilities;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The ssh sessions shared by all the connection pools of this process.
+ * Pools whose configuration points to the same endpoint (host, port, user and credentials) use the same
+ * session, each opening its own channels on it. The session is closed once the last pool using it lets go.
+ * The parsed private keys are kept across sessions, so reconnecting does not parse and decrypt them again.
+ * Each endpoint also has a {@link CircuitBreaker}, that stops connection attempts while the endpoint is down.
+ * Pools asking for different ssh algorithms do not share sessions.
+ * A session carries at most the configured number of channels, as servers refuse channels above their own
+ * limit (MaxSessions in OpenSSH). Each pool reserves its maximum number of channels on the session it joins,
+ * and a pool that does not fit in the existing sessions of its endpoint gets a new one.
+ */
+final class SftpSessionRegistry {
+    private static final Logger LOGGER = LogUtilities.getInstance().getApplicationLogger(SftpRepositoryThing.class);
+    private static final int MAX_ENDPOINTS = 64;
+    private static final Map<String, List<SharedSession>> SESSIONS = new HashMap<>();
+    /**
+     * JSch instances holding the parsed identity of an endpoint
+     */
+    private static final Map<String, JSch> CLIENTS = createLruMap();
+    private static final Map<String, CircuitBreaker> BREAKERS = createLruMap();
+
+    private SftpSessionRegistry() {
+    }
+
+    /**
+     * Takes a reference to a session of the endpoint in the configuration, that has room for the channels
+     * asked for. The session itself is only opened when {@link SharedSession#connect(SftpConfiguration)} is called.
+     *
+     * @param channels number of channels the caller may open on the session
+     * @return the shared session. Must be given back using {@link #release(SharedSession, int)}
+     */
+    static SharedSession acquire(SftpConfiguration config, int channels) {
+        String key = getEndpointKey(config);
+        synchronized (SESSIONS) {
+            List<SharedSession> sessions = SESSIONS.computeIfAbsent(key, k -> new ArrayList<>());
+            SharedSession shared = null;
+            for (SharedSession candidate : sessions) {
+                if (candidate.channels + channels <= config.getSessionMaxChannels()) {
+                    shared = candidate;
+                    break;
+                }
+            }
+            if (shared == null) {
+                shared = new SharedSession(key);
+                sessions.add(shared);
+            }
+            shared.references++;
+            shared.channels += channels;
+            return shared;
+        }
+    }
+
+    /**
+     * Gives back a reference obtained from {@link #acquire(SftpConfiguration, int)}, disconnecting the session if
+     * nobody else is using it
+     *
+     * @param channels the number of channels reserved when acquiring the session
+     */
+    static void release(SharedSession shared, int channels) {
+        synchronized (SESSIONS) {
+            shared.channels -= channels;
+            if (--shared.references > 0) {
+                return;
+            }
+            List<SharedSession> sessions = SESSIONS.get(shared.key);
+            sessions.remove(shared);
+            if (sessions.isEmpty()) {
+                SESSIONS.remove(shared.key);
+            }
+        }
+        shared.disconnect();
+    }
+
+    /**
+     * @return true if some pool holds a reference to a session of the endpoint
+     */
+    static boolean isInUse(String key) {
+        synchronized (SESSIONS) {
+            return SESSIONS.containsKey(key);
+        }
+    }
+
+    /**
+     * @return the circuit breaker guarding connections to the endpoint in the configuration
+     */
+    static CircuitBreaker getCircuitBreaker(SftpConfiguration config) {
+        synchronized (BREAKERS) {
+            return BREAKERS.computeIfAbsent(getEndpointKey(config), CircuitBreaker::new);
+        }
+    }
+
+    /**
+     * @return number of distinct endpoints that currently have a session in use
+     */
+    static int getSessionCount() {
+        synchronized (SESSIONS) {
+            return SESSIONS.size();
+        }
+    }
+
+    /**
+     * Builds the key identifying an endpoint. The credentials are only included as a digest
+     */
+    static String getEndpointKey(SftpConfiguration config) {
+        return String.format("%s@%s:%d%s#%s", config.getUsername(), config.getHost(), config.getPort(),
+                getAlgorithmKey(config), getCredentialFingerprint(config));
+    }
+
+    /**
+     * Opens a new ssh session, that is not shared. The caller must disconnect it
+     */
+    static Session createSession(SftpConfiguration config) throws JSchException {
+        // create a session
+        Session newSession = getClient(config).getSession(config.getUsername(), config.getHost(), config.getPort());
+        // accept all hosts, don't require a known_hosts list
+        newSession.setConfig("StrictHostKeyChecking", "no");
+        setPreference(newSession, config.getCiphers(), "cipher.s2c", "cipher.c2s");
+        setPreference(newSession, config.getMacs(), "mac.s2c", "mac.c2s");
+        setPreference(newSession, config.getKeyExchange(), "kex");
+        setPreference(newSession, config.getCompression(), "compression.s2c", "compression.c2s");
+        newSession.setPassword(config.getPassword());
+        newSession.connect(config.getConnectionTimeout());
+        return newSession;
+    }
+
+    /**
+     * Replaces the algorithms jsch offers by default, if the configuration asks for others
+     */
+    private static void setPreference(Session session, String algorithms, String... keys) {
+        if (algorithms == null || algorithms.trim().isEmpty()) {
+            return;
+        }
+        String value = algorithms.replaceAll("\\s", "");
+        for (String key : keys) {
+            session.setConfig(key, value);
+        }
+    }
+
+    /**
+     * @return the algorithms asked for by the configuration, or an empty string if it uses the defaults
+     */
+    private static String getAlgorithmKey(SftpConfiguration config) {
+        StringBuilder key = new StringBuilder();
+        for (String algorithms : new String[]{config.getCiphers(), config.getMacs(), config.getKeyExchange(),
+                config.getCompression()}) {
+            key.append(';');
+            if (algorithms != null) {
+                key.append(algorithms.replaceAll("\\s", ""));
+            }
+        }
+        return key.length() == 4 ? "" : "[" + key.substring(1) + "]";
+    }
+
+    /**
+     * Returns the JSch instance used to connect to an endpoint, with the private key already loaded
+     */
+    private static JSch getClient(SftpConfiguration config) throws JSchException {
+        String key = getEndpointKey(config);
+        synchronized (CLIENTS) {
+            JSch jSch = CLIENTS.get(key);
+            if (jSch == null) {
+                jSch = createClient(config);
+                CLIENTS.put(key, jSch);
+            }
+            return jSch;
+        }
+    }
+
+    private static JSch createClient(SftpConfiguration config) throws JSchException {
+        JSch jSch = new JSch();
+        // attempt to load the private key
+        if (config.getPrivateKey() != null && !"".equals(config.getPassphrase())) {
+            // get the passphrase as a byte array
+            byte[] passphraseBytes = config.getPassphrase() != null ? config.getPassphrase().getBytes() : null;
+            // the private key as a byte array
+            byte[] privateKeyBytes = config.getPrivateKey().getBytes();
+            // add the identity
+            jSch.addIdentity(config.getUsername(), privateKeyBytes, null, passphraseBytes);
+        }
+        return jSch;
+    }
+
+    /**
+     * @return a map that keeps the {@link #MAX_ENDPOINTS} most recently used entries
+     */
+    private static <V> Map<String, V> createLruMap() {
+        return new LinkedHashMap<String, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > MAX_ENDPOINTS;
+            }
+        };
+    }
+
+    private static String getCredentialFingerprint(SftpConfiguration config) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String value : new String[]{config.getPassword(), config.getPrivateKey(), config.getPassphrase()}) {
+                if (value != null) {
+                    digest.update(value.getBytes(StandardCharsets.UTF_8));
+                }
+                // separator, so that moving characters from one credential to another changes the digest
+                digest.update((byte) 0);
+            }
+            StringBuilder fingerprint = new StringBuilder();
+            for (byte b : digest.digest()) {
+                fingerprint.append(String.format("%02x", b));
+            }
+            return fingerprint.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * An ssh session referenced by one or more connection pools
+     */
+    static final class SharedSession {
+        private final String key;
+        private int references;
+        /**
+         * Channels reserved by the pools using the session. Guarded by the registry lock
+         */
+        private int channels;
+        private Session session;
+
+        private SharedSession(String key) {
+            this.key = key;
+        }
+
+        /**
+         * Returns the connected session, opening it first if it's not open yet or was dropped.
+         * Callers should compare the result with the session they used before, as channels opened on a
+         * dropped session are useless.
+         *
+         * @throws SftpException if the circuit breaker of the endpoint is open
+         */
+        synchronized Session connect(SftpConfiguration config) throws JSchException, SftpException {
+            if (session == null || !session.isConnected()) {
+                // checked while holding the lock, so that callers queued behind a failing attempt fail fast
+                getCircuitBreaker(config).checkAvailable();
+                open(config);
+            }
+            return session;
+        }
+
+        /**
+         * Connects regardless of the circuit breaker state, used to find out if the endpoint is back
+         */
+        synchronized void probe(SftpConfiguration config) throws JSchException {
+            if (session == null || !session.isConnected()) {
+                open(config);
+            } else {
+                getCircuitBreaker(config).recordSuccess();
+            }
+        }
+
+        private void open(SftpConfiguration config) throws JSchException {
+            CircuitBreaker breaker = getCircuitBreaker(config);
+            try {
+                session = SftpSessionRegistry.createSession(config);
+            } catch (JSchException e) {
+                breaker.recordFailure(config, e);
+                throw e;
+            }
+            breaker.recordSuccess();
+            LOGGER.info(String.format("Opened sftp session %s@%s:%d", config.getUsername(), config.getHost(),
+                    config.getPort()));
+        }
+
+        private synchronized void disconnect() {
+            if (session != null) {
+                session.disconnect();
+                session = null;
+                LOGGER.info("Closed sftp session " + key.substring(0, key.lastIndexOf('#')));
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.thingworx.extensions.sftpExtension.jsch;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * Progress of a resumable transfer, persisted next to the local file of the transfer.
+ * Records the identity of the transfer source (size and modification time), so that a transfer is
+ * only resumed if the source did not change in the meantime.
+ */
+class TransferCheckpoint {
+    private static final String EXTENSION = ".checkpoint";
+
+    private final File file;
+    private String remotePath;
+    private long sourceSize;
+    private long sourceModified;
+    private long offset;
+
+    private TransferCheckpoint(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Loads the checkpoint of a transfer
+     *
+     * @param localFile local file that is downloaded or uploaded
+     * @return the checkpoint, or null if the transfer did not start before or the checkpoint is unreadable
+     */
+    static TransferCheckpoint load(File localFile) {
+        TransferCheckpoint checkpoint = new TransferCheckpoint(checkpointFile(localFile));
+        if (!checkpoint.file.isFile()) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(checkpoint.file)) {
+            properties.load(in);
+            checkpoint.remotePath = properties.getProperty("remotePath");
+            checkpoint.sourceSize = Long.parseLong(properties.getProperty("sourceSize"));
+            checkpoint.sourceModified = Long.parseLong(properties.getProperty("sourceModified"));
+            checkpoint.offset = Long.parseLong(properties.getProperty("offset", "0"));
+            return checkpoint;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Creates a checkpoint for a new transfer. It is not persisted until {@link #save()}
+     */
+    static TransferCheckpoint create(File localFile, String remotePath, long sourceSize, long sourceModified) {
+        TransferCheckpoint checkpoint = new TransferCheckpoint(checkpointFile(localFile));
+        checkpoint.remotePath = remotePath;
+        checkpoint.sourceSize = sourceSize;
+        checkpoint.sourceModified = sourceModified;
+        return checkpoint;
+    }
+
+    /**
+     * @return true if this checkpoint was made for the same transfer, and the source did not change since
+     */
+    boolean matches(String remotePath, long sourceSize, long sourceModified) {
+        return remotePath.equals(this.remotePath) && sourceSize == this.sourceSize
+                && sourceModified == this.sourceModified;
+    }
+
+    long getOffset() {
+        return offset;
+    }
+
+    void setOffset(long offset) {
+        this.offset = offset;
+    }
+
+    void save() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("remotePath", remotePath);
+        properties.setProperty("sourceSize", String.valueOf(sourceSize));
+        properties.setProperty("sourceModified", String.valueOf(sourceModified));
+        properties.setProperty("offset", String.valueOf(offset));
+        try (OutputStream out = new FileOutputStream(file)) {
+            properties.store(out, "sftp transfer checkpoint");
+        }
+    }
+
+    void delete() {
+        if (file.exists() && !file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    private static File checkpointFile(File localFile) {
+        return new File(localFile.getPath() + EXTENSION);
+    }
+}
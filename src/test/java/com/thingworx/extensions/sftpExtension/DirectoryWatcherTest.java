@@ -0,0 +1,105 @@
+package com.thingworx.extensions.sftpExtension;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class DirectoryWatcherTest {
+    private final List<FileSystemFile> listing = new ArrayList<>();
+    private final List<String> changes = new ArrayList<>();
+    private boolean unreachable;
+
+    @Test
+    public void filesOfTheFirstListingAreTheBaseline() {
+        listing.add(file("a.txt", 10, 1000));
+        DirectoryWatcher watcher = createWatcher(0);
+        watcher.poll();
+        assertEquals(1, watcher.getFileCount());
+        assertEquals(0, changes.size());
+    }
+
+    @Test
+    public void reportsAddedModifiedAndRemovedFiles() {
+        DirectoryWatcher watcher = createWatcher(0);
+        watcher.poll();
+        listing.add(file("a.txt", 10, 1000));
+        watcher.poll();
+        listing.set(0, file("a.txt", 20, 2000));
+        watcher.poll();
+        // unchanged, nothing to report
+        watcher.poll();
+        listing.clear();
+        watcher.poll();
+        assertEquals(Arrays.asList("ADDED /in/a.txt 10", "MODIFIED /in/a.txt 20", "REMOVED /in/a.txt 20"), changes);
+    }
+
+    @Test
+    public void waitsUntilFilesAreStable() throws InterruptedException {
+        DirectoryWatcher watcher = createWatcher(100);
+        watcher.poll();
+        listing.add(file("a.txt", 10, 1000));
+        watcher.poll();
+        // still being written
+        listing.set(0, file("a.txt", 20, 1100));
+        watcher.poll();
+        assertEquals(0, changes.size());
+        Thread.sleep(150);
+        watcher.poll();
+        assertEquals(Arrays.asList("ADDED /in/a.txt 20"), changes);
+    }
+
+    @Test
+    public void fileRemovedBeforeBeingStableIsNotReported() {
+        DirectoryWatcher watcher = createWatcher(60000);
+        watcher.poll();
+        listing.add(file("a.txt", 10, 1000));
+        watcher.poll();
+        listing.clear();
+        watcher.poll();
+        assertEquals(0, changes.size());
+        assertEquals(0, watcher.getFileCount());
+    }
+
+    @Test
+    public void failedListingKeepsTheSnapshot() {
+        listing.add(file("a.txt", 10, 1000));
+        DirectoryWatcher watcher = createWatcher(0);
+        watcher.poll();
+        unreachable = true;
+        watcher.poll();
+        unreachable = false;
+        watcher.poll();
+        assertEquals(1, watcher.getFileCount());
+        assertEquals(0, changes.size());
+    }
+
+    private DirectoryWatcher createWatcher(long stableTime) {
+        SftpRepository repository = (SftpRepository) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{SftpRepository.class}, (proxy, method, args) -> {
+                    if (!method.getName().equals("listFiles")) {
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                    if (unreachable) {
+                        throw new SftpException("Connection refused");
+                    }
+                    return new ArrayList<>(listing);
+                });
+        return new DirectoryWatcher(repository, "/in", new ListingFilter(), stableTime,
+                (change, path, size, modified) -> changes.add(change + " " + path + " " + size));
+    }
+
+    private static FileSystemFile file(String name, long size, long modified) {
+        FileSystemFile file = new FileSystemFile();
+        file.setName(name);
+        file.setPath("/in/" + name);
+        file.setSize(size);
+        file.setDateTime(new DateTime(modified));
+        return file;
+    }
+}
@@ -0,0 +1,67 @@
+package com.thingworx.extensions.sftpExtension;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+    private static final long MILLISECOND = 1000 * 1000;
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMean(), 0);
+        assertEquals(0, histogram.getPercentile(99), 0);
+    }
+
+    @Test
+    public void smallDurationsAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        // below 8 microseconds every value has a bucket of its own
+        for (int micros = 1; micros <= 7; micros++) {
+            histogram.record(micros * 1000);
+        }
+        assertEquals(0.004, histogram.getPercentile(50), 0);
+        assertEquals(0.007, histogram.getPercentile(100), 0);
+    }
+
+    @Test
+    public void percentilesAreWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * MILLISECOND);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500.5, histogram.getMean(), 0.001);
+        assertEquals(1000, histogram.getMax(), 0);
+        assertWithin(500, histogram.getPercentile(50));
+        assertWithin(900, histogram.getPercentile(90));
+        assertWithin(990, histogram.getPercentile(99));
+        assertEquals(1000, histogram.getPercentile(100), 0);
+    }
+
+    @Test
+    public void percentileNeverExceedsMaximum() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000 * MILLISECOND);
+        assertEquals(1000, histogram.getPercentile(50), 0);
+    }
+
+    @Test
+    public void negativeDurationsCountAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getMax(), 0);
+    }
+
+    /**
+     * Percentiles are the upper bound of their bucket, so they may overestimate by one bucket width
+     */
+    private static void assertWithin(double expected, double actual) {
+        assertTrue("expected about " + expected + " but was " + actual,
+                actual >= expected && actual <= expected * 1.125);
+    }
+}
@@ -0,0 +1,80 @@
+package com.thingworx.extensions.sftpExtension;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ListingFilterTest {
+
+    @Test
+    public void translatesWildcards() {
+        assertEquals(".*\\.csv", ListingFilter.globToRegex("*.csv"));
+        assertEquals("report-..\\.txt", ListingFilter.globToRegex("report-??.txt"));
+    }
+
+    @Test
+    public void translatesAlternatives() {
+        assertEquals("report\\.(?:txt|log)", ListingFilter.globToRegex("report.{txt,log}"));
+        // a comma outside of an alternative is a literal
+        assertEquals("a,b", ListingFilter.globToRegex("a,b"));
+    }
+
+    @Test
+    public void translatesCharacterClasses() {
+        assertEquals("data[0-9]\\.bin", ListingFilter.globToRegex("data[0-9].bin"));
+        assertEquals("[^.].*", ListingFilter.globToRegex("[!.]*"));
+    }
+
+    @Test
+    public void escapesRegexCharacters() {
+        assertEquals("a\\+b\\(1\\)\\$\\^\\|", ListingFilter.globToRegex("a+b(1)$^|"));
+        assertEquals("a\\}", ListingFilter.globToRegex("a}"));
+    }
+
+    @Test
+    public void matchesNamesWithGlob() {
+        ListingFilter filter = new ListingFilter();
+        filter.setGlob("report-??.{txt,log}");
+        assertTrue(filter.accepts("report-01.txt", false, 0, 0));
+        assertTrue(filter.accepts("report-02.log", false, 0, 0));
+        assertFalse(filter.accepts("report-1.txt", false, 0, 0));
+        assertFalse(filter.accepts("report-01.csv", false, 0, 0));
+        assertFalse(filter.accepts("report-01xtxt", false, 0, 0));
+    }
+
+    @Test
+    public void checksSizesOfFilesOnly() {
+        ListingFilter filter = new ListingFilter();
+        filter.setMinSize(10);
+        filter.setMaxSize(20);
+        assertFalse(filter.accepts("small", false, 9, 0));
+        assertTrue(filter.accepts("fits", false, 10, 0));
+        assertTrue(filter.accepts("fits", false, 20, 0));
+        assertFalse(filter.accepts("large", false, 21, 0));
+        assertTrue(filter.accepts("directory", true, 4096, 0));
+    }
+
+    @Test
+    public void checksModificationTimeRange() {
+        ListingFilter filter = new ListingFilter();
+        filter.setModifiedAfter(1000);
+        filter.setModifiedBefore(2000);
+        assertFalse(filter.accepts("old", false, 0, 999));
+        assertTrue(filter.accepts("first", false, 0, 1000));
+        assertFalse(filter.accepts("new", false, 0, 2000));
+    }
+
+    @Test
+    public void filtersEntryTypes() {
+        ListingFilter filter = new ListingFilter();
+        filter.setIncludeDirectories(false);
+        assertTrue(filter.accepts("file", false, 0, 0));
+        assertFalse(filter.accepts("directory", true, 0, 0));
+        filter.setIncludeDirectories(true);
+        filter.setIncludeFiles(false);
+        assertFalse(filter.accepts("file", false, 0, 0));
+        assertTrue(filter.accepts("directory", true, 0, 0));
+    }
+}
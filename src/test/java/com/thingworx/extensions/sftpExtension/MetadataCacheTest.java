@@ -0,0 +1,52 @@
+package com.thingworx.extensions.sftpExtension;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class MetadataCacheTest {
+
+    @Test
+    public void countsHitsAndMisses() {
+        MetadataCache<String> cache = new MetadataCache<>(60000, 10);
+        cache.put("/a", "A");
+        assertEquals("A", cache.get("/a"));
+        assertNull(cache.get("/b"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void expiredEntriesAreRemoved() throws InterruptedException {
+        MetadataCache<String> cache = new MetadataCache<>(20, 10);
+        cache.put("/a", "A");
+        Thread.sleep(50);
+        assertNull(cache.get("/a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void leastRecentlyUsedEntryIsEvicted() {
+        MetadataCache<String> cache = new MetadataCache<>(60000, 2);
+        cache.put("/a", "A");
+        cache.put("/b", "B");
+        cache.get("/a");
+        cache.put("/c", "C");
+        assertEquals("A", cache.get("/a"));
+        assertNull(cache.get("/b"));
+        assertEquals("C", cache.get("/c"));
+    }
+
+    @Test
+    public void invalidateRemovesMatchingKeysOnly() {
+        MetadataCache<String> cache = new MetadataCache<>(60000, 10);
+        cache.put("/dir/a", "A");
+        cache.put("/dir/b", "B");
+        cache.put("/other", "O");
+        cache.invalidate(key -> key.startsWith("/dir/"));
+        assertNull(cache.get("/dir/a"));
+        assertNull(cache.get("/dir/b"));
+        assertEquals("O", cache.get("/other"));
+    }
+}
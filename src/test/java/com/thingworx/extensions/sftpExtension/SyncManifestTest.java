@@ -0,0 +1,95 @@
+package com.thingworx.extensions.sftpExtension;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SyncManifestTest {
+    private File directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("sync-manifest").toFile();
+    }
+
+    @After
+    public void deleteDirectory() {
+        deleteTree(directory);
+    }
+
+    @Test
+    public void savedManifestLoadsBack() throws IOException {
+        SyncManifest manifest = new SyncManifest();
+        manifest.put("a.txt", 10, 1000, 2000);
+        manifest.put("sub dir/b=c.txt", 20, 3000, 4000);
+        File file = new File(new File(directory, SyncManifest.DIRECTORY), "manifest.properties");
+        manifest.save(file);
+
+        SyncManifest loaded = SyncManifest.load(file);
+        assertEquals(new HashSet<>(Arrays.asList("a.txt", "sub dir/b=c.txt")), loaded.getPaths());
+        SyncManifest.Entry entry = loaded.get("sub dir/b=c.txt");
+        assertEquals(20, entry.getSize());
+        assertEquals(3000, entry.getRemoteModified());
+        assertEquals(4000, entry.getLocalModified());
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void missingManifestIsEmpty() {
+        assertEquals(0, SyncManifest.load(new File(directory, "missing.properties")).size());
+    }
+
+    @Test
+    public void unreadableManifestIsEmpty() throws IOException {
+        File file = new File(directory, "broken.properties");
+        Files.write(file.toPath(), "a.txt=not,a,number\n".getBytes(StandardCharsets.ISO_8859_1));
+        assertEquals(0, SyncManifest.load(file).size());
+    }
+
+    @Test
+    public void removedEntriesAreNotSaved() throws IOException {
+        SyncManifest manifest = new SyncManifest();
+        manifest.put("a.txt", 10, 1000, 2000);
+        manifest.put("b.txt", 10, 1000, 2000);
+        manifest.remove("a.txt");
+        File file = new File(directory, "manifest.properties");
+        manifest.save(file);
+        SyncManifest loaded = SyncManifest.load(file);
+        assertNull(loaded.get("a.txt"));
+        assertEquals(1, loaded.size());
+    }
+
+    @Test
+    public void entryMatchesOnlyUnchangedFiles() {
+        SyncManifest manifest = new SyncManifest();
+        manifest.put("a.txt", 10, 1000, 2000);
+        SyncManifest.Entry entry = manifest.get("a.txt");
+        assertTrue(entry.matches(10, 1000, 10, 2000));
+        assertFalse(entry.matches(11, 1000, 10, 2000));
+        assertFalse(entry.matches(10, 1001, 10, 2000));
+        assertFalse(entry.matches(10, 1000, 9, 2000));
+        assertFalse(entry.matches(10, 1000, 10, 2001));
+    }
+
+    private static void deleteTree(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteTree(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,104 @@
+package com.thingworx.extensions.sftpExtension;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TransferQueueTest {
+    private final List<TransferJob> finished = Collections.synchronizedList(new ArrayList<>());
+    private final CountDownLatch release = new CountDownLatch(1);
+    private TransferQueue queue;
+
+    @Before
+    public void createQueue() {
+        queue = new TransferQueue(1, 2, finished::add);
+    }
+
+    @After
+    public void closeQueue() {
+        release.countDown();
+        queue.close();
+    }
+
+    @Test
+    public void completedJobIsReported() throws Exception {
+        TransferJob job = queue.submit("download", "/a", "a", progress -> progress.setTotal(1));
+        waitForFinished(1);
+        assertEquals(TransferJob.Status.COMPLETED, job.getStatus());
+    }
+
+    @Test
+    public void failedJobKeepsTheError() throws Exception {
+        TransferJob job = queue.submit("download", "/a", "a", progress -> {
+            throw new SftpException("No such file");
+        });
+        waitForFinished(1);
+        assertEquals(TransferJob.Status.FAILED, job.getStatus());
+        assertEquals("No such file", job.getError());
+    }
+
+    @Test
+    public void queueRejectsJobsBeyondCapacity() throws Exception {
+        queue.submit("download", "/running", "a", progress -> release.await());
+        queue.submit("download", "/queued-1", "a", progress -> release.await());
+        queue.submit("download", "/queued-2", "a", progress -> release.await());
+        try {
+            queue.submit("download", "/rejected", "a", progress -> release.await());
+            fail("the queue is full");
+        } catch (SftpException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void cancelledQueuedJobIsReportedAndNeverRuns() throws Exception {
+        queue.submit("download", "/running", "a", progress -> release.await());
+        boolean[] ran = new boolean[1];
+        TransferJob job = queue.submit("download", "/queued", "a", progress -> ran[0] = true);
+        assertTrue(queue.cancel(job.getId()));
+        assertEquals(TransferJob.Status.CANCELLED, job.getStatus());
+        assertEquals(1, finished.size());
+        release.countDown();
+        waitForFinished(2);
+        assertFalse(ran[0]);
+    }
+
+    @Test
+    public void closingReportsEveryJob() throws Exception {
+        TransferJob running = queue.submit("download", "/running", "a", progress -> {
+            while (!progress.isCancelled()) {
+                Thread.sleep(10);
+            }
+            throw new SftpException("cancelled");
+        });
+        TransferJob queued = queue.submit("download", "/queued", "a", progress -> release.await());
+        while (running.getStatus() != TransferJob.Status.RUNNING) {
+            Thread.sleep(10);
+        }
+        queue.close();
+        waitForFinished(2);
+        assertEquals(TransferJob.Status.CANCELLED, running.getStatus());
+        assertEquals(TransferJob.Status.CANCELLED, queued.getStatus());
+    }
+
+    private void waitForFinished(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (finished.size() < count) {
+            if (System.nanoTime() > deadline) {
+                fail("only " + finished.size() + " of " + count + " jobs finished");
+            }
+            Thread.sleep(10);
+        }
+    }
+}
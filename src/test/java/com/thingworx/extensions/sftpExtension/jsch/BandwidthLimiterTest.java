@@ -0,0 +1,101 @@
+package com.thingworx.extensions.sftpExtension.jsch;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BandwidthLimiterTest {
+    private static final int CHUNK = 8 * 1024;
+    private static final Runnable NO_HEARTBEAT = () -> {
+    };
+
+    @Test
+    public void lowestRequestedRateApplies() {
+        BandwidthLimiter limiter = new BandwidthLimiter();
+        assertTrue(limiter.isUnused());
+        limiter.addRate(0);
+        limiter.addRate(2000);
+        limiter.addRate(1000);
+        assertEquals(1000, limiter.getRate());
+        limiter.removeRate(1000);
+        assertEquals(2000, limiter.getRate());
+        limiter.removeRate(2000);
+        assertEquals(0, limiter.getRate());
+        assertFalse(limiter.isUnused());
+        limiter.removeRate(0);
+        assertTrue(limiter.isUnused());
+    }
+
+    @Test
+    public void unlimitedTransfersDoNotWait() throws InterruptedException {
+        BandwidthLimiter limiter = new BandwidthLimiter();
+        limiter.addRate(0);
+        long start = System.nanoTime();
+        limiter.acquire(new BandwidthLimiter.Flow(1), 100L * 1024 * 1024, NO_HEARTBEAT);
+        assertTrue((System.nanoTime() - start) / 1000000 < 100);
+    }
+
+    @Test
+    public void transfersArePacedAtTheRate() throws InterruptedException {
+        BandwidthLimiter limiter = new BandwidthLimiter();
+        limiter.addRate(1024 * 1024);
+        BandwidthLimiter.Flow flow = new BandwidthLimiter.Flow(1);
+        long start = System.nanoTime();
+        // the bucket starts empty, so one megabyte takes about one second
+        for (int sent = 0; sent < 1024 * 1024; sent += CHUNK) {
+            limiter.acquire(flow, CHUNK, NO_HEARTBEAT);
+        }
+        long elapsed = (System.nanoTime() - start) / 1000000;
+        assertTrue("took " + elapsed + " ms", elapsed >= 900 && elapsed < 1500);
+    }
+
+    @Test
+    public void rateIsSharedInProportionToWeights() throws InterruptedException {
+        BandwidthLimiter limiter = new BandwidthLimiter();
+        limiter.addRate(1024 * 1024);
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong heavyBytes = new AtomicLong();
+        AtomicLong lightBytes = new AtomicLong();
+        Thread heavy = startTransfer(limiter, new BandwidthLimiter.Flow(3), heavyBytes, running);
+        Thread light = startTransfer(limiter, new BandwidthLimiter.Flow(1), lightBytes, running);
+        Thread.sleep(2000);
+        running.set(false);
+        heavy.join();
+        light.join();
+        double ratio = (double) heavyBytes.get() / lightBytes.get();
+        assertTrue("ratio was " + ratio, ratio > 2.4 && ratio < 3.6);
+    }
+
+    @Test
+    public void waitingTransfersGetHeartbeats() throws InterruptedException {
+        BandwidthLimiter limiter = new BandwidthLimiter();
+        limiter.addRate(1024);
+        AtomicLong heartbeats = new AtomicLong();
+        BandwidthLimiter.Flow flow = new BandwidthLimiter.Flow(1);
+        limiter.acquire(flow, 2048, heartbeats::incrementAndGet);
+        // pays for the debt of the previous chunk, about two seconds
+        limiter.acquire(flow, 1, heartbeats::incrementAndGet);
+        assertTrue(heartbeats.get() >= 2);
+    }
+
+    private static Thread startTransfer(BandwidthLimiter limiter, BandwidthLimiter.Flow flow, AtomicLong bytes,
+                                        AtomicBoolean running) {
+        Thread thread = new Thread(() -> {
+            try {
+                while (running.get()) {
+                    limiter.acquire(flow, CHUNK, NO_HEARTBEAT);
+                    bytes.addAndGet(CHUNK);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        thread.start();
+        return thread;
+    }
+}
@@ -0,0 +1,52 @@
+package com.thingworx.extensions.sftpExtension.jsch;
+
+import com.thingworx.extensions.sftpExtension.SftpConfiguration;
+import com.thingworx.extensions.sftpExtension.SftpException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class CircuitBreakerTest {
+
+    @Test
+    public void opensAfterTheFailureThreshold() throws SftpException {
+        SftpConfiguration config = createConfiguration();
+        CircuitBreaker breaker = new CircuitBreaker(SftpSessionRegistry.getEndpointKey(config));
+        breaker.recordFailure(config, new Exception("Connection refused"));
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.checkAvailable();
+        breaker.recordFailure(config, new Exception("Connection refused"));
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        try {
+            breaker.checkAvailable();
+            fail("the circuit is open");
+        } catch (SftpException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void closesOnSuccess() throws SftpException {
+        SftpConfiguration config = createConfiguration();
+        CircuitBreaker breaker = new CircuitBreaker(SftpSessionRegistry.getEndpointKey(config));
+        breaker.recordFailure(config, new Exception("Connection refused"));
+        breaker.recordFailure(config, new Exception("Connection refused"));
+        breaker.recordSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.checkAvailable();
+        // the failures are counted from zero again
+        breaker.recordFailure(config, new Exception("Connection refused"));
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    private static SftpConfiguration createConfiguration() {
+        SftpConfiguration config = new SftpConfiguration();
+        config.setHost("breaker.example.com");
+        config.setUsername("user");
+        config.setCircuitFailureThreshold(2);
+        // long enough for the background probe not to run during the test
+        config.setCircuitInitialBackoff(60 * 60 * 1000);
+        return config;
+    }
+}
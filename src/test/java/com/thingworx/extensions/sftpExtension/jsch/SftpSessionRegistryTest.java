@@ -0,0 +1,78 @@
+package com.thingworx.extensions.sftpExtension.jsch;
+
+import com.thingworx.extensions.sftpExtension.SftpConfiguration;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SftpSessionRegistryTest {
+
+    @Test
+    public void poolsOfTheSameEndpointShareASession() {
+        SftpConfiguration config = createConfiguration("shared.example.com");
+        SftpSessionRegistry.SharedSession first = SftpSessionRegistry.acquire(config, 4);
+        SftpSessionRegistry.SharedSession second = SftpSessionRegistry.acquire(config, 4);
+        assertSame(first, second);
+        SftpSessionRegistry.release(first, 4);
+        assertTrue(SftpSessionRegistry.isInUse(SftpSessionRegistry.getEndpointKey(config)));
+        SftpSessionRegistry.release(second, 4);
+        assertFalse(SftpSessionRegistry.isInUse(SftpSessionRegistry.getEndpointKey(config)));
+    }
+
+    @Test
+    public void poolsThatDoNotFitGetAnotherSession() {
+        SftpConfiguration config = createConfiguration("full.example.com");
+        config.setSessionMaxChannels(10);
+        SftpSessionRegistry.SharedSession first = SftpSessionRegistry.acquire(config, 4);
+        SftpSessionRegistry.SharedSession second = SftpSessionRegistry.acquire(config, 4);
+        SftpSessionRegistry.SharedSession third = SftpSessionRegistry.acquire(config, 4);
+        assertSame(first, second);
+        assertNotSame(first, third);
+        // the channels given back make room on the first session again
+        SftpSessionRegistry.release(second, 4);
+        SftpSessionRegistry.SharedSession fourth = SftpSessionRegistry.acquire(config, 6);
+        assertSame(first, fourth);
+        SftpSessionRegistry.release(first, 4);
+        SftpSessionRegistry.release(third, 4);
+        assertTrue(SftpSessionRegistry.isInUse(SftpSessionRegistry.getEndpointKey(config)));
+        SftpSessionRegistry.release(fourth, 6);
+        assertFalse(SftpSessionRegistry.isInUse(SftpSessionRegistry.getEndpointKey(config)));
+    }
+
+    @Test
+    public void referencesWithoutChannelsFitInAnySession() {
+        SftpConfiguration config = createConfiguration("probe.example.com");
+        config.setSessionMaxChannels(4);
+        SftpSessionRegistry.SharedSession pool = SftpSessionRegistry.acquire(config, 4);
+        SftpSessionRegistry.SharedSession probe = SftpSessionRegistry.acquire(config, 0);
+        assertSame(pool, probe);
+        SftpSessionRegistry.release(probe, 0);
+        SftpSessionRegistry.release(pool, 4);
+        assertFalse(SftpSessionRegistry.isInUse(SftpSessionRegistry.getEndpointKey(config)));
+    }
+
+    @Test
+    public void endpointKeyDependsOnCredentialsAndAlgorithms() {
+        SftpConfiguration config = createConfiguration("keys.example.com");
+        String key = SftpSessionRegistry.getEndpointKey(config);
+        SftpConfiguration otherPassword = createConfiguration("keys.example.com");
+        otherPassword.setPassword("other");
+        assertNotEquals(key, SftpSessionRegistry.getEndpointKey(otherPassword));
+        SftpConfiguration otherCipher = createConfiguration("keys.example.com");
+        otherCipher.setCiphers("aes128-ctr");
+        assertNotEquals(key, SftpSessionRegistry.getEndpointKey(otherCipher));
+        assertFalse("credentials must not appear in the key", key.contains("secret"));
+    }
+
+    private static SftpConfiguration createConfiguration(String host) {
+        SftpConfiguration config = new SftpConfiguration();
+        config.setHost(host);
+        config.setUsername("user");
+        config.setPassword("secret");
+        return config;
+    }
+}